@@ -0,0 +1,60 @@
+package com.bluetooth.printer;
+
+/**
+ * {@link RasterSource} over a row-major ARGB array of opaque pixels, binarized by a
+ * {@link Ditherer}. The array is left untouched.
+ */
+class ArgbRasterSource implements RasterSource {
+
+	private final int[] argb;
+	private final int width;
+	private final int height;
+	private final Ditherer ditherer;
+
+	public ArgbRasterSource(int[] argb, int width, int height) {
+		this(argb, width, height, Ditherer.create(Ditherer.THRESHOLD, width, null));
+	}
+
+	public ArgbRasterSource(int[] argb, int width, int height, Ditherer ditherer) {
+		if (argb.length < width * height) {
+			throw new IllegalArgumentException("Pixel array too small for " + width + "x" + height);
+		}
+		this.argb = argb;
+		this.width = width;
+		this.height = height;
+		this.ditherer = ditherer;
+	}
+
+	/** 256-bin luminance histogram of the whole image, for {@link Ditherer#OTSU}. */
+	public static int[] histogram(int[] argb, int width, int height) {
+		int[] histogram = new int[256];
+		Ditherer.accumulate(argb, 0, width * height, histogram);
+		return histogram;
+	}
+
+	@Override
+	public boolean isSequential() {
+		return ditherer.isSequential();
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public void readRows(int y, int rowCount, byte[] dst, int dstOffset) {
+		int rowBytes = RasterEncoder.rowBytes(width);
+		int[] luma = new int[width];
+		for (int i = 0; i < rowCount; i++) {
+			System.arraycopy(argb, (y + i) * width, luma, 0, width);
+			RasterEncoder.toLuminance(luma, 0, width);
+			ditherer.packRow(luma, 0, width, y + i, dst, dstOffset + i * rowBytes);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.bluetooth.printer;
+
+/**
+ * {@link GlyphRasterizer} over a {@link GlyphAtlas}, for the characters a code
+ * page lacks in text printed in font A. Glyphs of the default font are centred
+ * in a cell: ASCII-width ones take 12 dots like font A, wide ones such as CJK 24.
+ * A character drawn once is copied from the atlas afterwards.
+ */
+final class AtlasGlyphRasterizer implements GlyphRasterizer {
+
+	private static final int NARROW_WIDTH = 12;
+	private static final int WIDE_WIDTH = 24;
+
+	private final GlyphAtlas atlas;
+	private final GlyphAtlas.Font font;
+
+	public AtlasGlyphRasterizer(GlyphAtlas atlas) {
+		this.atlas = atlas;
+		this.font = atlas.font(GlyphAtlas.DEFAULT_FONT, HEIGHT - 2, false, false);
+	}
+
+	@Override
+	public int getWidth(int codePoint) {
+		return atlas.get(font, codePoint).width > NARROW_WIDTH + 2 ? WIDE_WIDTH : NARROW_WIDTH;
+	}
+
+	@Override
+	public void draw(int codePoint, byte[] rows, int rowBytes, int x) {
+		GlyphAtlas.Glyph glyph = atlas.get(font, codePoint);
+		int width = glyph.width > NARROW_WIDTH + 2 ? WIDE_WIDTH : NARROW_WIDTH;
+		int left = x + Math.max(0, (width - glyph.width) / 2);
+		// centre the font's ascent and descent in the band
+		int top = (HEIGHT - glyph.height) / 2;
+		for (int y = 0; y < HEIGHT; y++) {
+			glyph.copyRow(y - top, rows, y * rowBytes, left, x + width);
+		}
+	}
+}
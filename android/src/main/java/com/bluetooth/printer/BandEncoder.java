@@ -0,0 +1,212 @@
+package com.bluetooth.printer;
+
+import java.util.Arrays;
+
+/**
+ * Encodes a {@link RasterSource} one band at a time: a 24-row ESC * 33 band in
+ * column mode, or one GS v 0 block of up to {@link RasterEncoder#STRIP_HEIGHT}
+ * rows in raster mode. Concatenating every band gives the complete image command
+ * stream, so callers can either fill one buffer or send bands as they are produced.
+ *
+ * A compact encoder skips what prints as white paper. Blank bands become an ESC J
+ * feed of the same height, and in raster mode blank rows at the top and bottom of
+ * a block become feeds. The paper then advances exactly as it would for the full
+ * image.
+ *
+ * A trimming encoder also cuts each band at its own rightmost black dot, so bands
+ * differ in width. That is only correct while the printer left-justifies (ESC a 0):
+ * centred or right-aligned, every band would be placed by its own width and the
+ * image would come out skewed. Trim only left-aligned images.
+ *
+ * {@link #bandSize(int)} depends only on the image dimensions. It is exact for a
+ * full encoder and an upper bound for a compact one, so a band can also be encoded
+ * on its own with {@link #encodeBand(int, byte[], int, byte[])}, given a source
+ * that allows concurrent reads.
+ */
+class BandEncoder {
+
+	private final RasterSource source;
+	private final boolean raster;
+	private final boolean compact;
+	private final boolean trim;
+	private final int width;
+	private final int height;
+	private final int rowBytes;
+	private final int bandHeight;
+	private final byte[] rows;
+	private int band;
+
+	/** A compact encoder trims bands too; only for images printed left-justified. */
+	public BandEncoder(RasterSource source, boolean raster, boolean compact) {
+		this(source, raster, compact, compact);
+	}
+
+	/**
+	 * @param compact feed instead of printing blank bands and rows
+	 * @param trim    with {@code compact}, also cut bands at their rightmost black dot,
+	 *                which is only correct for a left-justified image
+	 */
+	public BandEncoder(RasterSource source, boolean raster, boolean compact, boolean trim) {
+		this.source = source;
+		this.raster = raster;
+		this.compact = compact;
+		this.trim = compact && trim;
+		this.width = source.getWidth();
+		this.height = source.getHeight();
+		this.rowBytes = RasterEncoder.rowBytes(width);
+		this.bandHeight = raster ? RasterEncoder.STRIP_HEIGHT : RasterEncoder.BAND_HEIGHT;
+		this.rows = newScratch();
+	}
+
+	/** Encodes the whole image into an exactly sized array. */
+	public static byte[] encode(RasterSource source, boolean raster, boolean compact) {
+		return encode(new BandEncoder(source, raster, compact));
+	}
+
+	/** Encodes every band of a new {@code encoder} into an exactly sized array. */
+	public static byte[] encode(BandEncoder encoder) {
+		byte[] data = new byte[encoder.totalSize()];
+		int k = 0;
+		while (encoder.hasNext()) {
+			k = encoder.next(data, k);
+		}
+		return k == data.length ? data : Arrays.copyOf(data, k);
+	}
+
+	public RasterSource getSource() {
+		return source;
+	}
+
+	public boolean isRaster() {
+		return raster;
+	}
+
+	public boolean isCompact() {
+		return compact;
+	}
+
+	public boolean isTrimmed() {
+		return trim;
+	}
+
+	/** Size of the full image; what a compact encoder writes is at most this. */
+	public int totalSize() {
+		return raster ? RasterEncoder.rasterModeSize(width, height) : RasterEncoder.columnModeSize(width, height);
+	}
+
+	public int bandCount() {
+		return (height + bandHeight - 1) / bandHeight;
+	}
+
+	/** Encoded size of band {@code index} when nothing is skipped. */
+	public int bandSize(int index) {
+		if (raster) {
+			return RasterEncoder.rasterStripSize(width, Math.min(bandHeight, height - index * bandHeight));
+		}
+		// the first band carries the ESC 3 0 line spacing command
+		return (index == 0 ? 3 : 0) + RasterEncoder.columnBandSize(width);
+	}
+
+	/** Upper bound of what a single band encodes to. */
+	public int maxBandSize() {
+		return bandSize(0);
+	}
+
+	/**
+	 * Band buffer for {@link #encodeBand(int, byte[], int, byte[])}. A full raster
+	 * encoder packs straight into the output and needs none.
+	 */
+	public byte[] newScratch() {
+		return raster && !compact ? null : new byte[rowBytes * bandHeight];
+	}
+
+	public boolean hasNext() {
+		return band * bandHeight < height;
+	}
+
+	/**
+	 * Encodes the next band into {@code out}.
+	 *
+	 * @return offset just past the band
+	 */
+	public int next(byte[] out, int offset) {
+		return encodeBand(band++, out, offset, rows);
+	}
+
+	/**
+	 * Encodes band {@code index} into {@code out}, using {@code scratch} from
+	 * {@link #newScratch()} as working memory.
+	 *
+	 * @return offset just past the band
+	 */
+	public int encodeBand(int index, byte[] out, int offset, byte[] scratch) {
+		int y = index * bandHeight;
+		int rowCount = Math.min(bandHeight, height - y);
+		int k = offset;
+		if (raster) {
+			if (compact) {
+				source.readRows(y, rowCount, scratch, 0);
+				return encodeCompactStrip(scratch, rowCount, out, k);
+			}
+			k = RasterEncoder.encodeRasterHeader(width, rowCount, out, k);
+			source.readRows(y, rowCount, out, k);
+			return k + rowCount * rowBytes;
+		}
+		if (index == 0) {
+			k = RasterEncoder.encodeLineSpacing(out, k);
+		}
+		source.readRows(y, rowCount, scratch, 0);
+		// 最后一段不足 24 行时下面补白
+		Arrays.fill(scratch, rowCount * rowBytes, scratch.length, (byte) 0);
+		if (!compact) {
+			return RasterEncoder.encodeColumnBand(scratch, rowBytes, width, out, k);
+		}
+		int content = RasterEncoder.contentWidth(scratch, 0, rowBytes, rowCount);
+		if (content == 0) {
+			return RasterEncoder.encodeFeed(RasterEncoder.BAND_HEIGHT, out, k);
+		}
+		return RasterEncoder.encodeColumnBand(scratch, rowBytes, trim ? content : width, out, k);
+	}
+
+	private int encodeCompactStrip(byte[] strip, int rowCount, byte[] out, int offset) {
+		int first = 0;
+		while (first < rowCount && isBlank(strip, first)) {
+			first++;
+		}
+		if (first == rowCount) {
+			return RasterEncoder.encodeFeed(rowCount, out, offset);
+		}
+		int last = rowCount - 1;
+		while (isBlank(strip, last)) {
+			last--;
+		}
+		// a feed must be shorter than the blank rows it replaces
+		if (RasterEncoder.feedSize(first) >= first * rowBytes) {
+			first = 0;
+		}
+		int trailing = rowCount - 1 - last;
+		if (RasterEncoder.feedSize(trailing) >= trailing * rowBytes) {
+			last = rowCount - 1;
+			trailing = 0;
+		}
+		int printed = last - first + 1;
+		int content = trim ? RasterEncoder.contentWidth(strip, first * rowBytes, rowBytes, printed) : width;
+		int contentBytes = RasterEncoder.rowBytes(content);
+		int k = RasterEncoder.encodeFeed(first, out, offset);
+		k = RasterEncoder.encodeRasterHeader(content, printed, out, k);
+		for (int r = first; r <= last; r++) {
+			System.arraycopy(strip, r * rowBytes, out, k, contentBytes);
+			k += contentBytes;
+		}
+		return RasterEncoder.encodeFeed(trailing, out, k);
+	}
+
+	private boolean isBlank(byte[] strip, int row) {
+		for (int i = row * rowBytes, end = i + rowBytes; i < end; i++) {
+			if (strip[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,137 @@
+package com.bluetooth.printer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Streams encoded bands to an output stream while the next bands are being
+ * encoded. The calling thread encodes into a fixed set of buffers and hands them
+ * to a writer thread through a bounded queue, so memory use depends on the
+ * queue depth and image width only, never on the image height.
+ */
+final class BandWriter {
+
+	public static final int DEFAULT_QUEUE_DEPTH = 3;
+
+	private static final ExecutorService WRITERS = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "BluetoothPrinterWriter");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final class Chunk {
+		final byte[] data;
+		int length;
+
+		Chunk(int size) {
+			data = new byte[size];
+		}
+	}
+
+	private static final Chunk END = new Chunk(0);
+
+	private BandWriter() {
+	}
+
+	/**
+	 * Encodes every band of {@code encoder} and writes it to {@code out}, with a
+	 * safe point after each band if {@code out} takes them.
+	 *
+	 * @return number of bytes written
+	 */
+	public static long stream(BandEncoder encoder, OutputStream out, int queueDepth) throws IOException {
+		Drain drain = new Drain(out, queueDepth, encoder.maxBandSize());
+		WRITERS.execute(drain);
+		boolean interrupted = false;
+		try {
+			while (encoder.hasNext() && drain.failure == null) {
+				Chunk chunk = drain.free.take();
+				chunk.length = encoder.next(chunk.data, 0);
+				drain.filled.put(chunk);
+			}
+		} catch (InterruptedException e) {
+			interrupted = true;
+		} finally {
+			// always release the writer thread, even if encoding failed. The queue
+			// holds more entries than there are chunks, so this never blocks.
+			drain.filled.offer(END);
+		}
+		try {
+			drain.finished.await();
+		} catch (InterruptedException e) {
+			interrupted = true;
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while streaming image");
+		}
+		if (drain.failure instanceof RuntimeException) {
+			throw (RuntimeException) drain.failure;
+		}
+		if (drain.failure != null) {
+			throw (IOException) drain.failure;
+		}
+		out.flush();
+		return drain.written;
+	}
+
+	private static final class Drain implements Runnable {
+		final OutputStream out;
+		final BlockingQueue<Chunk> free;
+		final BlockingQueue<Chunk> filled;
+		final CountDownLatch finished = new CountDownLatch(1);
+		// an IOException, or a RuntimeException the transport threw
+		volatile Exception failure;
+		volatile long written;
+
+		Drain(OutputStream out, int queueDepth, int chunkSize) {
+			this.out = out;
+			// one chunk more than the queue holds so encoding never waits on an empty pool
+			this.free = new ArrayBlockingQueue<>(queueDepth + 1);
+			this.filled = new ArrayBlockingQueue<>(queueDepth + 2);
+			for (int i = 0; i <= queueDepth; i++) {
+				free.add(new Chunk(chunkSize));
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Chunk chunk = filled.take();
+					if (chunk == END) {
+						break;
+					}
+					// after a failure keep draining so the encoder never blocks
+					try {
+						if (failure == null) {
+							out.write(chunk.data, 0, chunk.length);
+							if (out instanceof SafePoints) {
+								((SafePoints) out).markSafePoint();
+							}
+							written += chunk.length;
+						}
+					} catch (IOException | RuntimeException e) {
+						// e.g. IllegalStateException from a GATT transport that went away
+						failure = e;
+					} finally {
+						free.add(chunk);
+					}
+				}
+			} catch (InterruptedException e) {
+				failure = new IOException("Image writer interrupted");
+			} finally {
+				finished.countDown();
+			}
+		}
+	}
+}
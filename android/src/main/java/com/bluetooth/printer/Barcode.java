@@ -0,0 +1,362 @@
+package com.bluetooth.printer;
+
+import java.nio.charset.Charset;
+
+/**
+ * One-dimensional barcodes. {@link #command(String, String, int, int, int)} has
+ * the printer draw the code itself with GS k, which takes the data and a few
+ * setting bytes instead of an image. {@link #bars(String, String)} gives the bar
+ * pattern for printers without GS k or without a symbology, to be sent as an
+ * image; it covers the symbologies receipts use: CODE128, EAN13, EAN8, UPC_A,
+ * CODE39 and ITF.
+ */
+final class Barcode {
+
+	public static final String UPC_A = "UPC_A";
+	public static final String UPC_E = "UPC_E";
+	public static final String EAN13 = "EAN13";
+	public static final String EAN8 = "EAN8";
+	public static final String CODE39 = "CODE39";
+	public static final String ITF = "ITF";
+	public static final String CODABAR = "CODABAR";
+	public static final String CODE93 = "CODE93";
+	public static final String CODE128 = "CODE128";
+
+	public static final int HRI_NONE = 0;
+	public static final int HRI_ABOVE = 1;
+	public static final int HRI_BELOW = 2;
+	public static final int HRI_BOTH = 3;
+
+	public static final int DEFAULT_MODULE_WIDTH = 2;
+	public static final int MAX_MODULE_WIDTH = 6;
+	public static final int DEFAULT_HEIGHT = 80;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	// GS k symbology numbers, function B: GS k m n d1...dn
+	private static final String[] TYPES = {UPC_A, UPC_E, EAN13, EAN8, CODE39, ITF, CODABAR, CODE93, CODE128};
+	private static final int FIRST_TYPE = 65;
+
+	private static final String[] EAN_L = {
+			"0001101", "0011001", "0010011", "0111101", "0100011",
+			"0110001", "0101111", "0111011", "0110111", "0001011"};
+	// which digits of the left half use the G (mirrored R) patterns, by the first digit
+	private static final String[] EAN_PARITY = {
+			"LLLLLL", "LLGLGG", "LLGGLG", "LLGGGL", "LGLLGG",
+			"LGGLLG", "LGGGLL", "LGLGLG", "LGLGGL", "LGGLGL"};
+
+	private static final String CODE39_CHARS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ-. $/+%*";
+	// bar and space widths, n narrow and w wide, alternating from a bar
+	private static final String[] CODE39_PATTERNS = {
+			"nnnwwnwnn", "wnnwnnnnw", "nnwwnnnnw", "wnwwnnnnn", "nnnwwnnnw", "wnnwwnnnn", "nnwwwnnnn", "nnnwnnwnw",
+			"wnnwnnwnn", "nnwwnnwnn", "wnnnnwnnw", "nnwnnwnnw", "wnwnnwnnn", "nnnnwwnnw", "wnnnwwnnn", "nnwnwwnnn",
+			"nnnnnwwnw", "wnnnnwwnn", "nnwnnwwnn", "nnnnwwwnn", "wnnnnnnww", "nnwnnnnww", "wnwnnnnwn", "nnnnwnnww",
+			"wnnnwnnwn", "nnwnwnnwn", "nnnnnnwww", "wnnnnnwwn", "nnwnnnwwn", "nnnnwnwwn", "wwnnnnnnw", "nwwnnnnnw",
+			"wwwnnnnnn", "nwnnwnnnw", "wwnnwnnnn", "nwwnwnnnn", "nwnnnnwnw", "wwnnnnwnn", "nwwnnnwnn", "nwnwnwnnn",
+			"nwnwnnnwn", "nwnnnwnwn", "nnnwnwnwn", "nwnnwnwnn"};
+
+	private static final String[] ITF_DIGITS = {
+			"nnwwn", "wnnnw", "nwnnw", "wwnnn", "nnwnw", "wnwnn", "nwwnn", "nnnww", "wnnwn", "nwnwn"};
+
+	// module widths of bar, space, bar... for each CODE128 symbol value
+	private static final String[] CODE128_PATTERNS = {
+			"212222", "222122", "222221", "121223", "121322", "131222", "122213", "122312", "132212", "221213",
+			"221312", "231212", "112232", "122132", "122231", "113222", "123122", "123221", "223211", "221132",
+			"221231", "213212", "223112", "312131", "311222", "321122", "321221", "312212", "322112", "322211",
+			"212123", "212321", "232121", "111323", "131123", "131321", "112313", "132113", "132311", "211313",
+			"231113", "231311", "112133", "112331", "132131", "113123", "113321", "133121", "313121", "211331",
+			"231131", "213113", "213311", "213131", "311123", "311321", "331121", "312113", "312311", "332111",
+			"314111", "221411", "431111", "111224", "111422", "121124", "121421", "141122", "141221", "112214",
+			"112412", "122114", "122411", "142112", "142211", "241211", "221114", "413111", "241112", "134111",
+			"111242", "121142", "121241", "114212", "124112", "124211", "411212", "421112", "421211", "212141",
+			"214121", "412121", "111143", "111341", "131141", "114113", "114311", "411113", "411311", "113141",
+			"114131", "311141", "411131", "211412", "211214", "211232", "2331112"};
+	private static final int CODE128_START_B = 104;
+	private static final int CODE128_STOP = 106;
+
+	private Barcode() {
+	}
+
+	/** Checks that {@code type} is one of the symbologies GS k knows. */
+	public static String checkType(String type) {
+		symbology(type);
+		return type;
+	}
+
+	private static int symbology(String type) {
+		for (int i = 0; i < TYPES.length; i++) {
+			if (TYPES[i].equals(type)) {
+				return FIRST_TYPE + i;
+			}
+		}
+		throw new IllegalArgumentException("Invalid barcode type: " + type);
+	}
+
+	/** Parses "NONE", "ABOVE", "BELOW" or "BOTH". */
+	public static int hri(String position) {
+		switch (position) {
+			case "NONE":
+				return HRI_NONE;
+			case "ABOVE":
+				return HRI_ABOVE;
+			case "BELOW":
+				return HRI_BELOW;
+			case "BOTH":
+				return HRI_BOTH;
+			default:
+				throw new IllegalArgumentException("Invalid HRI position: " + position);
+		}
+	}
+
+	/**
+	 * GS h, GS w and GS H for the height, module width and where the printer
+	 * writes the human readable text, then GS k with the data.
+	 */
+	public static byte[] command(String type, String data, int moduleWidth, int height, int hri) {
+		int m = symbology(type);
+		if (moduleWidth < 1 || moduleWidth > MAX_MODULE_WIDTH) {
+			throw new IllegalArgumentException("Invalid barcode module width: " + moduleWidth);
+		}
+		if (height < 1 || height > 255) {
+			throw new IllegalArgumentException("Invalid barcode height: " + height);
+		}
+		if (hri < HRI_NONE || hri > HRI_BOTH) {
+			throw new IllegalArgumentException("Invalid HRI position: " + hri);
+		}
+		checkData(type, data);
+		if (CODE128.equals(type)) {
+			// code set B, a literal brace is written twice
+			data = "{B" + data.replace("{", "{{");
+		}
+		byte[] bytes = data.getBytes(ASCII);
+		if (bytes.length > 255) {
+			throw new IllegalArgumentException("Barcode data too long: " + data.length());
+		}
+		byte[] out = new byte[13 + bytes.length];
+		int k = 0;
+		out[k++] = 0x1d;
+		out[k++] = 0x68;
+		out[k++] = (byte) height;
+		out[k++] = 0x1d;
+		out[k++] = 0x77;
+		out[k++] = (byte) moduleWidth;
+		out[k++] = 0x1d;
+		out[k++] = 0x48;
+		out[k++] = (byte) hri;
+		out[k++] = 0x1d;
+		out[k++] = 0x6b;
+		out[k++] = (byte) m;
+		out[k++] = (byte) bytes.length;
+		System.arraycopy(bytes, 0, out, k, bytes.length);
+		return out;
+	}
+
+	/** True if {@link #bars(String, String)} can draw {@code type}. */
+	public static boolean canRaster(String type) {
+		return CODE128.equals(type) || EAN13.equals(type) || EAN8.equals(type) || UPC_A.equals(type)
+				|| CODE39.equals(type) || ITF.equals(type);
+	}
+
+	/**
+	 * The modules of the code, true for a bar, one narrow bar wide each, without
+	 * quiet zones. EAN and UPC data may leave out the check digit.
+	 */
+	public static boolean[] bars(String type, String data) {
+		checkData(type, data);
+		StringBuilder modules = new StringBuilder();
+		switch (type) {
+			case CODE128:
+				code128(data, modules);
+				break;
+			case EAN13:
+				ean13(withCheckDigit(data, 13), modules);
+				break;
+			case UPC_A:
+				ean13("0" + withCheckDigit(data, 12), modules);
+				break;
+			case EAN8:
+				ean8(withCheckDigit(data, 8), modules);
+				break;
+			case CODE39:
+				code39(data, modules);
+				break;
+			case ITF:
+				itf(data, modules);
+				break;
+			default:
+				throw new IllegalArgumentException("No raster fallback for barcode type: " + type);
+		}
+		boolean[] bars = new boolean[modules.length()];
+		for (int i = 0; i < bars.length; i++) {
+			bars[i] = modules.charAt(i) == '1';
+		}
+		return bars;
+	}
+
+	/** What the printer writes as the human readable text, with the check digit of EAN and UPC. */
+	public static String hriText(String type, String data) {
+		switch (type) {
+			case EAN13:
+				return withCheckDigit(data, 13);
+			case UPC_A:
+				return withCheckDigit(data, 12);
+			case EAN8:
+				return withCheckDigit(data, 8);
+			default:
+				return data;
+		}
+	}
+
+	private static void checkData(String type, String data) {
+		if (data == null || data.isEmpty()) {
+			throw new IllegalArgumentException("Invalid barcode data: empty");
+		}
+		boolean valid = true;
+		switch (type) {
+			case EAN13:
+				valid = digits(data) && (data.length() == 12 || data.length() == 13);
+				break;
+			case UPC_A:
+				valid = digits(data) && (data.length() == 11 || data.length() == 12);
+				break;
+			case EAN8:
+				valid = digits(data) && (data.length() == 7 || data.length() == 8);
+				break;
+			case ITF:
+				valid = digits(data) && data.length() % 2 == 0;
+				break;
+			case CODE39:
+				for (int i = 0; i < data.length() && valid; i++) {
+					char c = data.charAt(i);
+					valid = c != '*' && CODE39_CHARS.indexOf(c) >= 0;
+				}
+				break;
+			case CODE128:
+				for (int i = 0; i < data.length() && valid; i++) {
+					char c = data.charAt(i);
+					valid = c >= 0x20 && c <= 0x7e;
+				}
+				break;
+			default:
+				break;
+		}
+		if (!valid) {
+			throw new IllegalArgumentException("Invalid " + type + " data: " + data);
+		}
+	}
+
+	private static boolean digits(String data) {
+		for (int i = 0; i < data.length(); i++) {
+			if (data.charAt(i) < '0' || data.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Appends the EAN/UPC check digit if {@code data} is one digit short of {@code length}. */
+	private static String withCheckDigit(String data, int length) {
+		if (data.length() == length) {
+			return data;
+		}
+		int sum = 0;
+		for (int i = 0; i < data.length(); i++) {
+			int digit = data.charAt(data.length() - 1 - i) - '0';
+			sum += i % 2 == 0 ? digit * 3 : digit;
+		}
+		return data + (char) ('0' + (10 - sum % 10) % 10);
+	}
+
+	private static void ean13(String data, StringBuilder out) {
+		String parity = EAN_PARITY[data.charAt(0) - '0'];
+		out.append("101");
+		for (int i = 1; i <= 6; i++) {
+			String l = EAN_L[data.charAt(i) - '0'];
+			out.append(parity.charAt(i - 1) == 'L' ? l : reverse(invert(l)));
+		}
+		out.append("01010");
+		for (int i = 7; i <= 12; i++) {
+			out.append(invert(EAN_L[data.charAt(i) - '0']));
+		}
+		out.append("101");
+	}
+
+	private static void ean8(String data, StringBuilder out) {
+		out.append("101");
+		for (int i = 0; i < 4; i++) {
+			out.append(EAN_L[data.charAt(i) - '0']);
+		}
+		out.append("01010");
+		for (int i = 4; i < 8; i++) {
+			out.append(invert(EAN_L[data.charAt(i) - '0']));
+		}
+		out.append("101");
+	}
+
+	private static void code39(String data, StringBuilder out) {
+		String text = "*" + data + "*";
+		for (int i = 0; i < text.length(); i++) {
+			if (i > 0) {
+				out.append('0');
+			}
+			widths(CODE39_PATTERNS[CODE39_CHARS.indexOf(text.charAt(i))], true, out);
+		}
+	}
+
+	private static void itf(String data, StringBuilder out) {
+		out.append("1010");
+		for (int i = 0; i < data.length(); i += 2) {
+			String bars = ITF_DIGITS[data.charAt(i) - '0'];
+			String spaces = ITF_DIGITS[data.charAt(i + 1) - '0'];
+			for (int j = 0; j < 5; j++) {
+				appendRun(bars.charAt(j) == 'w' ? 3 : 1, '1', out);
+				appendRun(spaces.charAt(j) == 'w' ? 3 : 1, '0', out);
+			}
+		}
+		out.append("11101");
+	}
+
+	private static void code128(String data, StringBuilder out) {
+		int checksum = CODE128_START_B;
+		code128Symbol(CODE128_START_B, out);
+		for (int i = 0; i < data.length(); i++) {
+			int value = data.charAt(i) - 0x20;
+			checksum += value * (i + 1);
+			code128Symbol(value, out);
+		}
+		code128Symbol(checksum % 103, out);
+		code128Symbol(CODE128_STOP, out);
+	}
+
+	private static void code128Symbol(int value, StringBuilder out) {
+		String pattern = CODE128_PATTERNS[value];
+		for (int i = 0; i < pattern.length(); i++) {
+			appendRun(pattern.charAt(i) - '0', i % 2 == 0 ? '1' : '0', out);
+		}
+	}
+
+	/** Narrow and wide elements, wide being three modules, alternating from a bar. */
+	private static void widths(String pattern, boolean bar, StringBuilder out) {
+		for (int i = 0; i < pattern.length(); i++, bar = !bar) {
+			appendRun(pattern.charAt(i) == 'w' ? 3 : 1, bar ? '1' : '0', out);
+		}
+	}
+
+	private static void appendRun(int count, char c, StringBuilder out) {
+		for (int i = 0; i < count; i++) {
+			out.append(c);
+		}
+	}
+
+	private static String invert(String modules) {
+		StringBuilder out = new StringBuilder(modules.length());
+		for (int i = 0; i < modules.length(); i++) {
+			out.append(modules.charAt(i) == '1' ? '0' : '1');
+		}
+		return out.toString();
+	}
+
+	private static String reverse(String modules) {
+		return new StringBuilder(modules).reverse().toString();
+	}
+}
@@ -0,0 +1,86 @@
+package com.bluetooth.printer;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mutable bitmaps kept for reuse as {@code BitmapFactory.Options.inBitmap}, matched
+ * by width, height and config. The pool is bounded by bytes; the least recently
+ * returned bitmaps are recycled first when it overflows.
+ */
+class BitmapPool {
+
+	public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+	private final int maxBytes;
+	// oldest first
+	private final List<Bitmap> bitmaps = new ArrayList<>();
+	private int bytes;
+	private long hits;
+	private long misses;
+
+	public BitmapPool(int maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/** Takes a pooled bitmap of exactly this size and config, or returns null. */
+	public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+		for (int i = bitmaps.size() - 1; i >= 0; i--) {
+			Bitmap bitmap = bitmaps.get(i);
+			if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+				bitmaps.remove(i);
+				bytes -= bitmap.getByteCount();
+				hits++;
+				return bitmap;
+			}
+		}
+		misses++;
+		return null;
+	}
+
+	/** Hands a bitmap back. Bitmaps that cannot be reused are recycled instead. */
+	public synchronized void put(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return;
+		}
+		int size = bitmap.getByteCount();
+		if (!bitmap.isMutable() || size > maxBytes) {
+			bitmap.recycle();
+			return;
+		}
+		bitmaps.add(bitmap);
+		bytes += size;
+		while (bytes > maxBytes) {
+			Bitmap evicted = bitmaps.remove(0);
+			bytes -= evicted.getByteCount();
+			evicted.recycle();
+		}
+	}
+
+	/** Recycles every pooled bitmap. */
+	public synchronized void clear() {
+		for (Bitmap bitmap : bitmaps) {
+			bitmap.recycle();
+		}
+		bitmaps.clear();
+		bytes = 0;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized int getBytes() {
+		return bytes;
+	}
+
+	public synchronized int getCount() {
+		return bitmaps.size();
+	}
+}
@@ -0,0 +1,90 @@
+package com.bluetooth.printer;
+
+import android.graphics.Bitmap;
+
+/**
+ * {@link RasterSource} over an opaque Android bitmap, such as the output of
+ * {@code compressPic}. Pixels are pulled a band at a time with
+ * {@link Bitmap#getPixels} into a buffer reused by each reading thread.
+ */
+class BitmapRasterSource implements RasterSource {
+
+	private final Bitmap bitmap;
+	private final int width;
+	private final int height;
+	private final Ditherer ditherer;
+	private final ThreadLocal<int[]> pixels = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[width * RasterEncoder.BAND_HEIGHT];
+		}
+	};
+
+	public BitmapRasterSource(Bitmap bitmap) {
+		this(bitmap, Ditherer.create(Ditherer.THRESHOLD, bitmap.getWidth(), null));
+	}
+
+	public BitmapRasterSource(Bitmap bitmap, Ditherer ditherer) {
+		this.bitmap = bitmap;
+		this.width = bitmap.getWidth();
+		this.height = bitmap.getHeight();
+		this.ditherer = ditherer;
+	}
+
+	/**
+	 * Resamples {@code bitmap} to {@code width} x {@code height} while binarizing it,
+	 * without drawing it into an intermediate bitmap.
+	 */
+	public static RasterSource scaled(final Bitmap bitmap, int width, int height, Ditherer ditherer) {
+		final int sourceWidth = bitmap.getWidth();
+		return new ScaledRasterSource(sourceWidth, bitmap.getHeight(), width, height, ditherer) {
+			@Override
+			protected void readSourceRow(int y, int[] dst) {
+				bitmap.getPixels(dst, 0, sourceWidth, 0, y, sourceWidth, 1);
+			}
+		};
+	}
+
+	/** 256-bin luminance histogram of the whole bitmap, for {@link Ditherer#OTSU}. */
+	public static int[] histogram(Bitmap bitmap) {
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int[] pixels = new int[width * RasterEncoder.BAND_HEIGHT];
+		int[] histogram = new int[256];
+		for (int y = 0; y < height; y += RasterEncoder.BAND_HEIGHT) {
+			int count = Math.min(RasterEncoder.BAND_HEIGHT, height - y);
+			bitmap.getPixels(pixels, 0, width, 0, y, width, count);
+			Ditherer.accumulate(pixels, 0, width * count, histogram);
+		}
+		return histogram;
+	}
+
+	@Override
+	public boolean isSequential() {
+		return ditherer.isSequential();
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public void readRows(int y, int rowCount, byte[] dst, int dstOffset) {
+		int rowBytes = RasterEncoder.rowBytes(width);
+		int[] pixels = this.pixels.get();
+		for (int done = 0; done < rowCount; done += RasterEncoder.BAND_HEIGHT) {
+			int count = Math.min(RasterEncoder.BAND_HEIGHT, rowCount - done);
+			bitmap.getPixels(pixels, 0, width, 0, y + done, width, count);
+			RasterEncoder.toLuminance(pixels, 0, width * count);
+			for (int i = 0; i < count; i++) {
+				ditherer.packRow(pixels, i * width, width, y + done + i, dst, dstOffset + (done + i) * rowBytes);
+			}
+		}
+	}
+}
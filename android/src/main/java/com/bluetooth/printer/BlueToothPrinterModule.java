@@ -11,17 +11,20 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.Base64;
 import android.util.Log;
 import com.facebook.react.bridge.*;
 import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
 import org.json.JSONException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import android.bluetooth.BluetoothSocket;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
@@ -38,9 +41,20 @@ class BlueToothPrinterModule extends ReactContextBaseJavaModule implements Activ
 
 	public static final String LOG_TAG = "logs";
 	private static final int ENABLE_REQUEST = 539;
+	private static final String SPOOL_FILE = "bluetooth-printer-spool.journal";
+	// with statusCheck, how often a job in flight checks the printer is still fine
+	private static final long STATUS_CHECK_BYTES = 8 * 1024;
+	// print executor queue that compiles templates, one after another
+	private static final String TEMPLATE_QUEUE = "templates";
 
 	public static final String PRINT_TYPE_TEXT = "TEXT";
 	public static final String PRINT_TYPE_PHOTO = "PHOTO";
+	public static final String PRINT_TYPE_STORED = "STORED";
+	public static final String PRINT_TYPE_DOCUMENT = "DOCUMENT";
+	public static final String PRINT_TYPE_TEMPLATE = "TEMPLATE";
+
+	public static final String IMAGE_MODE_COLUMN = "COLUMN";
+	public static final String IMAGE_MODE_RASTER = "RASTER";
 
     public static final byte[] RESET = {0x1b, 0x40};//复位打印机
     public static final byte[] CUT_PAPER = {0x1d,0x56,0x00};//切纸
@@ -65,6 +79,28 @@ class BlueToothPrinterModule extends ReactContextBaseJavaModule implements Activ
 
 	// key is the MAC Address
 	public Map<String, Peripheral> peripherals = new LinkedHashMap<>();
+	// decoded photo bitmaps kept for reuse between prints
+	private final BitmapPool bitmapPool = new BitmapPool(BitmapPool.DEFAULT_MAX_BYTES);
+	// encoded logos and headers, so repeated images skip decoding and encoding
+	private final RasterCache rasterCache = new RasterCache(RasterCache.DEFAULT_MAX_BYTES);
+	// thresholded glyphs of the fonts text is drawn in, for printing what the printer has no font for
+	private final GlyphAtlas glyphAtlas;
+	// compiled receipt layouts, by name
+	private final Map<String, DocumentTemplate> templates = new ConcurrentHashMap<>();
+	// images stored in printer memory, by MAC address
+	private final StoredImageRegistry storedImages = new StoredImageRegistry();
+	// RFCOMM sockets kept open between jobs, by MAC address
+	private final RfcommConnectionPool connectionPool = new RfcommConnectionPool(RfcommConnectionPool.DEFAULT_IDLE_TIMEOUT_MS);
+	// bonded devices by MAC address, kept current by bond state broadcasts
+	private final BondedDeviceIndex bondedDevices;
+	// one serial job queue per printer, so printing never blocks the module thread
+	private final PrintExecutor printExecutor = new PrintExecutor();
+	// set once the JS instance is gone, callbacks of jobs still running are dropped
+	private volatile boolean destroyed;
+	// chunk size each printer's last job ended at, where its next job starts
+	private final Map<String, Integer> chunkSizes = new ConcurrentHashMap<>();
+	// encoded jobs journaled on disk until the printer took them
+	private final PrintSpool spool;
 	// scan session id
 
 
@@ -72,6 +108,30 @@ class BlueToothPrinterModule extends ReactContextBaseJavaModule implements Activ
 		super(reactContext);
 		context = reactContext;
 		this.reactContext = reactContext;
+		bondedDevices = new BondedDeviceIndex(reactContext);
+		glyphAtlas = new GlyphAtlas(new PaintGlyphRenderer(reactContext.getAssets()), GlyphAtlas.DEFAULT_MAX_BYTES);
+		spool = new PrintSpool(new PrintJournal(new File(reactContext.getFilesDir(), SPOOL_FILE)), printExecutor, new PrintSpool.Sender() {
+			@Override
+			public void send(PrintJournal.Entry job) throws IOException {
+				//重发前先查询状态，缺纸时按退避时间重试，不把任务发给无法打印的打印机
+				sendCommand(null, job.address, job.service, job.data, true);
+			}
+		}, new PrintSpool.Completion() {
+			@Override
+			public void done(PrintJournal.Entry job, Exception error) {
+				//重启后重放或重试的任务没有回调，用事件通知 JS
+				WritableMap map = Arguments.createMap();
+				map.putDouble("id", job.id);
+				map.putString("peripheral", job.address);
+				if (error != null) {
+					map.putString("error", error.toString());
+				}
+				if (BlueToothPrinterModule.this.reactContext.hasActiveCatalystInstance()) {
+					sendEvent(error == null ? "BlueToothPrinterModuleSpoolJobDone" : "BlueToothPrinterModuleSpoolJobFailed", map);
+				}
+			}
+		});
+		spool.start();
 		reactContext.addActivityEventListener(this);
 		if (Build.VERSION.SDK_INT >= LOLLIPOP) {
 			scanManager = new LollipopScanManager(reactContext, this);
@@ -225,40 +285,15 @@ class BlueToothPrinterModule extends ReactContextBaseJavaModule implements Activ
 	}
 
 public static byte[] draw2PxPoint(Bitmap bmp) {
-        //用来存储转换后的 bitmap 数据。为什么要再加1000，这是为了应对当图片高度无法
-        //整除24时的情况。比如bitmap 分辨率为 240 * 250，占用 7500 byte，
-        //但是实际上要存储11行数据，每一行需要 24 * 240 / 8 =720byte 的空间。再加上一些指令存储的开销，
-        //所以多申请 1000byte 的空间是稳妥的，不然运行时会抛出数组访问越界的异常。
-        int size = bmp.getWidth() * bmp.getHeight() / 8 + 1000;
-        byte[] data = new byte[size];
-        int k = 0;
-        //设置行距为0的指令
-        data[k++] = 0x1B;
-        data[k++] = 0x33;
-        data[k++] = 0x00;
-        // 逐行打印
-        for (int j = 0; j < bmp.getHeight() / 24f; j++) {
-            //打印图片的指令
-            data[k++] = 0x1B;
-            data[k++] = 0x2A;
-            data[k++] = 33;
-            data[k++] = (byte) (bmp.getWidth() % 256); //nL
-            data[k++] = (byte) (bmp.getWidth() / 256); //nH
-            //对于每一行，逐列打印
-            for (int i = 0; i < bmp.getWidth(); i++) {
-                //每一列24个像素点，分为3个字节存储
-                for (int m = 0; m < 3; m++) {
-                    //每个字节表示8个像素点，0表示白色，1表示黑色
-                    for (int n = 0; n < 8; n++) {
-                        byte b = px2Byte(i, j * 24 + m * 8 + n, bmp);
-                        data[k] += data[k] + b;
-                    }
-                    k++;
-                }
-            }
-            data[k++] = 10;//换行
-        }
-        return data;
+        //ESC * 33，每 24 行一段；输出完整宽度，调用方可能设置了居中或右对齐
+        return BandEncoder.encode(new BitmapRasterSource(bmp), false, false);
+    }
+
+/**
+     * 以 GS v 0 光栅位图输出，每块最多 STRIP_HEIGHT 行，行与行之间没有额外指令
+     */
+    public static byte[] draw2PxRaster(Bitmap bmp) {
+        return BandEncoder.encode(new BitmapRasterSource(bmp), true, false);
     }
 
 
@@ -272,30 +307,11 @@ public static byte[] draw2PxPoint(Bitmap bmp) {
      */
     public static byte px2Byte(int x, int y, Bitmap bit) {
         if (x < bit.getWidth() && y < bit.getHeight()) {
-            byte b;
-            int pixel = bit.getPixel(x, y);
-            int red = (pixel & 0x00ff0000) >> 16; // 取高两位
-            int green = (pixel & 0x0000ff00) >> 8; // 取中两位
-            int blue = pixel & 0x000000ff; // 取低两位
-            int gray = RGB2Gray(red, green, blue);
-            if (gray < 128) {
-                b = 1;
-            } else {
-                b = 0;
-            }
-            return b;
+            return RasterEncoder.luminance(bit.getPixel(x, y)) < RasterEncoder.THRESHOLD ? (byte) 1 : (byte) 0;
         }
         return 0;
     }
 
-    /**
-     * 图片灰度的转化
-     */
-    private static int RGB2Gray(int r, int g, int b) {
-        int gray = (int) (0.29900 * r + 0.58700 * g + 0.11400 * b);  //灰度转化公式
-        return gray;
-    }
-
   /**
      * 对图片进行压缩（去除透明度）
      *
@@ -314,118 +330,1061 @@ public static byte[] draw2PxPoint(Bitmap bmp) {
     }
 
 	@ReactMethod
-	@SuppressWarnings (value={"deprecation"})
-	public void write(final ReadableMap options, String deviceUUID, String serviceUUID, String message, Integer maxByteSize, Callback callback) {
+	public void write(final ReadableMap options, final String deviceUUID, final String serviceUUID, final String message, final Integer maxByteSize, final Callback callback) {
 		Log.d(LOG_TAG, "Write to: " + deviceUUID);
+		//同一台打印机的任务按顺序执行，不同打印机并行，都不占用 React Native 的模块线程
+		final long queuedAt = SystemClock.elapsedRealtime();
+		//spool 为 true 时先把编码好的任务写入磁盘日志，App 被杀或打印机断开后还会重新发送
+		final boolean spooled = options.hasKey("spool") && options.getBoolean("spool");
+		submit(deviceUUID, new Runnable() {
+			@Override
+			public void run() {
+				if (spooled) {
+					spoolNow(options, deviceUUID, serviceUUID, message, whileAlive(callback));
+				} else {
+					writeNow(options, deviceUUID, serviceUUID, message, maxByteSize, whileAlive(callback), queuedAt);
+				}
+			}
+		}, callback);
+	}
 
+	@SuppressWarnings (value={"deprecation"})
+	private void writeNow(ReadableMap options, String deviceUUID, String serviceUUID, String message, Integer maxByteSize, Callback callback, long queuedAt) {
 		try{
-			BluetoothDevice innerprinter_device = null;
 			byte[] decoded = Base64.decode(message.getBytes(), Base64.DEFAULT);
-			
-			Set<BluetoothDevice> devices = bluetoothAdapter.getBondedDevices();
-			for (BluetoothDevice device : devices) {
-		      if (device.getAddress().equals(deviceUUID)) {
-		        innerprinter_device = device;
-		        break;
-		      }
-		    }
-			
-	        BluetoothSocket socket = innerprinter_device.createRfcommSocketToServiceRecord(UUIDHelper.uuidFromString(serviceUUID));
-	        try{
-	        	socket.connect();	
-	        }catch(IOException e){
-	        	callback.invoke("error:"+e.toString());
-	        }
-	        
+	        //蓝牙打印机从连接池里取连接，可用的连接直接复用，省去每次 1~3 秒的连接时间
+	        PrinterTransport connection = openTransport(options, deviceUUID, serviceUUID, maxByteSize);
+	        //整个任务先拼进一个缓冲区，最后一次发送，不再每条指令 flush 一次
+	        boolean flushEachCommand = options.hasKey("flushEachCommand") && options.getBoolean("flushEachCommand");
+	        long jobStart = SystemClock.elapsedRealtime();
 	        try{
-	        	if(options.hasKey("printType") && options.getString("printType").equals(PRINT_TYPE_PHOTO)){
-	        		//打印图片
-	        		if(!options.hasKey("width") || !options.hasKey("height")){
-	                    throw new IllegalArgumentException("Invalid params: width or height must be large than 0");
-	                }
-	                int width = options.getInt("width");
-	                int height = options.getInt("height");
-
-	                OutputStream out = socket.getOutputStream();
-	                out.write(this.RESET);
-	                out.flush();
-
-	                /**获取打印图片的数据**/
-	                Bitmap map = compressPic(BitmapFactory.decodeByteArray(decoded, 0, decoded.length),height,width);//压缩后的图片
-
-	                
-	                if(options.hasKey("leftMargin")){
-	                   byte[] margin = {0x1d,0x4c,(byte)options.getInt("leftMargin"),0x00};
-	                   out.write(margin);
-	                   out.flush();
-	                }
-
-	                //把图片转化为可打印的byte
-	                byte[] send = draw2PxPoint(map);
-	                out.write(send, 0, send.length);
-	                out.flush();
-
-	            	//换行指令
-	                int nextLine = options.hasKey("nextLine")?options.getInt("nextLine"):0;
-	                if(nextLine > 0){
-	                	byte[] times = {0x1b,0x4a,(byte)nextLine};
-	                	out.write(times);
-	                    out.flush();
-	                }
-
-	                out.write(this.CUT_PAPER);
-                    out.flush();
-	                out.close();
-	        	} else if(options.hasKey("printType") && options.getString("printType").equals(PRINT_TYPE_TEXT)){
-	        		 OutputStream out = socket.getOutputStream();
-	        		 out.write(this.RESET);
-	        		 out.flush();
-	        		 
-	        		 //byte[] printWidth = {0x1d,0x57,0x01,0x01};//打印宽度
-	        		 //out.write(printWidth);
-	        		 //out.flush();
-	        		 if(options.hasKey("alignCenter") && options.getBoolean("alignCenter")){
-	                     out.write(this.ALIGN_CENTER);
-	                     out.flush();
-	                 }
-	                 if(options.hasKey("alignLeft") && options.getBoolean("alignLeft")){
-	                    out.write(this.ALIGN_LEFT);
-	                    out.flush();
-	                 }
-	                 if(options.hasKey("alignRight") && options.getBoolean("alignRight")){
-	                    out.write(this.ALIGN_RIGHT);
-	                    out.flush();
-	                 }
-	                 if(options.hasKey("bold") && options.getBoolean("bold")){
-	                 	out.write(this.BOLD);
-	                 	out.flush();
-	                 }
-	        		//打印文字
-	        		out.write(message.getBytes("UTF-8"));
-	        		out.flush();
-	        		
-	        		//换行指令
-	        		int nextLine = options.hasKey("nextLine")?options.getInt("nextLine"):0;
-	                if(nextLine > 0){
-	                   byte[] times = {0x1b,0x4a,(byte)nextLine};
-	                   out.write(times);
-	                   out.flush();
-	                }
-
-	                out.write(this.CUT_PAPER);
-                    out.flush();
-	                out.close();
-	        	} else {
-	        		throw new IllegalArgumentException("Invalid type to print.");
+	        	WritableMap result = Arguments.createMap();
+	        	try{
+	        		printJob(connection, flushEachCommand, options, deviceUUID, message, decoded, result);
+	        	}catch(IOException e){
+	        		//复用的连接已经断开、还没有发出任何数据时，重新连接后再打印一次
+	        		if(e instanceof PrinterNotReadyException || !connection.isReused() || connection.getBytesWritten() > 0){
+	        			throw e;
+	        		}
+	        		Log.d(LOG_TAG, "Pooled connection failed, reconnecting: " + e.getMessage());
+	        		connection.invalidate();
+	        		connection = null;
+	        		connection = openTransport(options, deviceUUID, serviceUUID, maxByteSize);
+	        		result = Arguments.createMap();
+	        		printJob(connection, flushEachCommand, options, deviceUUID, message, decoded, result);
+	        	}
+	        	result.putBoolean("connectionReused", connection.isReused());
+	        	result.putDouble("jobTimeMs", SystemClock.elapsedRealtime() - jobStart);
+	        	result.putDouble("queueWaitMs", jobStart - queuedAt);
+	        	if(connection instanceof MemoryTransport){
+	        		//memory:// 地址不发送，只返回任务会发送的数据
+	        		result.putString("data", Base64.encodeToString(((MemoryTransport) connection).toByteArray(), Base64.NO_WRAP));
 	        	}
-	            socket.close();
-	            callback.invoke("ok");
+	        	connection.release();
+	        	connection = null;
+	            callback.invoke(null, result);
+	        }catch(PrinterNotReadyException e){
+	        	//打印机缺纸、开盖或故障；还没发出任务时连接可以继续复用，发了一半就断开，免得下个任务接在半条指令后面
+	        	if(e.isJobStarted()){
+	        		connection.invalidate();
+	        	}else{
+	        		connection.release();
+	        	}
+	        	callback.invoke("error:"+e.toString(), statusToMap(e.getStatus()));
 	        }catch(Exception e){
+	        	if(connection != null){
+	        		connection.invalidate();
+	        	}
 	         callback.invoke("error:"+e.toString()+", line: "+e.getStackTrace()[0].getLineNumber());
 	        }
 		}catch(Exception e){
-			callback.invoke("error:"+e.getMessage().toString());
+			callback.invoke("error:"+e.toString());
+		}
+	}
+
+	private void spoolNow(ReadableMap options, String deviceUUID, String serviceUUID, String message, final Callback callback) {
+		try {
+			byte[] decoded = Base64.decode(message.getBytes(), Base64.DEFAULT);
+			//先检查地址，无效的任务不进日志；BLE 的特征值不记录在日志里，不能放进队列
+			if (options.hasKey("characteristicUUID")) {
+				throw new IllegalArgumentException("BLE jobs cannot be spooled");
+			}
+			if (TcpTransport.isTcpAddress(deviceUUID)) {
+				TcpTransport.parse(deviceUUID);
+			} else if (!MemoryTransport.isMemoryAddress(deviceUUID)) {
+				bondedDevices.resolve(getBluetoothAdapter(), deviceUUID);
+			}
+			final WritableMap result = Arguments.createMap();
+			ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			JobBuffer job = JobBuffer.open(encoded, false);
+			print(options, deviceUUID, message, decoded, job, result);
+			job.finish();
+			int priority = options.hasKey("priority") ? options.getInt("priority") : 0;
+			spool.add(priority, deviceUUID, serviceUUID, encoded.toByteArray(), new PrintSpool.Completion() {
+				@Override
+				public void done(PrintJournal.Entry job, Exception error) {
+					if (error != null) {
+						callback.invoke("error:" + error.toString() + ", job " + job.id
+								+ (PrintSpool.willRetry(error) ? " kept in spool" : " dropped"));
+						return;
+					}
+					result.putDouble("spoolJobId", job.id);
+					result.putDouble("jobBytes", job.data.length);
+					callback.invoke(null, result);
+				}
+			});
+		} catch (Exception e) {
+			callback.invoke("error:" + e.toString());
+		}
+	}
+
+	private void printJob(PrinterTransport connection, boolean flushEachCommand, ReadableMap options, String deviceUUID, String message, byte[] decoded, WritableMap result) throws IOException {
+		//分块发送，按打印机的实际接收速度调整块大小和间隔，避免小缓冲区的打印机溢出或卡住
+		boolean flowControl = !options.hasKey("flowControl") || options.getBoolean("flowControl");
+		boolean statusPolling = options.hasKey("statusPolling") && options.getBoolean("statusPolling");
+		//statusCheck 为 true 时先查询打印机状态，缺纸、开盖等情况下不发送任务直接报错，发送过程中也定期检查
+		boolean statusCheck = options.hasKey("statusCheck") && options.getBoolean("statusCheck");
+		//打印机没有应答时发送过程中也不再查询
+		boolean answered = statusCheck && checkStatus(connection, result);
+		PacedOutputStream paced = null;
+		OutputStream target = connection.getOutputStream();
+		if (flowControl) {
+			Integer chunkSize = chunkSizes.get(connection.getAddress());
+			paced = new PacedOutputStream(target, connection.getInputStream(), statusPolling,
+					chunkSize != null ? chunkSize : PacedOutputStream.DEFAULT_CHUNK_SIZE);
+			if (answered) {
+				paced.setStatusInterval(STATUS_CHECK_BYTES);
+			}
+			target = paced;
+		}
+		JobBuffer job = JobBuffer.open(target, flushEachCommand);
+		print(options, deviceUUID, message, decoded, job, result);
+		job.finish();
+		result.putInt("writeCalls", job.getWriteCalls());
+		result.putDouble("jobBytes", connection.getBytesWritten());
+		if (paced != null) {
+			chunkSizes.put(connection.getAddress(), paced.getChunkSize());
+			result.putDouble("bytesPerSecond", paced.getBytesPerSecond());
+			result.putInt("chunks", paced.getChunks());
+			result.putInt("chunkSize", paced.getChunkSize());
+			result.putInt("stalls", paced.getStalls());
+			result.putInt("statusPolls", paced.getStatusPolls());
+			result.putDouble("busyWaitMs", paced.getBusyWaitMs());
+			result.putDouble("pausedMs", paced.getPausedMs());
+		}
+	}
+
+	/**
+	 * Fails with {@link PrinterNotReadyException} before anything of the job is sent
+	 * if the printer reports it cannot print. A printer that does not answer, or
+	 * cannot over its transport, is sent the job anyway.
+	 *
+	 * @return true if the printer answered
+	 */
+	private boolean checkStatus(PrinterTransport connection, WritableMap result) throws IOException {
+		if (connection.getInputStream() == null) {
+			return false;
+		}
+		PrinterStatus status = PrinterStatus.query(connection.getOutputStream(), connection.getInputStream(),
+				PrinterStatus.DEFAULT_TIMEOUT_MS, true);
+		if (status == null) {
+			Log.d(LOG_TAG, "No status from " + connection.getAddress() + ", printing anyway");
+			return false;
+		}
+		if (result != null) {
+			result.putMap("printerStatus", statusToMap(status));
+		}
+		if (!status.canPrint()) {
+			throw new PrinterNotReadyException(status, false);
+		}
+		return true;
+	}
+
+	private static WritableMap statusToMap(PrinterStatus status) {
+		WritableMap map = Arguments.createMap();
+		map.putString("source", status.source);
+		map.putBoolean("canPrint", status.canPrint());
+		map.putString("problem", status.getProblem());
+		map.putBoolean("online", status.online);
+		map.putBoolean("coverOpen", status.coverOpen);
+		map.putBoolean("feeding", status.feeding);
+		map.putBoolean("paperEnd", status.paperEnd);
+		map.putBoolean("paperNearEnd", status.paperNearEnd);
+		map.putBoolean("cutterError", status.cutterError);
+		map.putBoolean("mechanicalError", status.mechanicalError);
+		map.putBoolean("unrecoverableError", status.unrecoverableError);
+		map.putBoolean("autoRecoverableError", status.autoRecoverableError);
+		return map;
+	}
+
+	private void print(ReadableMap options, String deviceUUID, String message, byte[] decoded, JobBuffer out, WritableMap result) throws IOException {
+		if(options.hasKey("printType") && options.getString("printType").equals(PRINT_TYPE_PHOTO)){
+			//打印图片
+			if(!options.hasKey("width") || !options.hasKey("height")){
+				throw new IllegalArgumentException("Invalid params: width or height must be large than 0");
+			}
+
+			out.write(this.RESET);
+
+			if(options.hasKey("leftMargin")){
+			   byte[] margin = {0x1d,0x4c,(byte)options.getInt("leftMargin"),0x00};
+			   out.write(margin);
+			}
+
+			//ESC @ 之后是左对齐，可以裁掉右侧空白
+			printImage(options, decoded, true, out, result);
+
+			//换行指令
+			int nextLine = options.hasKey("nextLine")?options.getInt("nextLine"):0;
+			if(nextLine > 0){
+				byte[] times = {0x1b,0x4a,(byte)nextLine};
+				out.write(times);
+			}
+
+			out.write(this.CUT_PAPER);
+		} else if(options.hasKey("printType") && options.getString("printType").equals(PRINT_TYPE_STORED)){
+			//打印已存入打印机的图片，只发送几个字节
+			if(!options.hasKey("key")){
+				throw new IllegalArgumentException("Invalid params: key is required");
+			}
+			String storage = options.hasKey("storage") ? options.getString("storage") : StoredImage.NV;
+			byte[] print = StoredImage.print(storage, options.getString("key"));
+
+			out.write(this.RESET);
+			if(options.hasKey("leftMargin")){
+				byte[] margin = {0x1d,0x4c,(byte)options.getInt("leftMargin"),0x00};
+				out.write(margin);
+			}
+			out.write(print);
+			int nextLine = options.hasKey("nextLine")?options.getInt("nextLine"):0;
+			if(nextLine > 0){
+				byte[] times = {0x1b,0x4a,(byte)nextLine};
+				out.write(times);
+			}
+			out.write(this.CUT_PAPER);
+			result.putBoolean("storedImageKnown", storedImages.contains(deviceUUID, storage, options.getString("key")));
+		} else if(options.hasKey("printType") && options.getString("printType").equals(PRINT_TYPE_TEXT)){
+			 DocumentEncoder document = newDocument(options, out);
+			 TextEncoder encoder = TextEncoder.forCodePage(codePage(options));
+			 //指令加文字一次分配好，整个任务一次发送
+			 out.ensureCapacity(encoder.maxBytes(message.length()) + 32);
+			 document.reset();
+			 
+			 //byte[] printWidth = {0x1d,0x57,0x01,0x01};//打印宽度
+			 //out.write(printWidth);
+			 //out.flush();
+			if(options.hasKey("rasterize") && options.getBoolean("rasterize")){
+				//整段文字用 font、fontSize 画成位图，对齐在位图里完成，不用 ESC a
+				int align = DocumentEncoder.ALIGN_LEFT;
+				if(options.hasKey("alignCenter") && options.getBoolean("alignCenter")){
+					align = DocumentEncoder.ALIGN_CENTER;
+				} else if(options.hasKey("alignRight") && options.getBoolean("alignRight")){
+					align = DocumentEncoder.ALIGN_RIGHT;
+				}
+				int paperWidth = options.hasKey("paperWidth") ? options.getInt("paperWidth") : DocumentEncoder.DEFAULT_PAPER_WIDTH;
+				result.putDouble("imageBytes", printRasterText(message, options, align, paperWidth, out));
+			} else {
+			 if(options.hasKey("alignCenter") && options.getBoolean("alignCenter")){
+				 out.write(this.ALIGN_CENTER);
+			 }
+			 if(options.hasKey("alignLeft") && options.getBoolean("alignLeft")){
+				out.write(this.ALIGN_LEFT);
+			 }
+			 if(options.hasKey("alignRight") && options.getBoolean("alignRight")){
+				out.write(this.ALIGN_RIGHT);
+			 }
+			 if(options.hasKey("bold") && options.getBoolean("bold")){
+				out.write(this.BOLD);
+			 }
+			//按代码页编码文字，代码页里没有的字符画成位图
+			document.text(message);
+			result.putInt("rasterizedChars", document.getRasterizedChars());
+			}
+			
+			//换行指令
+			int nextLine = options.hasKey("nextLine")?options.getInt("nextLine"):0;
+			if(nextLine > 0){
+			   byte[] times = {0x1b,0x4a,(byte)nextLine};
+			   out.write(times);
+			}
+
+			out.write(this.CUT_PAPER);
+		} else if(options.hasKey("printType") && options.getString("printType").equals(PRINT_TYPE_DOCUMENT)){
+			//整张小票（文字、图片、分隔线、切纸）编码成一个任务，一次发送
+			if(!options.hasKey("segments")){
+				throw new IllegalArgumentException("Invalid params: segments is required");
+			}
+			printDocument(options.getArray("segments"), options, deviceUUID, out, result);
+		} else if(options.hasKey("printType") && options.getString("printType").equals(PRINT_TYPE_TEMPLATE)){
+			//模板的固定部分已经编码好，只编码字段的值
+			if(!options.hasKey("template")){
+				throw new IllegalArgumentException("Invalid params: template is required");
+			}
+			DocumentTemplate template = templates.get(options.getString("template"));
+			if(template == null){
+				throw new IllegalArgumentException("Unknown template: " + options.getString("template"));
+			}
+			printTemplate(template, options.hasKey("fields") ? options.getMap("fields") : null, out, result);
+		} else {
+			throw new IllegalArgumentException("Invalid type to print.");
+		}
+	}
+
+	/**
+	 * 按顺序编码文档的每一段，样式（对齐、加粗、字号）有变化时才发送指令
+	 */
+	private void printDocument(ReadableArray segments, ReadableMap options, String deviceUUID, JobBuffer out, WritableMap result) throws IOException {
+		int paperWidth = options.hasKey("paperWidth") ? options.getInt("paperWidth") : DocumentEncoder.DEFAULT_PAPER_WIDTH;
+		DocumentEncoder document = newDocument(options, out);
+		long imageBytes = 0;
+		document.reset();
+		for (int i = 0; i < segments.size(); i++) {
+			imageBytes += printSegment(document, segments.getMap(i), i, options, paperWidth, out);
+			//段与段之间可以查询打印机状态
+			out.markSafePoint();
+		}
+		result.putInt("segments", segments.size());
+		result.putDouble("imageBytes", imageBytes);
+		result.putInt("rasterizedChars", document.getRasterizedChars());
+	}
+
+	private void printTemplate(DocumentTemplate template, @Nullable ReadableMap fields, final JobBuffer out, WritableMap result) throws IOException {
+		//固定部分加上字段的余量，整个任务尽量一次发送
+		out.ensureCapacity(template.getFixedBytes() + 1024);
+		final ReadableMap options = toReadableMap(template.getOptions());
+		final int paperWidth = options.hasKey("paperWidth") ? options.getInt("paperWidth") : DocumentEncoder.DEFAULT_PAPER_WIDTH;
+		final long[] imageBytes = new long[1];
+		DocumentEncoder document = newDocument(options, out);
+		template.write(out, document, fieldValues(fields), new DocumentTemplate.FieldWriter() {
+			@Override
+			public void write(DocumentEncoder document, Map<String, Object> segment, int index) throws IOException {
+				imageBytes[0] += printSegment(document, toReadableMap(segment), index, options, paperWidth, out);
+				out.markSafePoint();
+			}
+		});
+		result.putInt("fields", template.getFieldCount());
+		result.putInt("fixedBytes", template.getFixedBytes());
+		result.putDouble("imageBytes", imageBytes[0]);
+		result.putInt("rasterizedChars", document.getRasterizedChars());
+	}
+
+	/**
+	 * 编译模板：没有 {{字段}} 的段落现在就编码成字节，有字段的段落只把样式写进固定部分
+	 */
+	private DocumentTemplate compileTemplate(String name, ReadableArray segments, ReadableMap options) throws IOException {
+		DocumentTemplate.Builder builder = new DocumentTemplate.Builder(name, toMap(options));
+		int paperWidth = options.hasKey("paperWidth") ? options.getInt("paperWidth") : DocumentEncoder.DEFAULT_PAPER_WIDTH;
+		DocumentEncoder document = newDocument(options, builder.getOutput());
+		document.reset();
+		for (int i = 0; i < segments.size(); i++) {
+			ReadableMap segment = segments.getMap(i);
+			Map<String, Object> values = toMap(segment);
+			if (DocumentTemplate.hasPlaceholders(values)) {
+				segmentStyle(document, segment);
+				builder.addField(values, i, document.saveStyle());
+				//原始指令字段打印后样式未知，后面固定部分的样式指令都要重新写入
+				if ("raw".equals(segment.hasKey("type") ? segment.getString("type") : "")) {
+					document.forgetStyle();
+				}
+			} else {
+				printSegment(document, segment, i, options, paperWidth, builder.getOutput());
+			}
+		}
+		return builder.build();
+	}
+
+	/** 字段值都转成字符串，整数不带小数点 */
+	private static Map<String, String> fieldValues(@Nullable ReadableMap fields) {
+		Map<String, String> values = new HashMap<>();
+		if (fields == null) {
+			return values;
+		}
+		ReadableMapKeySetIterator keys = fields.keySetIterator();
+		while (keys.hasNextKey()) {
+			String key = keys.nextKey();
+			switch (fields.getType(key)) {
+				case String:
+					values.put(key, fields.getString(key));
+					break;
+				case Number:
+					double number = fields.getDouble(key);
+					values.put(key, number == Math.rint(number) && Math.abs(number) < 1e15
+							? String.valueOf((long) number) : String.valueOf(number));
+					break;
+				case Boolean:
+					values.put(key, String.valueOf(fields.getBoolean(key)));
+					break;
+				default:
+					values.put(key, "");
+					break;
+			}
+		}
+		return values;
+	}
+
+	/** 只复制字符串、数字和布尔值，段落和选项里没有别的 */
+	private static Map<String, Object> toMap(ReadableMap map) {
+		Map<String, Object> values = new HashMap<>();
+		ReadableMapKeySetIterator keys = map.keySetIterator();
+		while (keys.hasNextKey()) {
+			String key = keys.nextKey();
+			switch (map.getType(key)) {
+				case String:
+					values.put(key, map.getString(key));
+					break;
+				case Number:
+					values.put(key, map.getDouble(key));
+					break;
+				case Boolean:
+					values.put(key, map.getBoolean(key));
+					break;
+				default:
+					break;
+			}
+		}
+		return values;
+	}
+
+	private static ReadableMap toReadableMap(Map<String, Object> values) {
+		WritableMap map = Arguments.createMap();
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			Object value = entry.getValue();
+			if (value instanceof String) {
+				map.putString(entry.getKey(), (String) value);
+			} else if (value instanceof Double) {
+				map.putDouble(entry.getKey(), (Double) value);
+			} else if (value instanceof Boolean) {
+				map.putBoolean(entry.getKey(), (Boolean) value);
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * 段落的样式（对齐、加粗、字号），只和段落的参数有关，和内容无关；模板编译时先写进固定部分
+	 */
+	private static void segmentStyle(DocumentEncoder document, ReadableMap segment) throws IOException {
+		String type = segment.hasKey("type") ? segment.getString("type") : "";
+		//画成位图的文字自己在整个纸宽里对齐
+		if (segment.hasKey("align") && !"rasterText".equals(type)) {
+			document.setAlign(align(segment.getString("align")));
+		}
+		switch (type) {
+			case "rasterText":
+				document.setAlign(DocumentEncoder.ALIGN_LEFT);
+				break;
+			case "text":
+				document.setBold(segment.hasKey("bold") && segment.getBoolean("bold"));
+				document.setSize(segment.hasKey("width") ? segment.getInt("width") : 1,
+						segment.hasKey("height") ? segment.getInt("height") : 1);
+				break;
+			case "columns":
+				document.setBold(segment.hasKey("bold") && segment.getBoolean("bold"));
+				document.setSize(1, 1);
+				break;
+			case "divider":
+			case "barcode":
+				document.setBold(false);
+				document.setSize(1, 1);
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * 编码文档的一段，返回其中图片的字节数
+	 */
+	private long printSegment(DocumentEncoder document, ReadableMap segment, int index, ReadableMap options, int paperWidth, OutputStream out) throws IOException {
+		String type = segment.hasKey("type") ? segment.getString("type") : "";
+		segmentStyle(document, segment);
+		switch (type) {
+			case "text":
+				document.text(segment.getString("text"));
+				if (!segment.hasKey("newLine") || segment.getBoolean("newLine")) {
+					document.newLine();
+				}
+				return 0;
+			case "columns":
+				document.columns(segment.getString("left"), segment.getString("right"));
+				return 0;
+			case "divider":
+				String c = segment.hasKey("char") ? segment.getString("char") : "-";
+				document.divider(c.isEmpty() ? '-' : c.charAt(0));
+				return 0;
+			case "feed":
+				if (segment.hasKey("dots")) {
+					document.feedDots(segment.getInt("dots"));
+				} else {
+					document.feedLines(segment.hasKey("lines") ? segment.getInt("lines") : 1);
+				}
+				return 0;
+			case "image":
+				if (!segment.hasKey("data")) {
+					throw new IllegalArgumentException("Invalid params: image segment " + index + " has no data");
+				}
+				byte[] image = Base64.decode(segment.getString("data"), Base64.DEFAULT);
+				//右侧空白只在左对齐时裁掉：居中、右对齐时打印机按每段自己的宽度摆放，图片会错位
+				long imageBytes = printImage(segment, image, document.getAlign() == DocumentEncoder.ALIGN_LEFT, out, null);
+				document.defaultLineSpacing();
+				return imageBytes;
+			case "rasterText":
+				int textAlign = segment.hasKey("align") ? align(segment.getString("align")) : DocumentEncoder.ALIGN_LEFT;
+				long textBytes = printRasterText(segment.getString("text"), segment, textAlign, paperWidth, out);
+				document.defaultLineSpacing();
+				return textBytes;
+			case "stored":
+				if (!segment.hasKey("key")) {
+					throw new IllegalArgumentException("Invalid params: stored segment " + index + " has no key");
+				}
+				String storage = segment.hasKey("storage") ? segment.getString("storage") : StoredImage.NV;
+				document.raw(StoredImage.print(storage, segment.getString("key")));
+				return 0;
+			case "barcode":
+				return printBarcode(document, segment, options, paperWidth, out);
+			case "qr":
+				return printQrCode(document, segment, options, paperWidth, out);
+			case "cut":
+				if (segment.hasKey("feed")) {
+					document.feedDots(segment.getInt("feed"));
+				}
+				document.cut(segment.hasKey("partial") && segment.getBoolean("partial"));
+				return 0;
+			case "raw":
+				document.raw(Base64.decode(segment.getString("data"), Base64.DEFAULT));
+				//原始指令可能改了样式，之后的样式指令都重新发送
+				document.forgetStyle();
+				return 0;
+			default:
+				throw new IllegalArgumentException("Invalid segment type at " + index + ": " + type);
+		}
+	}
+
+	private static String codePage(ReadableMap options) {
+		return options.hasKey("codePage") ? options.getString("codePage") : TextEncoder.UTF_8;
+	}
+
+	/**
+	 * 文字按 codePage 编码（默认 UTF-8 原样发送，和以前一样）；rasterFallback 默认开启，
+	 * 代码页里没有的字符用系统字体画成位图，和文字打在同一行
+	 */
+	private DocumentEncoder newDocument(ReadableMap options, OutputStream out) {
+		int paperWidth = options.hasKey("paperWidth") ? options.getInt("paperWidth") : DocumentEncoder.DEFAULT_PAPER_WIDTH;
+		TextEncoder encoder = TextEncoder.forCodePage(codePage(options));
+		boolean rasterFallback = !options.hasKey("rasterFallback") || options.getBoolean("rasterFallback");
+		GlyphRasterizer rasterizer = rasterFallback && !TextEncoder.UTF_8.equals(encoder.getCodePage()) ? new AtlasGlyphRasterizer(glyphAtlas) : null;
+		return new DocumentEncoder(out, paperWidth, encoder, rasterizer);
+	}
+
+	/**
+	 * 条码默认由打印机用 GS k 自己生成；不支持的打印机（nativeBarcode 为 false）按位图发送，
+	 * 返回位图的字节数
+	 */
+	private static long printBarcode(DocumentEncoder document, ReadableMap segment, ReadableMap options, int paperWidth, OutputStream out) throws IOException {
+		String type = Barcode.checkType(segment.hasKey("format") ? segment.getString("format") : Barcode.CODE128);
+		String data = segment.getString("data");
+		int moduleWidth = segment.hasKey("moduleWidth") ? segment.getInt("moduleWidth") : Barcode.DEFAULT_MODULE_WIDTH;
+		int height = segment.hasKey("height") ? segment.getInt("height") : Barcode.DEFAULT_HEIGHT;
+		int hri = Barcode.hri(segment.hasKey("hri") ? segment.getString("hri") : "BELOW");
+		if (useNative(segment, options, "nativeBarcode")) {
+			document.raw(Barcode.command(type, data, moduleWidth, height, hri));
+			return 0;
+		}
+		RasterSource source = ModuleRasterSource.bars(Barcode.bars(type, data), moduleWidth, height);
+		//文字由打印机自己的字体打印
+		String text = Barcode.hriText(type, data);
+		if (hri == Barcode.HRI_ABOVE || hri == Barcode.HRI_BOTH) {
+			document.text(text);
+			document.newLine();
 		}
+		long bytes = printModules(document, source, segment, paperWidth, out);
+		if (hri == Barcode.HRI_BELOW || hri == Barcode.HRI_BOTH) {
+			document.text(text);
+			document.newLine();
+		}
+		return bytes;
+	}
+
+	/**
+	 * 二维码默认用 GS ( k 由打印机生成；不支持的打印机（nativeQr 为 false）在本地编码后按位图发送
+	 */
+	private static long printQrCode(DocumentEncoder document, ReadableMap segment, ReadableMap options, int paperWidth, OutputStream out) throws IOException {
+		String data = segment.getString("data");
+		int size = segment.hasKey("size") ? segment.getInt("size") : QrCode.DEFAULT_MODULE_SIZE;
+		int errorCorrection = QrCode.errorCorrection(segment.hasKey("errorCorrection") ? segment.getString("errorCorrection") : "M");
+		if (useNative(segment, options, "nativeQr")) {
+			document.raw(QrCode.command(data, size, errorCorrection));
+			return 0;
+		}
+		if (size < 1 || size > QrCode.MAX_MODULE_SIZE) {
+			throw new IllegalArgumentException("Invalid QR module size: " + size);
+		}
+		RasterSource source = new ModuleRasterSource(QrCode.encode(data, errorCorrection), size, size, QrCode.QUIET_ZONE);
+		return printModules(document, source, segment, paperWidth, out);
+	}
+
+	private static boolean useNative(ReadableMap segment, ReadableMap options, String option) {
+		if (segment.hasKey("native")) {
+			return segment.getBoolean("native");
+		}
+		return !options.hasKey(option) || options.getBoolean(option);
+	}
+
+	private static long printModules(DocumentEncoder document, RasterSource source, ReadableMap segment, int paperWidth, OutputStream out) throws IOException {
+		if (source.getWidth() > paperWidth) {
+			throw new IllegalArgumentException("Code too wide for the paper: " + source.getWidth() + " > " + paperWidth + " dots");
+		}
+		String imageMode = segment.hasKey("imageMode") ? segment.getString("imageMode") : IMAGE_MODE_COLUMN;
+		if (!IMAGE_MODE_RASTER.equals(imageMode) && !IMAGE_MODE_COLUMN.equals(imageMode)) {
+			throw new IllegalArgumentException("Invalid image mode: " + imageMode);
+		}
+		//跳过空白段；只有左对齐时才裁右侧空白，否则每段宽度不同，居中后条码、二维码会错位
+		boolean leftAligned = document.getAlign() == DocumentEncoder.ALIGN_LEFT;
+		byte[] image = BandEncoder.encode(new BandEncoder(source, IMAGE_MODE_RASTER.equals(imageMode), true, leftAligned));
+		out.write(image);
+		if (out instanceof SafePoints) {
+			((SafePoints) out).markSafePoint();
+		}
+		document.defaultLineSpacing();
+		return image.length;
+	}
+
+	/**
+	 * 打印机字体打不出的文字（中文、其他文字、自带字体）在本地画成位图，按图片发送。
+	 * 字形按字体、字号、样式画一次后缓存，每行直接拼接缓存的点阵，不再整行绘制、读取像素
+	 */
+	private long printRasterText(String text, ReadableMap options, int align, int paperWidth, OutputStream out) throws IOException {
+		String font = options.hasKey("font") ? options.getString("font") : GlyphAtlas.DEFAULT_FONT;
+		int fontSize = options.hasKey("fontSize") ? options.getInt("fontSize") : GlyphAtlas.DEFAULT_SIZE;
+		boolean bold = options.hasKey("bold") && options.getBoolean("bold");
+		boolean italic = options.hasKey("italic") && options.getBoolean("italic");
+		String imageMode = options.hasKey("imageMode") ? options.getString("imageMode") : IMAGE_MODE_COLUMN;
+		if (!IMAGE_MODE_RASTER.equals(imageMode) && !IMAGE_MODE_COLUMN.equals(imageMode)) {
+			throw new IllegalArgumentException("Invalid image mode: " + imageMode);
+		}
+		TextRasterSource source = new TextRasterSource(glyphAtlas, glyphAtlas.font(font, fontSize, bold, italic), text, paperWidth, align);
+		return BandWriter.stream(new BandEncoder(source, IMAGE_MODE_RASTER.equals(imageMode), true), out, BandWriter.DEFAULT_QUEUE_DEPTH);
+	}
+
+	private static int align(String align) {
+		switch (align) {
+			case "LEFT":
+				return DocumentEncoder.ALIGN_LEFT;
+			case "CENTER":
+				return DocumentEncoder.ALIGN_CENTER;
+			case "RIGHT":
+				return DocumentEncoder.ALIGN_RIGHT;
+			default:
+				throw new IllegalArgumentException("Invalid align: " + align);
+		}
+	}
+
+	/**
+	 * 把图片编码成打印指令写入 out，返回写入的字节数；PHOTO 任务和文档里的图片段共用。
+	 * leftAligned 为 false（居中、右对齐）时每段保持完整宽度，不裁右侧空白
+	 */
+	private long printImage(ReadableMap options, byte[] decoded, boolean leftAligned, OutputStream out, @Nullable WritableMap result) throws IOException {
+		if(!options.hasKey("width") || !options.hasKey("height")){
+			throw new IllegalArgumentException("Invalid params: width or height must be large than 0");
+		}
+		int width = options.getInt("width");
+		int height = options.getInt("height");
+		//把图片转化为可打印的byte，边编码边发送
+		String imageMode = options.hasKey("imageMode") ? options.getString("imageMode") : IMAGE_MODE_COLUMN;
+		if (!IMAGE_MODE_RASTER.equals(imageMode) && !IMAGE_MODE_COLUMN.equals(imageMode)) {
+			throw new IllegalArgumentException("Invalid image mode: " + imageMode);
+		}
+		String dither = options.hasKey("dither") ? options.getString("dither") : Ditherer.THRESHOLD;
+		boolean raster = IMAGE_MODE_RASTER.equals(imageMode);
+		//默认跳过空白：空白段用 ESC J 走纸，左对齐时右侧空白列也裁掉
+		boolean compact = !options.hasKey("compact") || options.getBoolean("compact");
+		long imageBytes;
+		long fullBytes;
+		//同一张图片（如店铺 logo）用相同参数再次打印时，直接发送缓存的指令
+		boolean useCache = !options.hasKey("cache") || options.getBoolean("cache");
+		String cacheKey = useCache ? RasterCache.key(decoded, width, height, dither, imageMode, compact, leftAligned) : null;
+		byte[] cached = useCache ? rasterCache.get(cacheKey) : null;
+		if (cached != null) {
+			out.write(cached);
+			if (out instanceof SafePoints) {
+				((SafePoints) out).markSafePoint();
+			}
+			imageBytes = cached.length;
+			fullBytes = raster ? RasterEncoder.rasterModeSize(width, height) : RasterEncoder.columnModeSize(width, height);
+		} else {
+			/**获取打印图片的数据，只先读取尺寸，按需要的大小采样解码**/
+			PhotoDecoder photo = new PhotoDecoder(decoded, bitmapPool);
+			try {
+				int[] histogram = Ditherer.OTSU.equals(dither) ? photo.histogram() : null;
+				//缩放与二值化在同一遍完成，不再生成中间的 ARGB 位图
+				RasterSource source = photo.open(width, height, Ditherer.create(dither, width, histogram));
+				BandEncoder encoder = new BandEncoder(source, raster, compact, leftAligned);
+				fullBytes = encoder.totalSize();
+				RasterCache.Recorder recorder = useCache && fullBytes <= rasterCache.maxEntryBytes()
+						? new RasterCache.Recorder(out, (int) fullBytes) : null;
+				OutputStream target = recorder != null ? recorder : out;
+				if (options.hasKey("parallel") && options.getBoolean("parallel")) {
+					//多核并行编码，按顺序发送
+					imageBytes = ParallelBandEncoder.stream(encoder, target);
+				} else {
+					imageBytes = BandWriter.stream(encoder, target, BandWriter.DEFAULT_QUEUE_DEPTH);
+				}
+				if (recorder != null) {
+					rasterCache.put(cacheKey, recorder.toByteArray());
+				}
+			} finally {
+				photo.release();
+			}
+		}
+		if (result != null) {
+			result.putBoolean("imageCached", cached != null);
+			result.putString("imageMode", imageMode);
+			result.putDouble("imageBytes", imageBytes);
+			result.putDouble("imageBytesSaved", fullBytes - imageBytes);
+		}
+		return imageBytes;
+	}
+
+	/**
+	 * 把图片转成位图存入打印机（NV 或下载图形存储区），之后用 printType STORED 按 key 打印
+	 */
+	@ReactMethod
+	public void storeImage(final ReadableMap options, final String deviceUUID, final String serviceUUID, final String message, final Callback callback) {
+		Log.d(LOG_TAG, "Store image on: " + deviceUUID);
+		submit(deviceUUID, new Runnable() {
+			@Override
+			public void run() {
+				storeImageNow(options, deviceUUID, serviceUUID, message, whileAlive(callback));
+			}
+		}, callback);
+	}
+
+	private void storeImageNow(ReadableMap options, String deviceUUID, String serviceUUID, String message, Callback callback) {
+		try {
+			if (!options.hasKey("key") || !options.hasKey("width") || !options.hasKey("height")) {
+				throw new IllegalArgumentException("Invalid params: key, width and height are required");
+			}
+			String key = options.getString("key");
+			String storage = options.hasKey("storage") ? options.getString("storage") : StoredImage.NV;
+			int width = options.getInt("width");
+			int height = options.getInt("height");
+			String dither = options.hasKey("dither") ? options.getString("dither") : Ditherer.THRESHOLD;
+			byte[] decoded = Base64.decode(message.getBytes(), Base64.DEFAULT);
+
+			byte[] define;
+			PhotoDecoder photo = new PhotoDecoder(decoded, bitmapPool);
+			try {
+				int[] histogram = Ditherer.OTSU.equals(dither) ? photo.histogram() : null;
+				define = StoredImage.define(storage, key, photo.open(width, height, Ditherer.create(dither, width, histogram)));
+			} finally {
+				photo.release();
+			}
+
+			sendCommand(options, deviceUUID, serviceUUID, define, false);
+			storedImages.add(deviceUUID, storage, key);
+
+			WritableMap result = Arguments.createMap();
+			result.putString("key", key);
+			result.putString("storage", storage);
+			result.putDouble("imageBytes", define.length);
+			callback.invoke(null, result);
+		} catch (Exception e) {
+			callback.invoke("error:" + e.toString());
+		}
+	}
+
+	@ReactMethod
+	public void deleteStoredImage(final ReadableMap options, final String deviceUUID, final String serviceUUID, final Callback callback) {
+		Log.d(LOG_TAG, "Delete stored image on: " + deviceUUID);
+		submit(deviceUUID, new Runnable() {
+			@Override
+			public void run() {
+				deleteStoredImageNow(options, deviceUUID, serviceUUID, whileAlive(callback));
+			}
+		}, callback);
+	}
+
+	private void deleteStoredImageNow(ReadableMap options, String deviceUUID, String serviceUUID, Callback callback) {
+		try {
+			if (!options.hasKey("key")) {
+				throw new IllegalArgumentException("Invalid params: key is required");
+			}
+			String key = options.getString("key");
+			String storage = options.hasKey("storage") ? options.getString("storage") : StoredImage.NV;
+			byte[] delete = StoredImage.delete(storage, key);
+			sendCommand(options, deviceUUID, serviceUUID, delete, false);
+			storedImages.remove(deviceUUID, storage, key);
+			callback.invoke();
+		} catch (Exception e) {
+			callback.invoke("error:" + e.toString());
+		}
+	}
+
+	@ReactMethod
+	public void getStoredImages(String deviceUUID, Callback callback) {
+		WritableArray images = Arguments.createArray();
+		for (String entry : storedImages.get(deviceUUID)) {
+			int separator = entry.indexOf(':');
+			WritableMap image = Arguments.createMap();
+			image.putString("storage", entry.substring(0, separator));
+			image.putString("key", entry.substring(separator + 1));
+			images.pushMap(image);
+		}
+		callback.invoke(null, images);
+	}
+
+	/**
+	 * 注册小票模板：固定部分（店名、表头、页脚等）现在编码好缓存起来，打印时只传字段的值，
+	 * 用 printType TEMPLATE 打印。图片、条码要解码和编码，在后台线程编译，回调之后模板才可用
+	 */
+	@ReactMethod
+	public void registerTemplate(final String name, final ReadableArray segments, final ReadableMap options, final Callback callback) {
+		submit(TEMPLATE_QUEUE, new Runnable() {
+			@Override
+			public void run() {
+				registerTemplateNow(name, segments, options, whileAlive(callback));
+			}
+		}, callback);
+	}
+
+	private void registerTemplateNow(String name, ReadableArray segments, ReadableMap options, Callback callback) {
+		try {
+			DocumentTemplate template = compileTemplate(name, segments, options);
+			templates.put(name, template);
+			WritableMap result = Arguments.createMap();
+			WritableArray fields = Arguments.createArray();
+			for (String field : template.getFieldNames()) {
+				fields.pushString(field);
+			}
+			result.putArray("fields", fields);
+			result.putInt("fixedBytes", template.getFixedBytes());
+			callback.invoke(null, result);
+		} catch (Exception e) {
+			callback.invoke("error:" + e.toString());
+		}
+	}
+
+	@ReactMethod
+	public void unregisterTemplate(final String name) {
+		//排在之前的注册之后，不会被还没编译完的同名模板覆盖
+		printExecutor.submit(TEMPLATE_QUEUE, new Runnable() {
+			@Override
+			public void run() {
+				templates.remove(name);
+			}
+		});
+	}
+
+	/**
+	 * Sends one command to the printer, with {@code checkStatus} only if it does not
+	 * report that it cannot print.
+	 */
+	private void sendCommand(ReadableMap options, String deviceUUID, String serviceUUID, byte[] command, boolean checkStatus) throws IOException {
+		PrinterTransport connection = openTransport(options, deviceUUID, serviceUUID, null);
+		try {
+			if (checkStatus) {
+				checkStatus(connection, null);
+			}
+			Integer chunkSize = chunkSizes.get(connection.getAddress());
+			PacedOutputStream paced = new PacedOutputStream(connection.getOutputStream(), connection.getInputStream(), false,
+					chunkSize != null ? chunkSize : PacedOutputStream.DEFAULT_CHUNK_SIZE);
+			JobBuffer out = JobBuffer.open(paced, false);
+			out.write(command);
+			out.finish();
+			chunkSizes.put(connection.getAddress(), paced.getChunkSize());
+		} catch (PrinterNotReadyException e) {
+			//状态检查没通过时什么都还没发，连接可以继续复用
+			connection.release();
+			throw e;
+		} catch (IOException e) {
+			connection.invalidate();
+			throw e;
+		}
+		connection.release();
+	}
+
+	/**
+	 * Opens the connection a job to {@code deviceUUID} is written through: TCP for
+	 * tcp://host[:port] addresses, memory for memory:// ones, the connected BLE
+	 * peripheral when {@code options} name a characteristic, and a pooled RFCOMM
+	 * socket to the bonded device otherwise.
+	 */
+	private PrinterTransport openTransport(ReadableMap options, String deviceUUID, String serviceUUID, Integer maxByteSize) throws IOException {
+		if (TcpTransport.isTcpAddress(deviceUUID)) {
+			return TcpTransport.open(deviceUUID, TcpTransport.DEFAULT_TIMEOUT_MS);
+		}
+		if (MemoryTransport.isMemoryAddress(deviceUUID)) {
+			return new MemoryTransport(deviceUUID);
+		}
+		if (options != null && options.hasKey("characteristicUUID")) {
+			Peripheral peripheral = peripherals.get(deviceUUID);
+			if (peripheral == null) {
+				throw new IOException("Peripheral not found: " + deviceUUID);
+			}
+			return GattTransport.open(peripheral, UUIDHelper.uuidFromString(serviceUUID),
+					UUIDHelper.uuidFromString(options.getString("characteristicUUID")),
+					maxByteSize != null ? maxByteSize : GattTransport.DEFAULT_MAX_BYTE_SIZE);
+		}
+		//按 MAC 地址直接查找已配对设备，不再每次遍历 getBondedDevices()
+		BluetoothDevice device = bondedDevices.resolve(getBluetoothAdapter(), deviceUUID);
+		return connectionPool.acquire(device, UUIDHelper.uuidFromString(serviceUUID));
+	}
+
+	@ReactMethod
+	public void getPrinterStatus(final String deviceUUID, final String serviceUUID, final Callback callback) {
+		//和打印任务排在同一个队列里，不会插进正在发送的任务中间
+		submit(deviceUUID, new Runnable() {
+			@Override
+			public void run() {
+				getPrinterStatusNow(deviceUUID, serviceUUID, whileAlive(callback));
+			}
+		}, callback);
+	}
+
+	private void getPrinterStatusNow(String deviceUUID, String serviceUUID, Callback callback) {
+		PrinterTransport connection = null;
+		try {
+			connection = openTransport(null, deviceUUID, serviceUUID, null);
+			PrinterStatus status = null;
+			if (connection.getInputStream() != null) {
+				status = PrinterStatus.query(connection.getOutputStream(), connection.getInputStream(),
+						PrinterStatus.DEFAULT_TIMEOUT_MS, true);
+			}
+			connection.release();
+			connection = null;
+			if (status == null) {
+				throw new IOException("Printer does not report its status");
+			}
+			callback.invoke(null, statusToMap(status));
+		} catch (Exception e) {
+			if (connection != null) {
+				connection.invalidate();
+			}
+			callback.invoke("error:" + e.toString());
+		}
+	}
+
+	@ReactMethod
+	public void getSpoolJobs(Callback callback) {
+		WritableArray jobs = Arguments.createArray();
+		for (PrintJournal.Entry job : spool.getJobs()) {
+			WritableMap map = Arguments.createMap();
+			map.putDouble("id", job.id);
+			map.putString("peripheral", job.address);
+			map.putInt("priority", job.priority);
+			map.putDouble("bytes", job.data.length);
+			map.putDouble("createdAt", job.createdAt);
+			jobs.pushMap(map);
+		}
+		callback.invoke(null, jobs);
+	}
+
+	@ReactMethod
+	public void cancelSpoolJob(double id, Callback callback) {
+		try {
+			if (!spool.cancel((long) id)) {
+				throw new IllegalArgumentException("No pending spool job " + (long) id);
+			}
+			callback.invoke();
+		} catch (Exception e) {
+			callback.invoke("error:" + e.toString());
+		}
+	}
+
+	@ReactMethod
+	public void getQueueStats(Callback callback) {
+		WritableMap stats = Arguments.createMap();
+		stats.putDouble("submitted", printExecutor.getSubmitted());
+		stats.putDouble("completed", printExecutor.getCompleted());
+		stats.putDouble("pending", printExecutor.getPending());
+		stats.putDouble("averageWaitMs", printExecutor.getAverageWaitMs());
+		stats.putDouble("maxWaitMs", printExecutor.getMaxWaitMs());
+		WritableMap depths = Arguments.createMap();
+		for (Map.Entry<String, Integer> entry : printExecutor.getQueueDepths().entrySet()) {
+			depths.putInt(entry.getKey(), entry.getValue());
+		}
+		stats.putMap("queueDepths", depths);
+		stats.putInt("spooledJobs", spool.getPendingCount());
+		stats.putDouble("spoolJournalBytes", spool.getJournalSize());
+		callback.invoke(null, stats);
+	}
+
+	@ReactMethod
+	public void getConnectionStats(Callback callback) {
+		WritableMap stats = Arguments.createMap();
+		stats.putDouble("connects", connectionPool.getConnects());
+		stats.putDouble("reuses", connectionPool.getReuses());
+		stats.putDouble("failures", connectionPool.getFailures());
+		stats.putDouble("reuseRatio", connectionPool.getReuseRatio());
+		stats.putDouble("averageConnectTimeMs", connectionPool.getAverageConnectTimeMs());
+		stats.putDouble("lastConnectTimeMs", connectionPool.getLastConnectTimeMs());
+		stats.putInt("openConnections", connectionPool.getOpenCount());
+		callback.invoke(null, stats);
+	}
+
+	/**
+	 * 把任务排进打印机的队列；模块已经销毁、队列不再接收任务时直接回调错误
+	 */
+	private void submit(String deviceUUID, Runnable task, Callback callback) {
+		if (!printExecutor.submit(deviceUUID, task)) {
+			callback.invoke("error:Print queue shut down, the module is being destroyed");
+		}
+	}
+
+	/**
+	 * 后台任务的回调：JS 实例销毁后（如重新加载）不再调用，旧实例的回调已经没有对应的 JS
+	 */
+	private Callback whileAlive(final Callback callback) {
+		return new Callback() {
+			@Override
+			public void invoke(Object... args) {
+				if (!destroyed) {
+					callback.invoke(args);
+				}
+			}
+		};
+	}
+
+	/** Closes the idle printer connections now instead of after the idle timeout. */
+	@ReactMethod
+	public void closePrinterConnections() {
+		connectionPool.closeAll();
+	}
+
+	@Override
+	public void onCatalystInstanceDestroy() {
+		destroyed = true;
+		spool.close();
+		printExecutor.shutdown();
+		connectionPool.shutdown();
+		bondedDevices.close();
+	}
+
+	@ReactMethod
+	public void getImageStats(Callback callback) {
+		WritableMap stats = Arguments.createMap();
+		stats.putDouble("bitmapPoolHits", bitmapPool.getHits());
+		stats.putDouble("bitmapPoolMisses", bitmapPool.getMisses());
+		stats.putInt("bitmapPoolCount", bitmapPool.getCount());
+		stats.putInt("bitmapPoolBytes", bitmapPool.getBytes());
+		long lookups = rasterCache.getHits() + rasterCache.getMisses();
+		stats.putDouble("rasterCacheHits", rasterCache.getHits());
+		stats.putDouble("rasterCacheMisses", rasterCache.getMisses());
+		stats.putDouble("rasterCacheHitRate", lookups == 0 ? 0 : (double) rasterCache.getHits() / lookups);
+		stats.putInt("rasterCacheCount", rasterCache.getCount());
+		stats.putInt("rasterCacheBytes", rasterCache.getBytes());
+		stats.putDouble("glyphCacheHits", glyphAtlas.getHits());
+		stats.putDouble("glyphCacheMisses", glyphAtlas.getMisses());
+		stats.putInt("glyphCacheCount", glyphAtlas.getCount());
+		stats.putInt("glyphCacheBytes", glyphAtlas.getBytes());
+		callback.invoke(null, stats);
+	}
+
+	@ReactMethod
+	public void clearImageCache() {
+		rasterCache.clear();
+		bitmapPool.clear();
+		glyphAtlas.clear();
 	}
 
 	@ReactMethod
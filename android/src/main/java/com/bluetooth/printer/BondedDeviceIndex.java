@@ -0,0 +1,110 @@
+package com.bluetooth.printer;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bonded devices by MAC address. {@code getBondedDevices()} is a binder call that
+ * builds a new set each time, so it is made once; bond state broadcasts keep the
+ * index current after that, and resolving an address is a map lookup.
+ *
+ * Addresses that are not bonded resolve through {@code getRemoteDevice}, which
+ * needs no binder call; connecting to such a device then pairs or fails with the
+ * stack's own error.
+ */
+class BondedDeviceIndex {
+
+	private static final String LOG_TAG = BlueToothPrinterModule.LOG_TAG;
+
+	private final Context context;
+	private final Map<String, BluetoothDevice> devices = new ConcurrentHashMap<>();
+	private volatile boolean loaded;
+	private boolean registered;
+
+	private final BroadcastReceiver receiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			String action = intent.getAction();
+			if (BluetoothDevice.ACTION_BOND_STATE_CHANGED.equals(action)) {
+				BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+				int state = intent.getIntExtra(BluetoothDevice.EXTRA_BOND_STATE, BluetoothDevice.BOND_NONE);
+				if (device == null) {
+					return;
+				}
+				if (state == BluetoothDevice.BOND_BONDED) {
+					devices.put(device.getAddress(), device);
+				} else if (state == BluetoothDevice.BOND_NONE) {
+					devices.remove(device.getAddress());
+				}
+			} else if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(action)) {
+				// bonded devices cannot be listed while the adapter is off, reload once it is on
+				if (intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR) == BluetoothAdapter.STATE_ON) {
+					loaded = false;
+				}
+			}
+		}
+	};
+
+	public BondedDeviceIndex(Context context) {
+		this.context = context;
+	}
+
+	/**
+	 * Device for {@code address}, in any letter case.
+	 *
+	 * @throws IOException if the device has no Bluetooth adapter
+	 * @throws IllegalArgumentException if {@code address} is not a MAC address
+	 */
+	public BluetoothDevice resolve(BluetoothAdapter adapter, String address) throws IOException {
+		if (adapter == null) {
+			throw new IOException("No bluetooth support");
+		}
+		String key = address == null ? null : address.toUpperCase(Locale.US);
+		if (!BluetoothAdapter.checkBluetoothAddress(key)) {
+			throw new IllegalArgumentException("Invalid device address: " + address);
+		}
+		if (!loaded) {
+			load(adapter);
+		}
+		BluetoothDevice device = devices.get(key);
+		return device != null ? device : adapter.getRemoteDevice(key);
+	}
+
+	private synchronized void load(BluetoothAdapter adapter) {
+		if (loaded) {
+			return;
+		}
+		if (!registered) {
+			// register before listing, so no bond change can fall in between
+			IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+			filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+			context.registerReceiver(receiver, filter);
+			registered = true;
+		}
+		devices.clear();
+		for (BluetoothDevice device : adapter.getBondedDevices()) {
+			devices.put(device.getAddress(), device);
+		}
+		loaded = true;
+		Log.d(LOG_TAG, "Indexed " + devices.size() + " bonded devices");
+	}
+
+	/** Stops listening for bond changes. */
+	public synchronized void close() {
+		if (registered) {
+			context.unregisterReceiver(receiver);
+			registered = false;
+		}
+		loaded = false;
+	}
+}
@@ -0,0 +1,34 @@
+package com.bluetooth.printer;
+
+/**
+ * Monotonic milliseconds and a sleep that rides out interrupts, as
+ * {@code android.os.SystemClock} has them, in plain Java so the sending path also
+ * runs on a JVM. Only for timing within a job: unlike
+ * {@code SystemClock.elapsedRealtime()} it stands still while the device sleeps.
+ */
+final class Clock {
+
+	private Clock() {
+	}
+
+	public static long millis() {
+		return System.nanoTime() / 1000000L;
+	}
+
+	/** Sleeps {@code ms} milliseconds; an interrupt is kept for the caller to see. */
+	public static void sleep(long ms) {
+		long end = millis() + ms;
+		boolean interrupted = false;
+		long left;
+		while ((left = end - millis()) > 0) {
+			try {
+				Thread.sleep(left);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package com.bluetooth.printer;
+
+import java.util.Arrays;
+
+/**
+ * Turns rows of luminance values (0 black to 255 white) into packed 1-bit rows
+ * (black = 1, eight pixels per byte), either with a fixed threshold or by
+ * dithering.
+ *
+ * Error diffusion keeps only the rows of error it diffuses into, so memory is
+ * O(width). It needs rows in order from top to bottom and must not be shared
+ * between threads; see {@link #isSequential()}.
+ */
+abstract class Ditherer {
+
+	/** Fixed threshold at {@link RasterEncoder#THRESHOLD}, the historic behaviour. */
+	public static final String THRESHOLD = "THRESHOLD";
+	/** Fixed threshold chosen per image from its luminance histogram (Otsu's method). */
+	public static final String OTSU = "OTSU";
+	/** Ordered dithering with an 8x8 Bayer matrix. */
+	public static final String BAYER = "BAYER";
+	public static final String FLOYD_STEINBERG = "FLOYD_STEINBERG";
+	public static final String ATKINSON = "ATKINSON";
+
+	/**
+	 * Creates the ditherer for {@code mode}.
+	 *
+	 * @param histogram 256-bin luminance histogram of the image, only used by {@link #OTSU}
+	 */
+	public static Ditherer create(String mode, int width, int[] histogram) {
+		if (mode == null || THRESHOLD.equals(mode)) {
+			return new Threshold(RasterEncoder.THRESHOLD);
+		}
+		if (OTSU.equals(mode)) {
+			if (histogram == null) {
+				throw new IllegalArgumentException("Otsu threshold needs a histogram");
+			}
+			return new Threshold(otsuThreshold(histogram));
+		}
+		if (BAYER.equals(mode)) {
+			return new Ordered();
+		}
+		if (FLOYD_STEINBERG.equals(mode)) {
+			return new FloydSteinberg(width);
+		}
+		if (ATKINSON.equals(mode)) {
+			return new Atkinson(width);
+		}
+		throw new IllegalArgumentException("Invalid dither mode: " + mode);
+	}
+
+	/** True if rows have to be requested in order, from a single thread. */
+	public boolean isSequential() {
+		return false;
+	}
+
+	/** Packs row {@code y} of the image, {@code width} values starting at {@code offset}. */
+	public abstract void packRow(int[] luma, int offset, int width, int y, byte[] dst, int dstOffset);
+
+	/**
+	 * Adds {@code count} ARGB pixels starting at {@code offset} to a 256-bin
+	 * luminance histogram, compositing them over white.
+	 */
+	public static void accumulate(int[] argb, int offset, int count, int[] histogram) {
+		for (int i = offset, end = offset + count; i < end; i++) {
+			histogram[RasterEncoder.luminanceOverWhite(argb[i])]++;
+		}
+	}
+
+	/**
+	 * Threshold that maximises the between-class variance of {@code histogram}.
+	 * Pixels below the returned value are printed.
+	 */
+	public static int otsuThreshold(int[] histogram) {
+		long total = 0;
+		long sum = 0;
+		for (int i = 0; i < 256; i++) {
+			total += histogram[i];
+			sum += (long) i * histogram[i];
+		}
+		if (total == 0) {
+			return RasterEncoder.THRESHOLD;
+		}
+		long weightDark = 0;
+		long sumDark = 0;
+		double best = -1;
+		int threshold = RasterEncoder.THRESHOLD;
+		for (int t = 0; t < 256; t++) {
+			weightDark += histogram[t];
+			if (weightDark == 0) {
+				continue;
+			}
+			long weightLight = total - weightDark;
+			if (weightLight == 0) {
+				break;
+			}
+			sumDark += (long) t * histogram[t];
+			double meanDark = (double) sumDark / weightDark;
+			double meanLight = (double) (sum - sumDark) / weightLight;
+			double between = (double) weightDark * weightLight * (meanDark - meanLight) * (meanDark - meanLight);
+			if (between > best) {
+				best = between;
+				threshold = t + 1;
+			}
+		}
+		return threshold;
+	}
+
+	/** Sets bit {@code x} of a packed row whose bytes were cleared beforehand. */
+	private static void setBlack(byte[] dst, int dstOffset, int x) {
+		dst[dstOffset + (x >> 3)] |= (byte) (0x80 >>> (x & 7));
+	}
+
+	private static void clearRow(byte[] dst, int dstOffset, int width) {
+		for (int i = dstOffset, end = dstOffset + RasterEncoder.rowBytes(width); i < end; i++) {
+			dst[i] = 0;
+		}
+	}
+
+	static final class Threshold extends Ditherer {
+		private final int threshold;
+
+		Threshold(int threshold) {
+			this.threshold = threshold;
+		}
+
+		@Override
+		public void packRow(int[] luma, int offset, int width, int y, byte[] dst, int dstOffset) {
+			RasterEncoder.packRow(luma, offset, width, threshold, dst, dstOffset);
+		}
+	}
+
+	static final class Ordered extends Ditherer {
+		private static final int[] BAYER_8X8 = {
+				0, 32, 8, 40, 2, 34, 10, 42,
+				48, 16, 56, 24, 50, 18, 58, 26,
+				12, 44, 4, 36, 14, 46, 6, 38,
+				60, 28, 52, 20, 62, 30, 54, 22,
+				3, 35, 11, 43, 1, 33, 9, 41,
+				51, 19, 59, 27, 49, 17, 57, 25,
+				15, 47, 7, 39, 13, 45, 5, 37,
+				63, 31, 55, 23, 61, 29, 53, 21};
+
+		/** Matrix scaled to luminance thresholds, centred in each of the 64 levels. */
+		private static final int[] THRESHOLDS = new int[64];
+
+		static {
+			for (int i = 0; i < 64; i++) {
+				THRESHOLDS[i] = BAYER_8X8[i] * 4 + 2;
+			}
+		}
+
+		@Override
+		public void packRow(int[] luma, int offset, int width, int y, byte[] dst, int dstOffset) {
+			int row = (y & 7) << 3;
+			int k = dstOffset;
+			for (int x = 0; x < width; x += 8) {
+				int b = 0;
+				int n = Math.min(8, width - x);
+				for (int i = 0; i < n; i++) {
+					b = (b << 1) | (luma[offset + x + i] < THRESHOLDS[row + i] ? 1 : 0);
+				}
+				dst[k++] = (byte) (b << (8 - n));
+			}
+		}
+	}
+
+	/**
+	 * Error diffusion base: remembers which row comes next and resets its error
+	 * buffers when a new image (row 0) starts.
+	 */
+	abstract static class Diffusion extends Ditherer {
+		private int nextRow = -1;
+
+		@Override
+		public boolean isSequential() {
+			return true;
+		}
+
+		@Override
+		public final void packRow(int[] luma, int offset, int width, int y, byte[] dst, int dstOffset) {
+			if (y != nextRow) {
+				if (y != 0) {
+					throw new IllegalStateException("Error diffusion needs rows in order, got " + y + " expected " + nextRow);
+				}
+				reset();
+			}
+			clearRow(dst, dstOffset, width);
+			diffuseRow(luma, offset, width, dst, dstOffset);
+			nextRow = y + 1;
+		}
+
+		abstract void reset();
+
+		abstract void diffuseRow(int[] luma, int offset, int width, byte[] dst, int dstOffset);
+	}
+
+	/** Floyd-Steinberg, 7/16 3/16 5/16 1/16, with two rows of error. */
+	static final class FloydSteinberg extends Diffusion {
+		// errors are kept in sixteenths; index x + 1 so x - 1 never goes negative
+		private int[] current;
+		private int[] next;
+
+		FloydSteinberg(int width) {
+			current = new int[width + 2];
+			next = new int[width + 2];
+		}
+
+		@Override
+		void reset() {
+			Arrays.fill(current, 0);
+			Arrays.fill(next, 0);
+		}
+
+		@Override
+		void diffuseRow(int[] luma, int offset, int width, byte[] dst, int dstOffset) {
+			int[] cur = current;
+			int[] nxt = next;
+			for (int x = 0; x < width; x++) {
+				int value = luma[offset + x] + ((cur[x + 1] + 8) >> 4);
+				int error;
+				if (value < RasterEncoder.THRESHOLD) {
+					setBlack(dst, dstOffset, x);
+					error = value;
+				} else {
+					error = value - 255;
+				}
+				cur[x + 2] += error * 7;
+				nxt[x] += error * 3;
+				nxt[x + 1] += error * 5;
+				nxt[x + 2] += error;
+			}
+			Arrays.fill(cur, 0);
+			current = nxt;
+			next = cur;
+		}
+	}
+
+	/** Atkinson, 1/8 to six neighbours over three rows; 1/4 of the error is dropped. */
+	static final class Atkinson extends Diffusion {
+		// errors in eighths, index x + 1
+		private final int[][] rows = new int[3][];
+		private int first;
+
+		Atkinson(int width) {
+			for (int i = 0; i < 3; i++) {
+				rows[i] = new int[width + 3];
+			}
+		}
+
+		@Override
+		void reset() {
+			for (int[] row : rows) {
+				Arrays.fill(row, 0);
+			}
+			first = 0;
+		}
+
+		@Override
+		void diffuseRow(int[] luma, int offset, int width, byte[] dst, int dstOffset) {
+			int[] cur = rows[first];
+			int[] nxt = rows[(first + 1) % 3];
+			int[] after = rows[(first + 2) % 3];
+			for (int x = 0; x < width; x++) {
+				int value = luma[offset + x] + ((cur[x + 1] + 4) >> 3);
+				int error;
+				if (value < RasterEncoder.THRESHOLD) {
+					setBlack(dst, dstOffset, x);
+					error = value;
+				} else {
+					error = value - 255;
+				}
+				cur[x + 2] += error;
+				cur[x + 3] += error;
+				nxt[x] += error;
+				nxt[x + 1] += error;
+				nxt[x + 2] += error;
+				after[x + 1] += error;
+			}
+			Arrays.fill(cur, 0);
+			first = (first + 1) % 3;
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package com.bluetooth.printer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes a receipt made of text, columns, feeds, dividers, images and cuts as one
+ * ESC/POS stream. The encoder tracks alignment, emphasis and character size and
+ * writes a style command only when the style actually changes, so a receipt of
+ * many short segments costs little more than its text.
+ *
+ * Text is encoded for the job's code page by a {@link TextEncoder} into a buffer
+ * reused for every string. Characters the code page lacks are drawn by the
+ * {@link GlyphRasterizer}, if the job has one, and sent inline as a one band
+ * ESC * image; without one they print as '?'.
+ */
+final class DocumentEncoder {
+
+	public static final int ALIGN_LEFT = 0;
+	public static final int ALIGN_CENTER = 1;
+	public static final int ALIGN_RIGHT = 2;
+
+	/** 80 mm paper at 203 dpi. */
+	public static final int DEFAULT_PAPER_WIDTH = 576;
+
+	/** Width of font A, in dots. */
+	private static final int CHAR_WIDTH = 12;
+
+	private static final int MAX_SIZE = 8;
+
+	// chars encoded at a time, which bounds the text buffer
+	private static final int TEXT_CHUNK = 1024;
+
+	private final OutputStream out;
+	private final int paperWidth;
+	private final TextEncoder encoder;
+	private final GlyphRasterizer rasterizer;
+	private byte[] textBuffer = new byte[0];
+	private byte[] glyphRows = new byte[0];
+	private byte[] glyphBand = new byte[0];
+	private int rasterizedChars;
+	// what the printer is set to; -1 until known
+	private int align = -1;
+	private int bold = -1;
+	private int size = -1;
+
+	/**
+	 * @param rasterizer draws what the code page cannot print, or null to print
+	 *                   '?' instead
+	 */
+	public DocumentEncoder(OutputStream out, int paperWidth, TextEncoder encoder, GlyphRasterizer rasterizer) {
+		this.out = out;
+		this.paperWidth = paperWidth;
+		this.encoder = encoder;
+		this.rasterizer = rasterizer;
+	}
+
+	/** ESC @, back to the printer's default style, then the code page. */
+	public void reset() throws IOException {
+		out.write(new byte[]{0x1b, 0x40});
+		encoder.select(out);
+		align = ALIGN_LEFT;
+		bold = 0;
+		size = 0;
+	}
+
+	/** The alignment in effect, or -1 if unknown. */
+	public int getAlign() {
+		return align;
+	}
+
+	public void setAlign(int align) throws IOException {
+		if (align < ALIGN_LEFT || align > ALIGN_RIGHT) {
+			throw new IllegalArgumentException("Invalid alignment: " + align);
+		}
+		if (this.align != align) {
+			out.write(new byte[]{0x1b, 0x61, (byte) align});
+			this.align = align;
+		}
+	}
+
+	public void setBold(boolean bold) throws IOException {
+		int value = bold ? 1 : 0;
+		if (this.bold != value) {
+			out.write(new byte[]{0x1b, 0x45, (byte) value});
+			this.bold = value;
+		}
+	}
+
+	/** GS !, characters {@code width} by {@code height} times their normal size, 1 to 8. */
+	public void setSize(int width, int height) throws IOException {
+		if (width < 1 || width > MAX_SIZE || height < 1 || height > MAX_SIZE) {
+			throw new IllegalArgumentException("Invalid character size: " + width + "x" + height);
+		}
+		int value = (width - 1) << 4 | (height - 1);
+		if (size != value) {
+			out.write(new byte[]{0x1d, 0x21, (byte) value});
+			size = value;
+		}
+	}
+
+	/** Characters that fit on one line at the current character width. */
+	public int getLineWidth() {
+		int width = size < 0 ? 1 : (size >> 4) + 1;
+		return paperWidth / (CHAR_WIDTH * width);
+	}
+
+	public void text(String text) throws IOException {
+		int length = text.length();
+		int i = 0;
+		while (i < length) {
+			int chunkEnd = Math.min(length, i + TEXT_CHUNK);
+			// a pair split across chunks would print as two '?'
+			if (chunkEnd < length && Character.isHighSurrogate(text.charAt(chunkEnd - 1))) {
+				chunkEnd--;
+			}
+			int end = encoder.mappableEnd(text, i, chunkEnd);
+			if (end > i) {
+				int size = encoder.maxBytes(end - i);
+				if (textBuffer.length < size) {
+					textBuffer = new byte[size];
+				}
+				out.write(textBuffer, 0, encoder.encode(text, i, end, textBuffer, 0));
+				i = end;
+			} else {
+				i = unmappable(text, i, length);
+			}
+		}
+	}
+
+	/** Prints the unmappable characters from {@code from}, returns the index after them. */
+	private int unmappable(String text, int from, int length) throws IOException {
+		int end = from;
+		int width = 0;
+		while (end < length && !encoder.canEncode(text.charAt(end))) {
+			int codePoint = text.codePointAt(end);
+			int glyphWidth = rasterizer != null ? rasterizer.getWidth(codePoint) : 0;
+			if (width > 0 && width + glyphWidth > paperWidth) {
+				break;
+			}
+			width += glyphWidth;
+			end += Character.charCount(codePoint);
+			rasterizedChars++;
+		}
+		if (rasterizer == null) {
+			for (int i = from; i < end; i += Character.charCount(text.codePointAt(i))) {
+				out.write('?');
+			}
+			return end;
+		}
+		int rowBytes = RasterEncoder.rowBytes(width);
+		int rowsSize = rowBytes * GlyphRasterizer.HEIGHT;
+		if (glyphRows.length < rowsSize) {
+			glyphRows = new byte[rowsSize];
+		}
+		Arrays.fill(glyphRows, 0, rowsSize, (byte) 0);
+		for (int i = from, x = 0; i < end; ) {
+			int codePoint = text.codePointAt(i);
+			rasterizer.draw(codePoint, glyphRows, rowBytes, x);
+			x += rasterizer.getWidth(codePoint);
+			i += Character.charCount(codePoint);
+		}
+		int bandSize = RasterEncoder.columnBandSize(width);
+		if (glyphBand.length < bandSize) {
+			glyphBand = new byte[bandSize];
+		}
+		int k = RasterEncoder.encodeColumnBand(glyphRows, rowBytes, width, glyphBand, 0);
+		// without the band's line feed, so the text goes on in the same line
+		out.write(glyphBand, 0, k - 1);
+		return end;
+	}
+
+	/** Characters drawn by the rasterizer or replaced with '?' so far. */
+	public int getRasterizedChars() {
+		return rasterizedChars;
+	}
+
+	/** Columns of font A {@code text} takes: two for double byte and wide drawn characters. */
+	public int columnsOf(String text) {
+		int columns = 0;
+		for (int i = 0; i < text.length(); ) {
+			int codePoint = text.codePointAt(i);
+			if (encoder.canEncode(text.charAt(i))) {
+				columns += encoder.columns(text.charAt(i));
+			} else {
+				columns += rasterizer != null ? (rasterizer.getWidth(codePoint) + CHAR_WIDTH - 1) / CHAR_WIDTH : 1;
+			}
+			i += Character.charCount(codePoint);
+		}
+		return columns;
+	}
+
+	public void newLine() throws IOException {
+		out.write('\n');
+	}
+
+	/** {@code left} and {@code right} on one line, the right one flush with the right edge. */
+	public void columns(String left, String right) throws IOException {
+		int gap = getLineWidth() - columnsOf(left) - columnsOf(right);
+		if (gap < 1) {
+			// too long for one line: the left text wraps and the right one goes on its own line
+			text(left);
+			newLine();
+			gap = Math.max(0, getLineWidth() - columnsOf(right));
+			left = "";
+		}
+		// padded to the full line width, so the alignment makes no difference
+		text(left + repeat(' ', gap) + right);
+		newLine();
+	}
+
+	/** A line of {@code c} across the paper. */
+	public void divider(char c) throws IOException {
+		text(repeat(c, getLineWidth()));
+		newLine();
+	}
+
+	/** ESC d, feeds {@code lines} lines. */
+	public void feedLines(int lines) throws IOException {
+		while (lines > 0) {
+			int step = Math.min(255, lines);
+			out.write(new byte[]{0x1b, 0x64, (byte) step});
+			lines -= step;
+		}
+	}
+
+	/** ESC J, feeds {@code dots} dots. */
+	public void feedDots(int dots) throws IOException {
+		byte[] feed = new byte[RasterEncoder.feedSize(dots)];
+		RasterEncoder.encodeFeed(dots, feed, 0);
+		out.write(feed);
+	}
+
+	/** ESC 2, default line spacing again after a column mode image set it to zero. */
+	public void defaultLineSpacing() throws IOException {
+		out.write(new byte[]{0x1b, 0x32});
+	}
+
+	/** GS V, a full or partial cut. */
+	public void cut(boolean partial) throws IOException {
+		out.write(new byte[]{0x1d, 0x56, (byte) (partial ? 1 : 0)});
+	}
+
+	/** Bytes written as they are; call {@link #forgetStyle()} if they may change the style. */
+	public void raw(byte[] data) throws IOException {
+		out.write(data);
+	}
+
+	/** The style the printer is in, for {@link #restoreStyle(int)}. */
+	public int saveStyle() {
+		return (align + 1) << 16 | (bold + 1) << 8 | (size + 1);
+	}
+
+	/**
+	 * Assumes the printer is in a style saved earlier, e.g. where a template's
+	 * field goes after the template's fixed bytes put it in that style.
+	 */
+	public void restoreStyle(int style) {
+		align = (style >> 16) - 1;
+		bold = (style >> 8 & 0xff) - 1;
+		size = (style & 0xff) - 1;
+	}
+
+	/** After writing commands the encoder did not see, which may have changed the style. */
+	public void forgetStyle() {
+		align = -1;
+		bold = -1;
+		size = -1;
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[Math.max(0, count)];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
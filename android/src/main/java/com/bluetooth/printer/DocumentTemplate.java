@@ -0,0 +1,219 @@
+package com.bluetooth.printer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A document compiled once for printing many times with different values, such
+ * as a receipt layout. Segments with {@code {{name}}} placeholders in their
+ * strings are fields; everything else is encoded when the template is built and
+ * kept as ESC/POS bytes. Printing writes the kept byte runs as they are and
+ * encodes only the fields, so a receipt costs about what its values cost.
+ *
+ * A field's style commands depend only on the segment, not on the values, so
+ * they are part of the fixed bytes before it; the encoder's style at that point
+ * is saved with the field and restored when it is printed.
+ */
+final class DocumentTemplate {
+
+	/** Encodes one field's segment, its placeholders filled in. */
+	interface FieldWriter {
+		void write(DocumentEncoder document, Map<String, Object> segment, int index) throws IOException;
+	}
+
+	private static final String OPEN = "{{";
+	private static final String CLOSE = "}}";
+
+	private final String name;
+	private final Map<String, Object> options;
+	// a byte[] of fixed bytes or a Field, in order
+	private final List<Object> parts;
+	private final Set<String> fieldNames;
+	private final int fixedBytes;
+
+	private static final class Field {
+		final Map<String, Object> segment;
+		final int index;
+		final int style;
+
+		Field(Map<String, Object> segment, int index, int style) {
+			this.segment = segment;
+			this.index = index;
+			this.style = style;
+		}
+	}
+
+	private DocumentTemplate(String name, Map<String, Object> options, List<Object> parts, Set<String> fieldNames, int fixedBytes) {
+		this.name = name;
+		this.options = options;
+		this.parts = parts;
+		this.fieldNames = fieldNames;
+		this.fixedBytes = fixedBytes;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** The options the template was built with: paper width, code page and so on. */
+	public Map<String, Object> getOptions() {
+		return options;
+	}
+
+	/** Names of all placeholders, in the order they first appear. */
+	public Set<String> getFieldNames() {
+		return fieldNames;
+	}
+
+	/** Size of the bytes encoded in advance. */
+	public int getFixedBytes() {
+		return fixedBytes;
+	}
+
+	/** Segments encoded at print time. */
+	public int getFieldCount() {
+		int count = 0;
+		for (Object part : parts) {
+			if (part instanceof Field) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the document: the fixed byte runs straight from the template, the
+	 * fields through {@code writer} with {@code document} in the style they were
+	 * compiled in.
+	 *
+	 * @throws IllegalArgumentException if {@code values} lacks a placeholder
+	 */
+	public void write(OutputStream out, DocumentEncoder document, Map<String, String> values, FieldWriter writer) throws IOException {
+		for (String field : fieldNames) {
+			if (!values.containsKey(field)) {
+				throw new IllegalArgumentException("Missing template field: " + field);
+			}
+		}
+		for (Object part : parts) {
+			if (part instanceof byte[]) {
+				out.write((byte[]) part);
+			} else {
+				Field field = (Field) part;
+				document.restoreStyle(field.style);
+				writer.write(document, fill(field.segment, values), field.index);
+			}
+		}
+	}
+
+	/** True if a string value of {@code segment} has a placeholder. */
+	public static boolean hasPlaceholders(Map<String, Object> segment) {
+		for (Object value : segment.values()) {
+			if (value instanceof String && ((String) value).contains(OPEN)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** {@code segment} with the placeholders in its strings replaced. */
+	static Map<String, Object> fill(Map<String, Object> segment, Map<String, String> values) {
+		Map<String, Object> filled = new HashMap<>(segment);
+		for (Map.Entry<String, Object> entry : segment.entrySet()) {
+			if (entry.getValue() instanceof String) {
+				filled.put(entry.getKey(), fill((String) entry.getValue(), values));
+			}
+		}
+		return filled;
+	}
+
+	static String fill(String text, Map<String, String> values) {
+		int open = text.indexOf(OPEN);
+		if (open < 0) {
+			return text;
+		}
+		StringBuilder out = new StringBuilder(text.length() + 16);
+		int from = 0;
+		while (open >= 0) {
+			int close = text.indexOf(CLOSE, open + OPEN.length());
+			if (close < 0) {
+				break;
+			}
+			out.append(text, from, open);
+			String value = values.get(text.substring(open + OPEN.length(), close).trim());
+			out.append(value != null ? value : "");
+			from = close + CLOSE.length();
+			open = text.indexOf(OPEN, from);
+		}
+		return out.append(text, from, text.length()).toString();
+	}
+
+	private static void collectFields(Map<String, Object> segment, Set<String> names) {
+		for (Object value : segment.values()) {
+			if (!(value instanceof String)) {
+				continue;
+			}
+			String text = (String) value;
+			int open = text.indexOf(OPEN);
+			while (open >= 0) {
+				int close = text.indexOf(CLOSE, open + OPEN.length());
+				if (close < 0) {
+					break;
+				}
+				names.add(text.substring(open + OPEN.length(), close).trim());
+				open = text.indexOf(OPEN, close + CLOSE.length());
+			}
+		}
+	}
+
+	/**
+	 * Collects a template. The caller encodes fixed segments with the document
+	 * over {@link #getOutput()}, and calls {@link #addField} for a field once
+	 * its style is written.
+	 */
+	static final class Builder {
+		private final String name;
+		private final Map<String, Object> options;
+		private final ByteArrayOutputStream fixed = new ByteArrayOutputStream();
+		private final List<Object> parts = new ArrayList<>();
+		private final Set<String> fieldNames = new LinkedHashSet<>();
+		private int fixedBytes;
+
+		Builder(String name, Map<String, Object> options) {
+			this.name = name;
+			this.options = options;
+		}
+
+		/** Where the fixed segments are encoded. */
+		OutputStream getOutput() {
+			return fixed;
+		}
+
+		void addField(Map<String, Object> segment, int index, int style) {
+			closeFixed();
+			collectFields(segment, fieldNames);
+			parts.add(new Field(Collections.unmodifiableMap(new HashMap<>(segment)), index, style));
+		}
+
+		private void closeFixed() {
+			if (fixed.size() > 0) {
+				parts.add(fixed.toByteArray());
+				fixedBytes += fixed.size();
+				fixed.reset();
+			}
+		}
+
+		DocumentTemplate build() {
+			closeFixed();
+			return new DocumentTemplate(name, Collections.unmodifiableMap(new HashMap<>(options)), parts,
+					Collections.unmodifiableSet(fieldNames), fixedBytes);
+		}
+	}
+}
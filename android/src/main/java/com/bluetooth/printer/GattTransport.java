@@ -0,0 +1,131 @@
+package com.bluetooth.printer;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.facebook.react.bridge.Callback;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a job to a BLE printer's characteristic through a connected
+ * {@link Peripheral}. Bytes are gathered until a flush and then written with
+ * responses, split into packets of {@code maxByteSize}; the flush returns once the
+ * last packet was acknowledged.
+ *
+ * The connection belongs to the peripheral, connected and disconnected from JS,
+ * so handing the transport back leaves it open. There is no way to read what the
+ * printer answers, so jobs over BLE are not status checked.
+ */
+final class GattTransport implements PrinterTransport {
+
+	/** Packet size every BLE link supports; larger ones need a negotiated MTU. */
+	public static final int DEFAULT_MAX_BYTE_SIZE = 20;
+
+	private static final long WRITE_TIMEOUT_MS = 30 * 1000;
+
+	private final Peripheral peripheral;
+	private final UUID service;
+	private final UUID characteristic;
+	private final int maxByteSize;
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private long bytesWritten;
+
+	private final OutputStream out = new OutputStream() {
+		@Override
+		public void write(int b) {
+			pending.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			pending.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (pending.size() > 0) {
+				send(pending.toByteArray());
+				pending.reset();
+			}
+		}
+	};
+
+	private GattTransport(Peripheral peripheral, UUID service, UUID characteristic, int maxByteSize) {
+		this.peripheral = peripheral;
+		this.service = service;
+		this.characteristic = characteristic;
+		this.maxByteSize = maxByteSize;
+	}
+
+	public static GattTransport open(Peripheral peripheral, UUID service, UUID characteristic, int maxByteSize) throws IOException {
+		if (!peripheral.isConnected()) {
+			throw new IOException("Peripheral not connected: " + peripheral.getDevice().getAddress());
+		}
+		return new GattTransport(peripheral, service, characteristic, maxByteSize > 0 ? maxByteSize : DEFAULT_MAX_BYTE_SIZE);
+	}
+
+	private void send(byte[] data) throws IOException {
+		final CountDownLatch done = new CountDownLatch(1);
+		final Object[] error = new Object[1];
+		peripheral.write(service, characteristic, data, maxByteSize, 0, new Callback() {
+			@Override
+			public void invoke(Object... args) {
+				if (args.length > 0 && args[0] != null && error[0] == null) {
+					error[0] = args[0];
+				}
+				done.countDown();
+			}
+		}, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+		try {
+			if (!done.await(WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				throw new IOException("Timed out writing to " + getAddress());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing to " + getAddress());
+		}
+		if (error[0] != null) {
+			throw new IOException(error[0].toString());
+		}
+		bytesWritten += data.length;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return null;
+	}
+
+	@Override
+	public String getAddress() {
+		return peripheral.getDevice().getAddress();
+	}
+
+	@Override
+	public boolean isReused() {
+		return true;
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	@Override
+	public void release() {
+	}
+
+	@Override
+	public void invalidate() {
+	}
+}
@@ -0,0 +1,187 @@
+package com.bluetooth.printer;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 1-bit glyphs, drawn and thresholded once per font, size, style and character,
+ * then kept for every later line that uses them. Text is composed by copying
+ * glyph rows into packed band rows, so a long Chinese receipt costs one draw per
+ * distinct character instead of a canvas and a pixel readback for every line.
+ * Bounded by bytes, least recently used glyphs go first. Thread safe.
+ */
+final class GlyphAtlas {
+
+	public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+	public static final String DEFAULT_FONT = "default";
+	public static final int DEFAULT_SIZE = 24;
+	public static final int MAX_SIZE = 256;
+
+	// object headers, the map entry and its key, roughly
+	private static final int ENTRY_OVERHEAD = 64;
+
+	/** Draws the glyphs the atlas does not hold yet. Only called with the atlas locked. */
+	interface Renderer {
+
+		/** Height of every glyph of {@code font}, its ascent plus descent, in dots. */
+		int getLineHeight(Font font);
+
+		/** The glyph for {@code codePoint}, as wide as its advance and {@link #getLineHeight} rows high. */
+		Glyph render(Font font, int codePoint);
+	}
+
+	/** A font at one size and style, as handed out by {@link #font}. */
+	static final class Font {
+		final int id;
+		final String name;
+		final int size;
+		final boolean bold;
+		final boolean italic;
+		int lineHeight;
+
+		Font(int id, String name, int size, boolean bold, boolean italic) {
+			this.id = id;
+			this.name = name;
+			this.size = size;
+			this.bold = bold;
+			this.italic = italic;
+		}
+
+		public int getLineHeight() {
+			return lineHeight;
+		}
+	}
+
+	/**
+	 * A glyph as packed 1-bit rows, black = 1, aligned so all glyphs of a font
+	 * share a baseline. A blank glyph such as a space has no rows, only a width.
+	 */
+	static final class Glyph {
+		final int width;
+		final int height;
+		final int rowBytes;
+		final byte[] rows;
+
+		Glyph(int width, int height, byte[] rows) {
+			this.width = width;
+			this.height = height;
+			this.rowBytes = RasterEncoder.rowBytes(width);
+			this.rows = rows;
+		}
+
+		boolean isBlank() {
+			return rows.length == 0;
+		}
+
+		int size() {
+			return rows.length + ENTRY_OVERHEAD;
+		}
+
+		/**
+		 * ORs row {@code y} into the packed row at {@code dstOffset}, the glyph's
+		 * left edge at dot {@code x}. Dots at {@code limit} and beyond are left alone.
+		 */
+		void copyRow(int y, byte[] dst, int dstOffset, int x, int limit) {
+			int end = Math.min(x + width, limit);
+			if (end <= x || y < 0 || y >= height || isBlank()) {
+				return;
+			}
+			int src = y * rowBytes;
+			int first = dstOffset + (x >> 3);
+			int last = dstOffset + ((end - 1) >> 3);
+			int lastMask = (0xff << (7 - ((end - 1) & 7))) & 0xff;
+			int shift = x & 7;
+			for (int i = 0; i < rowBytes; i++) {
+				int d = first + i;
+				if (d > last) {
+					break;
+				}
+				int b = rows[src + i] & 0xff;
+				if (b == 0) {
+					continue;
+				}
+				dst[d] |= (byte) ((b >>> shift) & (d == last ? lastMask : 0xff));
+				if (shift != 0 && d < last) {
+					dst[d + 1] |= (byte) ((b << (8 - shift)) & (d + 1 == last ? lastMask : 0xff));
+				}
+			}
+		}
+	}
+
+	private final Renderer renderer;
+	private final int maxBytes;
+	private final Map<String, Font> fonts = new HashMap<>();
+	private final LinkedHashMap<Long, Glyph> glyphs = new LinkedHashMap<>(256, 0.75f, true);
+	private int bytes;
+	private long hits;
+	private long misses;
+
+	public GlyphAtlas(Renderer renderer, int maxBytes) {
+		this.renderer = renderer;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * The font {@code name} at {@code size} dots in the given style. {@code name}
+	 * is whatever the renderer understands: a family, a font file and so on.
+	 *
+	 * @throws IllegalArgumentException if the size is out of range or the renderer cannot load the font
+	 */
+	public synchronized Font font(String name, int size, boolean bold, boolean italic) {
+		if (size < 1 || size > MAX_SIZE) {
+			throw new IllegalArgumentException("Invalid font size: " + size);
+		}
+		String key = name + '/' + size + (bold ? "/bold" : "") + (italic ? "/italic" : "");
+		Font font = fonts.get(key);
+		if (font == null) {
+			font = new Font(fonts.size(), name, size, bold, italic);
+			font.lineHeight = renderer.getLineHeight(font);
+			fonts.put(key, font);
+		}
+		return font;
+	}
+
+	/** The glyph for {@code codePoint} in {@code font}, drawn now if it is not cached. */
+	public synchronized Glyph get(Font font, int codePoint) {
+		Long key = ((long) font.id << 32) | codePoint;
+		Glyph glyph = glyphs.get(key);
+		if (glyph != null) {
+			hits++;
+			return glyph;
+		}
+		misses++;
+		glyph = renderer.render(font, codePoint);
+		glyphs.put(key, glyph);
+		bytes += glyph.size();
+		Iterator<Glyph> eldest = glyphs.values().iterator();
+		while (bytes > maxBytes && glyphs.size() > 1) {
+			bytes -= eldest.next().size();
+			eldest.remove();
+		}
+		return glyph;
+	}
+
+	/** Drops the glyphs; fonts stay, they hold nothing large. */
+	public synchronized void clear() {
+		glyphs.clear();
+		bytes = 0;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized int getCount() {
+		return glyphs.size();
+	}
+
+	public synchronized int getBytes() {
+		return bytes;
+	}
+}
@@ -0,0 +1,20 @@
+package com.bluetooth.printer;
+
+/**
+ * Draws characters the printer's code page has no code for. Glyphs are
+ * {@link #HEIGHT} dots high, one ESC * 33 band, so they print inline with the
+ * text around them in font A.
+ */
+interface GlyphRasterizer {
+
+	int HEIGHT = RasterEncoder.BAND_HEIGHT;
+
+	/** Width of the glyph for {@code codePoint}, in dots. */
+	int getWidth(int codePoint);
+
+	/**
+	 * ORs the glyph for {@code codePoint} into {@link #HEIGHT} packed rows of
+	 * {@code rowBytes} bytes each, its left edge at dot {@code x}.
+	 */
+	void draw(int codePoint, byte[] rows, int rowBytes, int x);
+}
@@ -0,0 +1,149 @@
+package com.bluetooth.printer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Collects the commands of one print job and sends them in as few writes as
+ * possible. Every write and flush on an RFCOMM socket can go out as its own small
+ * frame, so commands are gathered into one buffer and sent in whole multiples of
+ * {@link #FRAME_SIZE} when it fills up, and the rest on {@link #finish()}. A job
+ * that fits the buffer is a single write.
+ *
+ * {@link #flush()} does nothing; the job is complete only after {@link #finish()}.
+ * The buffer is per thread and reused from job to job.
+ *
+ * Safe points marked between commands are passed on to a
+ * {@link PacedOutputStream}, which polls the printer's status only there.
+ */
+final class JobBuffer extends OutputStream implements SafePoints {
+
+	/** RFCOMM frame size Android usually negotiates with printers. */
+	public static final int FRAME_SIZE = 990;
+
+	public static final int DEFAULT_CAPACITY = FRAME_SIZE * 16;
+
+	/** Buffers grown past this for one large job are not kept for the next. */
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+	private static final ThreadLocal<JobBuffer> BUFFERS = new ThreadLocal<JobBuffer>() {
+		@Override
+		protected JobBuffer initialValue() {
+			return new JobBuffer();
+		}
+	};
+
+	private byte[] buffer = new byte[DEFAULT_CAPACITY];
+	private int count;
+	// bytes written since the job started, sent or not
+	private long position;
+	private OutputStream target;
+	private boolean flushEachWrite;
+	private int writeCalls;
+
+	private JobBuffer() {
+	}
+
+	/**
+	 * Starts a job on this thread's buffer. With {@code flushEachWrite} every write
+	 * is sent and flushed at once, as commands used to be, for comparison.
+	 */
+	public static JobBuffer open(OutputStream target, boolean flushEachWrite) {
+		JobBuffer job = BUFFERS.get();
+		job.target = target;
+		job.flushEachWrite = flushEachWrite;
+		job.count = 0;
+		job.position = 0;
+		job.writeCalls = 0;
+		return job;
+	}
+
+	/** Grows the buffer so {@code size} more bytes are sent in one write. */
+	public void ensureCapacity(int size) {
+		if (count + size > buffer.length) {
+			buffer = Arrays.copyOf(buffer, count + size);
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[]{(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		position += len;
+		if (flushEachWrite) {
+			send(b, off, len);
+			target.flush();
+			return;
+		}
+		while (len > 0) {
+			if (count == 0 && len >= buffer.length) {
+				// nothing to gather with, send whole frames straight from the caller
+				int direct = len - len % FRAME_SIZE;
+				send(b, off, direct);
+				off += direct;
+				len -= direct;
+				continue;
+			}
+			int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+			if (count == buffer.length) {
+				drain();
+			}
+		}
+	}
+
+	/** Sends the whole frames in the buffer and keeps the remainder. */
+	private void drain() throws IOException {
+		int frames = count - count % FRAME_SIZE;
+		int length = frames > 0 ? frames : count;
+		send(buffer, 0, length);
+		System.arraycopy(buffer, length, buffer, 0, count - length);
+		count -= length;
+	}
+
+	private void send(byte[] b, int off, int len) throws IOException {
+		target.write(b, off, len);
+		writeCalls++;
+	}
+
+	@Override
+	public void markSafePoint() {
+		if (target instanceof PacedOutputStream) {
+			((PacedOutputStream) target).markSafePoint(position);
+		}
+	}
+
+	/** Ignored, the job goes out on {@link #finish()}. */
+	@Override
+	public void flush() {
+	}
+
+	/** Sends what is left and flushes the connection. */
+	public void finish() throws IOException {
+		try {
+			if (count > 0) {
+				send(buffer, 0, count);
+				count = 0;
+			}
+			target.flush();
+		} finally {
+			target = null;
+			count = 0;
+			if (buffer.length > MAX_RETAINED_CAPACITY) {
+				buffer = new byte[DEFAULT_CAPACITY];
+			}
+		}
+	}
+
+	/** Writes made to the connection during this job. */
+	public int getWriteCalls() {
+		return writeCalls;
+	}
+}
@@ -0,0 +1,71 @@
+package com.bluetooth.printer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Keeps a job's bytes in memory instead of sending them anywhere, to see exactly
+ * what a job would send or to time the job pipeline without a printer. Answers
+ * given up front are what a status query reads back.
+ */
+final class MemoryTransport implements PrinterTransport {
+
+	public static final String SCHEME = "memory://";
+
+	private final String address;
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final InputStream in;
+
+	public MemoryTransport(String address) {
+		this(address, new byte[0]);
+	}
+
+	public MemoryTransport(String address, byte[] answers) {
+		this.address = address;
+		this.in = new ByteArrayInputStream(answers);
+	}
+
+	public static boolean isMemoryAddress(String address) {
+		return address != null && address.regionMatches(true, 0, SCHEME, 0, SCHEME.length());
+	}
+
+	/** Everything written so far. */
+	public byte[] toByteArray() {
+		return out.toByteArray();
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	@Override
+	public String getAddress() {
+		return address;
+	}
+
+	@Override
+	public boolean isReused() {
+		return false;
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return out.size();
+	}
+
+	@Override
+	public void release() {
+	}
+
+	@Override
+	public void invalidate() {
+	}
+}
@@ -0,0 +1,72 @@
+package com.bluetooth.printer;
+
+/**
+ * {@link RasterSource} that draws a grid of barcode modules, each
+ * {@code moduleWidth} by {@code moduleHeight} dots, with {@code quietZone} light
+ * modules around it. Rows are computed from the grid on every read, so the source
+ * holds no bitmap and bands can be read in parallel.
+ */
+final class ModuleRasterSource implements RasterSource {
+
+	private final boolean[][] modules;
+	private final int moduleWidth;
+	private final int moduleHeight;
+	private final int quietZone;
+	private final int width;
+	private final int height;
+
+	public ModuleRasterSource(boolean[][] modules, int moduleWidth, int moduleHeight, int quietZone) {
+		if (moduleWidth < 1 || moduleHeight < 1) {
+			throw new IllegalArgumentException("Invalid module size: " + moduleWidth + "x" + moduleHeight);
+		}
+		this.modules = modules;
+		this.moduleWidth = moduleWidth;
+		this.moduleHeight = moduleHeight;
+		this.quietZone = quietZone;
+		this.width = (modules[0].length + quietZone * 2) * moduleWidth;
+		this.height = (modules.length + quietZone * 2) * moduleHeight;
+	}
+
+	/** A one-dimensional code, its bars {@code height} dots high. */
+	public static ModuleRasterSource bars(boolean[] bars, int moduleWidth, int height) {
+		return new ModuleRasterSource(new boolean[][]{bars}, moduleWidth, height, 0);
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public void readRows(int y, int rowCount, byte[] dst, int dstOffset) {
+		int rowBytes = RasterEncoder.rowBytes(width);
+		for (int row = 0; row < rowCount; row++, dstOffset += rowBytes) {
+			for (int i = 0; i < rowBytes; i++) {
+				dst[dstOffset + i] = 0;
+			}
+			int my = (y + row) / moduleHeight - quietZone;
+			if (my < 0 || my >= modules.length) {
+				continue;
+			}
+			boolean[] line = modules[my];
+			for (int mx = 0; mx < line.length; mx++) {
+				if (line[mx]) {
+					int x = (mx + quietZone) * moduleWidth;
+					for (int end = x + moduleWidth; x < end; x++) {
+						dst[dstOffset + (x >> 3)] |= 0x80 >>> (x & 7);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public boolean isSequential() {
+		return false;
+	}
+}
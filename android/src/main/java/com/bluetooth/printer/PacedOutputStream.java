@@ -0,0 +1,227 @@
+package com.bluetooth.printer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * Sends a print job to the printer in chunks instead of one large write. Cheap
+ * printers have receive buffers of a few KB; a job written in one go overflows
+ * them or stalls the link for seconds while the printer catches up.
+ *
+ * Every chunk is written and flushed on its own and timed. A chunk that takes
+ * much longer than the rate measured so far means the printer's buffer is full:
+ * the chunk size is halved and a pause is added between chunks. Chunks that go
+ * through at the measured rate grow the chunk size again and shorten the pause.
+ *
+ * With status polling, a stall also asks the printer for its real-time status
+ * and waits while it is only busy, e.g. feeding paper. With a status interval the
+ * status is also checked every that many bytes. The query is only sent at a safe
+ * point marked between commands, never inside image data where its bytes could be
+ * mistaken for dots: a check that falls due ends the next chunk at the next safe
+ * point and is made there, before more of the job is sent. Either way a printer
+ * out of paper, with its cover open or in error fails the job with a
+ * {@link PrinterNotReadyException} instead of receiving the rest of it. A printer
+ * that does not answer is not polled again during the job.
+ */
+class PacedOutputStream extends OutputStream {
+
+	public static final int MIN_CHUNK_SIZE = 128;
+	public static final int MAX_CHUNK_SIZE = JobBuffer.FRAME_SIZE * 16;
+	public static final int DEFAULT_CHUNK_SIZE = JobBuffer.FRAME_SIZE * 2;
+
+	/** A chunk slower than this is never taken for a stall. */
+	private static final long STALL_MIN_MS = 150;
+	private static final long MAX_PAUSE_MS = 200;
+
+	private static final long STATUS_POLL_MS = 100;
+	private static final long MAX_BUSY_WAIT_MS = 30 * 1000;
+
+	private final OutputStream out;
+	private final InputStream in;
+	private boolean statusPolling;
+	private long statusInterval;
+	private long uncheckedBytes;
+	private boolean checkDue;
+	// offsets in this stream where a command ends, not yet passed
+	private final ArrayDeque<Long> safePoints = new ArrayDeque<>();
+	private int chunkSize;
+	private long pauseMs;
+	// bytes per millisecond, smoothed over the chunks sent so far
+	private double rate;
+
+	private long bytes;
+	private int chunks;
+	private int stalls;
+	private int statusPolls;
+	private long busyWaitMs;
+	private long pausedMs;
+	private final long startedAt = Clock.millis();
+
+	/**
+	 * @param in the connection's input, for status polling; may be null to never poll
+	 * @param chunkSize the chunk size to start with, e.g. the one the last job ended at
+	 */
+	public PacedOutputStream(OutputStream out, InputStream in, boolean statusPolling, int chunkSize) {
+		this.out = out;
+		this.in = in;
+		this.statusPolling = statusPolling && in != null;
+		this.chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[]{(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (checkDue && atSafePoint()) {
+				waitWhileBusy();
+			}
+			if (chunks > 0 && pauseMs > 0) {
+				Clock.sleep(pauseMs);
+				pausedMs += pauseMs;
+			}
+			int n = Math.min(len, chunkSize);
+			if (checkDue && !safePoints.isEmpty()) {
+				// stop at the next safe point so the status can be asked there
+				n = (int) Math.min(n, safePoints.peekFirst() - bytes);
+			}
+			long start = Clock.millis();
+			out.write(b, off, n);
+			out.flush();
+			long elapsed = Clock.millis() - start;
+			chunks++;
+			bytes += n;
+			uncheckedBytes += n;
+			off += n;
+			len -= n;
+			adapt(n, elapsed);
+			if (statusInterval > 0 && uncheckedBytes >= statusInterval) {
+				checkDue = true;
+			}
+		}
+	}
+
+	/**
+	 * Marks {@code offset}, counted in bytes written to this stream, as the end of
+	 * a command, where the printer's status may be asked. Offsets must not decrease.
+	 */
+	public void markSafePoint(long offset) {
+		if ((statusPolling || statusInterval > 0) && offset >= bytes
+				&& (safePoints.isEmpty() || safePoints.peekLast() < offset)) {
+			safePoints.add(offset);
+		}
+	}
+
+	private boolean atSafePoint() {
+		while (!safePoints.isEmpty() && safePoints.peekFirst() < bytes) {
+			safePoints.pollFirst();
+		}
+		return !safePoints.isEmpty() && safePoints.peekFirst() == bytes;
+	}
+
+	/**
+	 * Checks the printer's status every {@code bytes} bytes of the job, so a job
+	 * stops soon after the paper runs out; 0 to check on stalls only.
+	 */
+	public void setStatusInterval(long bytes) {
+		statusInterval = in != null ? bytes : 0;
+	}
+
+	private void adapt(int n, long elapsed) throws IOException {
+		// what the chunk should have taken at the rate seen so far
+		double expected = rate > 0 ? n / rate : 0;
+		if (rate > 0 && elapsed > STALL_MIN_MS && elapsed > 2 * expected) {
+			stalls++;
+			chunkSize = Math.max(MIN_CHUNK_SIZE, chunkSize / 2);
+			pauseMs = Math.min(MAX_PAUSE_MS, Math.max(10, pauseMs * 2));
+			if (statusPolling) {
+				checkDue = true;
+			}
+		} else {
+			chunkSize = Math.min(MAX_CHUNK_SIZE, chunkSize + JobBuffer.FRAME_SIZE);
+			pauseMs /= 2;
+		}
+		if (elapsed > 0) {
+			double chunkRate = (double) n / elapsed;
+			rate = rate == 0 ? chunkRate : rate * 0.75 + chunkRate * 0.25;
+		}
+	}
+
+	/**
+	 * Polls the printer's status until it can print again.
+	 *
+	 * @throws PrinterNotReadyException if it needs attention, or stays busy too long
+	 */
+	private void waitWhileBusy() throws IOException {
+		uncheckedBytes = 0;
+		checkDue = false;
+		long start = Clock.millis();
+		while (true) {
+			statusPolls++;
+			PrinterStatus status = PrinterStatus.query(out, in, PrinterStatus.DEFAULT_TIMEOUT_MS, false);
+			if (status == null) {
+				// the printer does not answer, polling off
+				statusPolling = false;
+				statusInterval = 0;
+				safePoints.clear();
+				return;
+			}
+			if (status.canPrint()) {
+				break;
+			}
+			if (!status.isBusy() || Clock.millis() - start > MAX_BUSY_WAIT_MS) {
+				throw new PrinterNotReadyException(status, true);
+			}
+			Clock.sleep(STATUS_POLL_MS);
+		}
+		busyWaitMs += Clock.millis() - start;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/** Chunk size reached, a good start for the next job to the same printer. */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public int getChunks() {
+		return chunks;
+	}
+
+	/** Chunks that took much longer than the measured rate. */
+	public int getStalls() {
+		return stalls;
+	}
+
+	public int getStatusPolls() {
+		return statusPolls;
+	}
+
+	/** Time spent waiting for a busy printer, in milliseconds. */
+	public long getBusyWaitMs() {
+		return busyWaitMs;
+	}
+
+	/** Time spent in pauses between chunks, in milliseconds. */
+	public long getPausedMs() {
+		return pausedMs;
+	}
+
+	/** Bytes sent per second since the stream was created, pauses and waits included. */
+	public double getBytesPerSecond() {
+		long elapsed = Clock.millis() - startedAt;
+		return elapsed == 0 ? 0 : bytes * 1000.0 / elapsed;
+	}
+}
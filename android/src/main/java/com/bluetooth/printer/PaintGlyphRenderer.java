@@ -0,0 +1,127 @@
+package com.bluetooth.printer;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link GlyphAtlas.Renderer} that draws with Android fonts, which cover far
+ * more than any printer. A font name is a family such as {@code sans-serif} or
+ * {@code monospace}, {@code asset:} and a path in the app's assets, or the
+ * absolute path of a font file. Each glyph is drawn once on a small reused
+ * bitmap and thresholded; the atlas keeps the result. Not thread safe, the
+ * atlas calls it with its lock held.
+ */
+final class PaintGlyphRenderer implements GlyphAtlas.Renderer {
+
+	private static final String ASSET_PREFIX = "asset:";
+	// slant of synthetic italics, as Android uses
+	private static final float ITALIC_SKEW = -0.25f;
+
+	private final AssetManager assets;
+	private final Map<String, Typeface> typefaces = new HashMap<>();
+	// by font id
+	private final Map<Integer, Paint> paints = new HashMap<>();
+	private final char[] chars = new char[2];
+	private Bitmap bitmap;
+	private Canvas canvas;
+	private int[] pixels;
+
+	public PaintGlyphRenderer(AssetManager assets) {
+		this.assets = assets;
+	}
+
+	@Override
+	public int getLineHeight(GlyphAtlas.Font font) {
+		Paint.FontMetricsInt metrics = paint(font).getFontMetricsInt();
+		return metrics.descent - metrics.ascent;
+	}
+
+	@Override
+	public GlyphAtlas.Glyph render(GlyphAtlas.Font font, int codePoint) {
+		Paint paint = paint(font);
+		int count = Character.toChars(codePoint, chars, 0);
+		int width = (int) Math.ceil(paint.measureText(chars, 0, count));
+		int height = font.getLineHeight();
+		if (width == 0 || Character.isWhitespace(codePoint)) {
+			return new GlyphAtlas.Glyph(width, height, new byte[0]);
+		}
+		if (bitmap == null || bitmap.getWidth() < width || bitmap.getHeight() < height) {
+			int bitmapWidth = Math.max(width, bitmap != null ? bitmap.getWidth() : 0);
+			int bitmapHeight = Math.max(height, bitmap != null ? bitmap.getHeight() : 0);
+			if (bitmap != null) {
+				bitmap.recycle();
+			}
+			bitmap = Bitmap.createBitmap(bitmapWidth, bitmapHeight, Bitmap.Config.ARGB_8888);
+			canvas = new Canvas(bitmap);
+			pixels = new int[bitmapWidth * bitmapHeight];
+		}
+		bitmap.eraseColor(Color.WHITE);
+		canvas.drawText(chars, 0, count, 0, -paint.getFontMetricsInt().ascent, paint);
+		bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+		int rowBytes = RasterEncoder.rowBytes(width);
+		byte[] rows = new byte[rowBytes * height];
+		boolean blank = true;
+		for (int y = 0, p = 0; y < height; y++) {
+			int row = y * rowBytes;
+			for (int i = 0; i < width; i++, p++) {
+				if (RasterEncoder.luminance(pixels[p]) < RasterEncoder.THRESHOLD) {
+					rows[row + (i >> 3)] |= 0x80 >>> (i & 7);
+					blank = false;
+				}
+			}
+		}
+		return new GlyphAtlas.Glyph(width, height, blank ? new byte[0] : rows);
+	}
+
+	private Paint paint(GlyphAtlas.Font font) {
+		Paint paint = paints.get(font.id);
+		if (paint == null) {
+			int style = (font.bold ? Typeface.BOLD : 0) | (font.italic ? Typeface.ITALIC : 0);
+			Typeface typeface = Typeface.create(typeface(font.name), style);
+			paint = new Paint();
+			paint.setAntiAlias(true);
+			paint.setColor(Color.BLACK);
+			paint.setTypeface(typeface);
+			paint.setTextSize(font.size);
+			// fonts without a bold or italic face get synthetic ones
+			paint.setFakeBoldText(font.bold && !typeface.isBold());
+			paint.setTextSkewX(font.italic && !typeface.isItalic() ? ITALIC_SKEW : 0);
+			paints.put(font.id, paint);
+		}
+		return paint;
+	}
+
+	private Typeface typeface(String name) {
+		Typeface typeface = typefaces.get(name);
+		if (typeface != null) {
+			return typeface;
+		}
+		if (name.startsWith(ASSET_PREFIX)) {
+			try {
+				typeface = Typeface.createFromAsset(assets, name.substring(ASSET_PREFIX.length()));
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("Font not found: " + name, e);
+			}
+		} else if (name.startsWith("/")) {
+			File file = new File(name);
+			if (!file.isFile()) {
+				throw new IllegalArgumentException("Font not found: " + name);
+			}
+			typeface = Typeface.createFromFile(file);
+		} else if (GlyphAtlas.DEFAULT_FONT.equals(name)) {
+			typeface = Typeface.DEFAULT;
+		} else {
+			typeface = Typeface.create(name, Typeface.NORMAL);
+		}
+		typefaces.put(name, typeface);
+		return typeface;
+	}
+}
@@ -0,0 +1,121 @@
+package com.bluetooth.printer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Encodes the bands of an image on a shared pool sized to the number of cores.
+ * Every band is independent, so groups of bands are encoded concurrently and
+ * written back in band order; the output is identical to {@link BandEncoder}.
+ *
+ * Sources that must be read in order (error diffusion) are encoded sequentially.
+ */
+final class ParallelBandEncoder {
+
+	public static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+	/** Bands encoded per task, so scheduling stays cheap next to the encoding itself. */
+	private static final int BANDS_PER_TASK = 4;
+
+	private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+		private int count;
+
+		@Override
+		public synchronized Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "BluetoothPrinterEncoder-" + (++count));
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private ParallelBandEncoder() {
+	}
+
+	/**
+	 * Encodes and writes the image with at most two tasks per thread in flight, so
+	 * memory stays bounded while the printer receives bands in order. A safe
+	 * point is marked after each group of bands if {@code out} takes them.
+	 *
+	 * @return number of bytes written
+	 */
+	public static long stream(BandEncoder encoder, OutputStream out) throws IOException {
+		if (encoder.getSource().isSequential()) {
+			return BandWriter.stream(encoder, out, BandWriter.DEFAULT_QUEUE_DEPTH);
+		}
+		int bands = encoder.bandCount();
+		int window = THREADS * 2;
+		ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+		long written = 0;
+		int next = 0;
+		try {
+			while (next < bands || !pending.isEmpty()) {
+				while (next < bands && pending.size() < window) {
+					pending.add(POOL.submit(new Group(encoder, next, Math.min(bands, next + BANDS_PER_TASK))));
+					next += BANDS_PER_TASK;
+				}
+				byte[] group = await(pending.poll());
+				out.write(group, 0, group.length);
+				if (out instanceof SafePoints) {
+					((SafePoints) out).markSafePoint();
+				}
+				written += group.length;
+			}
+		} finally {
+			for (Future<byte[]> future : pending) {
+				future.cancel(true);
+			}
+		}
+		out.flush();
+		return written;
+	}
+
+	private static final class Group implements Callable<byte[]> {
+		private final BandEncoder encoder;
+		private final int from;
+		private final int to;
+
+		Group(BandEncoder encoder, int from, int to) {
+			this.encoder = encoder;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public byte[] call() {
+			int size = 0;
+			for (int i = from; i < to; i++) {
+				size += encoder.bandSize(i);
+			}
+			byte[] data = new byte[size];
+			byte[] scratch = encoder.newScratch();
+			int k = 0;
+			for (int i = from; i < to; i++) {
+				k = encoder.encodeBand(i, data, k, scratch);
+			}
+			return k == size ? data : Arrays.copyOf(data, k);
+		}
+	}
+
+	private static <T> T await(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while encoding image");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Image encoding failed: " + cause);
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package com.bluetooth.printer;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Decodes a compressed image for printing without ever holding it at full source
+ * resolution.
+ *
+ * Only the bounds are read up front. The image is then decoded with the largest
+ * power-of-two {@code inSampleSize} that still covers the printed size. If the
+ * subsampled bitmap would still be large, as with very tall images, it is decoded
+ * in horizontal strips through {@link BitmapRegionDecoder}. Peak memory then
+ * depends on the strip size, not on the source resolution.
+ *
+ * Formats without transparency are decoded as {@code RGB_565}, half the memory of
+ * {@code ARGB_8888} and plenty for a one-bit print. Bitmaps are decoded into
+ * bitmaps taken from a {@link BitmapPool} where one of the right size exists, and
+ * go back to the pool on {@link #release()}.
+ */
+class PhotoDecoder {
+
+	private static final String LOG_TAG = BlueToothPrinterModule.LOG_TAG;
+
+	/** Subsampled images above this many pixels are decoded in strips. */
+	static final int MAX_FULL_DECODE_PIXELS = 2 * 1024 * 1024;
+
+	/** Pixels per strip when decoding by region. */
+	static final int STRIP_PIXELS = 256 * 1024;
+
+	/** Pixel budget of the thumbnail the Otsu histogram is computed from. */
+	static final int HISTOGRAM_PIXELS = 64 * 1024;
+
+	private final byte[] data;
+	private final BitmapPool pool;
+	private final int sourceWidth;
+	private final int sourceHeight;
+	private final Bitmap.Config config;
+
+	private Bitmap bitmap;
+	private BitmapRegionDecoder regionDecoder;
+	private StripSource strips;
+
+	public PhotoDecoder(byte[] data, BitmapPool pool) {
+		BitmapFactory.Options bounds = new BitmapFactory.Options();
+		bounds.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, bounds);
+		if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+			throw new IllegalArgumentException("Invalid image data");
+		}
+		this.data = data;
+		this.pool = pool;
+		this.sourceWidth = bounds.outWidth;
+		this.sourceHeight = bounds.outHeight;
+		this.config = "image/jpeg".equals(bounds.outMimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+	}
+
+	public int getSourceWidth() {
+		return sourceWidth;
+	}
+
+	public int getSourceHeight() {
+		return sourceHeight;
+	}
+
+	/**
+	 * Largest power of two that keeps the subsampled image at least
+	 * {@code width} x {@code height}, so scaling afterwards never enlarges what
+	 * subsampling shrank.
+	 */
+	static int sampleSize(int sourceWidth, int sourceHeight, int width, int height) {
+		int sample = 1;
+		while (sourceWidth / (sample * 2) >= width && sourceHeight / (sample * 2) >= height) {
+			sample *= 2;
+		}
+		return sample;
+	}
+
+	/**
+	 * Opens the image as a {@link RasterSource} of {@code width} x {@code height}.
+	 * Call {@link #release()} once the source has been encoded.
+	 */
+	public RasterSource open(int width, int height, Ditherer ditherer) {
+		int sample = sampleSize(sourceWidth, sourceHeight, width, height);
+		long sampledPixels = (long) (sourceWidth / sample) * (sourceHeight / sample);
+		if (sampledPixels > MAX_FULL_DECODE_PIXELS) {
+			try {
+				regionDecoder = BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+				strips = new StripSource(this, sample, width, height, ditherer);
+				return strips;
+			} catch (IOException e) {
+				// formats without region support fall back to a full, subsampled decode
+				Log.d(LOG_TAG, "Region decode not supported: " + e.getMessage());
+			}
+		}
+		bitmap = decode(sample);
+		return BitmapRasterSource.scaled(bitmap, width, height, ditherer);
+	}
+
+	/** Luminance histogram of a small subsampled copy, for {@link Ditherer#OTSU}. */
+	public int[] histogram() {
+		int sample = 1;
+		while ((long) (sourceWidth / sample) * (sourceHeight / sample) > HISTOGRAM_PIXELS) {
+			sample *= 2;
+		}
+		Bitmap thumbnail = decode(sample);
+		try {
+			return BitmapRasterSource.histogram(thumbnail);
+		} finally {
+			pool.put(thumbnail);
+		}
+	}
+
+	/** Whole image at {@code 1 / sample} resolution, into a pooled bitmap when possible. */
+	private Bitmap decode(int sample) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = sample;
+		options.inJustDecodeBounds = true;
+		// the decoder's own rounding of the sampled size, so the pool lookup is exact
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		options.inJustDecodeBounds = false;
+		options.inPreferredConfig = config;
+		options.inMutable = true;
+		options.inBitmap = pool.get(options.outWidth, options.outHeight, config);
+		Bitmap decoded;
+		try {
+			decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		} catch (IllegalArgumentException e) {
+			// the decoder refused to reuse the bitmap; decode into a new one
+			pool.put(options.inBitmap);
+			options.inBitmap = null;
+			decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+		}
+		if (decoded == null) {
+			throw new IllegalArgumentException("Invalid image data");
+		}
+		return decoded;
+	}
+
+	/** Region of the image at {@code 1 / sample} resolution, into a pooled bitmap when possible. */
+	private Bitmap decodeRegion(Rect region, int sample) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = sample;
+		options.inPreferredConfig = config;
+		options.inMutable = true;
+		int width = (region.width() + sample - 1) / sample;
+		int height = (region.height() + sample - 1) / sample;
+		options.inBitmap = pool.get(width, height, config);
+		Bitmap decoded;
+		try {
+			decoded = regionDecoder.decodeRegion(region, options);
+		} catch (IllegalArgumentException e) {
+			pool.put(options.inBitmap);
+			options.inBitmap = null;
+			decoded = regionDecoder.decodeRegion(region, options);
+		}
+		if (decoded == null) {
+			throw new IllegalStateException("Failed to decode image rows " + region.top + "-" + region.bottom);
+		}
+		return decoded;
+	}
+
+	/** Frees every decoder this instance created and returns its bitmaps to the pool. */
+	public void release() {
+		if (strips != null) {
+			strips.release();
+			strips = null;
+		}
+		if (regionDecoder != null) {
+			regionDecoder.recycle();
+			regionDecoder = null;
+		}
+		if (bitmap != null) {
+			pool.put(bitmap);
+			bitmap = null;
+		}
+	}
+
+	/**
+	 * Scaled source that decodes the subsampled image one strip at a time. Rows are
+	 * requested in order, so each strip is decoded once, and every full strip is
+	 * decoded into the bitmap of the one before it.
+	 */
+	private static final class StripSource extends ScaledRasterSource {
+		private final PhotoDecoder decoder;
+		private final int sample;
+		private final int sampledWidth;
+		private final int stripRows;
+		private final Rect region = new Rect();
+		private Bitmap strip;
+		private int stripTop;
+
+		StripSource(PhotoDecoder decoder, int sample, int width, int height, Ditherer ditherer) {
+			super(decoder.sourceWidth / sample, decoder.sourceHeight / sample, width, height, ditherer);
+			this.decoder = decoder;
+			this.sample = sample;
+			this.sampledWidth = decoder.sourceWidth / sample;
+			this.stripRows = Math.max(1, STRIP_PIXELS / sampledWidth);
+		}
+
+		@Override
+		public boolean isSequential() {
+			return true;
+		}
+
+		@Override
+		protected void readSourceRow(int y, int[] dst) {
+			if (strip == null || y < stripTop || y >= stripTop + strip.getHeight()) {
+				release();
+				stripTop = y;
+				region.set(0, y * sample, decoder.sourceWidth, Math.min(decoder.sourceHeight, (y + stripRows) * sample));
+				strip = decoder.decodeRegion(region, sample);
+			}
+			int count = Math.min(sampledWidth, strip.getWidth());
+			strip.getPixels(dst, 0, sampledWidth, 0, y - stripTop, count, 1);
+			for (int x = count; x < sampledWidth; x++) {
+				dst[x] = 0xffffffff;
+			}
+		}
+
+		void release() {
+			if (strip != null) {
+				decoder.pool.put(strip);
+				strip = null;
+			}
+		}
+	}
+}
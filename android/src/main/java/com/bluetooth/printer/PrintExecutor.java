@@ -0,0 +1,166 @@
+package com.bluetooth.printer;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs print jobs off the React Native module thread. Jobs for one printer run
+ * one after another in submission order, as a printer takes one job at a time;
+ * jobs for different printers run in parallel. A printer's queue holds a thread
+ * only while it has jobs, and is dropped once they are done.
+ *
+ * After {@link #shutdown()} new jobs are rejected; jobs already submitted still run.
+ */
+class PrintExecutor {
+
+	private static final String LOG_TAG = BlueToothPrinterModule.LOG_TAG;
+
+	private static final ExecutorService THREADS = Executors.newCachedThreadPool(new ThreadFactory() {
+		private int count;
+
+		@Override
+		public synchronized Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "BluetoothPrinterJob-" + (++count));
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final Map<String, PrinterQueue> queues = new LinkedHashMap<>();
+	private long submitted;
+	private long started;
+	private long completed;
+	private long totalWaitMs;
+	private long maxWaitMs;
+	private boolean shutdown;
+
+	private static final class Job {
+		final Runnable task;
+		final long queuedAt;
+
+		Job(Runnable task, long queuedAt) {
+			this.task = task;
+			this.queuedAt = queuedAt;
+		}
+	}
+
+	/** Pending jobs of one printer, drained by at most one thread at a time. */
+	private final class PrinterQueue implements Runnable {
+		final String key;
+		final ArrayDeque<Job> jobs = new ArrayDeque<>();
+		boolean running;
+		// a job of this queue is running right now
+		boolean busy;
+
+		PrinterQueue(String key) {
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Job job;
+				synchronized (PrintExecutor.this) {
+					job = jobs.poll();
+					if (job == null) {
+						running = false;
+						queues.remove(key);
+						return;
+					}
+					busy = true;
+					long wait = Clock.millis() - job.queuedAt;
+					started++;
+					totalWaitMs += wait;
+					maxWaitMs = Math.max(maxWaitMs, wait);
+				}
+				try {
+					job.task.run();
+				} catch (Throwable e) {
+					// a failed job must not stall the jobs queued behind it, not even an
+					// OutOfMemoryError from decoding a photo: the thread would end with
+					// the queue still marked running, and nothing would drain it again
+					Log.e(LOG_TAG, "Print job failed", e);
+				}
+				synchronized (PrintExecutor.this) {
+					busy = false;
+					completed++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues {@code task} behind the jobs already submitted for {@code address}.
+	 *
+	 * @return false if the executor was shut down and the task will not run
+	 */
+	public boolean submit(String address, Runnable task) {
+		// a missing address still runs, so the job reports the error through its callback
+		String key = address == null ? "" : address.toUpperCase(Locale.US);
+		PrinterQueue queue;
+		boolean start;
+		synchronized (this) {
+			if (shutdown) {
+				Log.d(LOG_TAG, "Print executor shut down, job for " + key + " rejected");
+				return false;
+			}
+			queue = queues.get(key);
+			if (queue == null) {
+				queue = new PrinterQueue(key);
+				queues.put(key, queue);
+			}
+			queue.jobs.add(new Job(task, Clock.millis()));
+			submitted++;
+			start = !queue.running;
+			queue.running = true;
+		}
+		if (start) {
+			THREADS.execute(queue);
+		}
+		return true;
+	}
+
+	/** Rejects jobs submitted from now on. Jobs queued or running are not interrupted. */
+	public synchronized void shutdown() {
+		shutdown = true;
+	}
+
+	public synchronized long getSubmitted() {
+		return submitted;
+	}
+
+	public synchronized long getCompleted() {
+		return completed;
+	}
+
+	/** Jobs queued or running, over all printers. */
+	public synchronized long getPending() {
+		return submitted - completed;
+	}
+
+	/** Jobs queued or running for every printer that has any, the running one included. */
+	public synchronized Map<String, Integer> getQueueDepths() {
+		Map<String, Integer> depths = new LinkedHashMap<>();
+		for (Map.Entry<String, PrinterQueue> entry : queues.entrySet()) {
+			PrinterQueue queue = entry.getValue();
+			depths.put(entry.getKey(), queue.jobs.size() + (queue.busy ? 1 : 0));
+		}
+		return depths;
+	}
+
+	/** Time from submission to start, averaged over started jobs, in milliseconds. */
+	public synchronized double getAverageWaitMs() {
+		return started == 0 ? 0 : (double) totalWaitMs / started;
+	}
+
+	public synchronized long getMaxWaitMs() {
+		return maxWaitMs;
+	}
+}
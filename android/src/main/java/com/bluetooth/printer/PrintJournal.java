@@ -0,0 +1,348 @@
+package com.bluetooth.printer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of spooled print jobs. Adding a job appends its encoded bytes;
+ * finishing one appends a short done record. Replaying the file after a restart
+ * gives back every job that was added but never finished.
+ *
+ * Records are written sequentially through one {@link FileChannel} and carry a
+ * CRC, so a record torn by a crash is detected and cut off. {@link #add} returns
+ * only once the record is on disk; concurrent adds share one {@code force} (group
+ * commit). Done records are not forced on their own and reach the disk with the
+ * next add or compaction, so a crash can at worst print a finished job again,
+ * never lose an unfinished one. Once every job is done the file is truncated, and
+ * a file that grew large is rewritten with only the pending jobs.
+ *
+ * The file is locked while open, so a second journal on it, left over from a
+ * reloaded app or in another process, fails to open instead of sending the same
+ * jobs twice.
+ */
+class PrintJournal {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int MAGIC = 0x504A4E31; // "PJN1"
+	private static final int HEADER_SIZE = 4;
+
+	private static final byte TYPE_ADD = 1;
+	private static final byte TYPE_DONE = 2;
+
+	/** Files larger than this are rewritten when less than half of them is pending. */
+	private static final long COMPACT_BYTES = 4 * 1024 * 1024;
+
+	/** A spooled job. */
+	static final class Entry {
+		final long id;
+		final int priority;
+		final long createdAt;
+		final String address;
+		// null for addresses without a service, such as tcp://
+		final String service;
+		final byte[] data;
+
+		Entry(long id, int priority, long createdAt, String address, String service, byte[] data) {
+			this.id = id;
+			this.priority = priority;
+			this.createdAt = createdAt;
+			this.address = address;
+			this.service = service;
+			this.data = data;
+		}
+	}
+
+	private final File file;
+	private final Object syncLock = new Object();
+	private final Map<Long, Entry> pending = new LinkedHashMap<>();
+	private FileChannel channel;
+	private long nextId = 1;
+	private long pendingBytes;
+	// end of the appended records, and how much of that is known to be on disk
+	private long written;
+	private long synced;
+
+	public PrintJournal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Opens the file, creating it if needed, and returns the jobs that were never
+	 * finished, oldest first. A damaged tail is cut off.
+	 */
+	public synchronized List<Entry> open() throws IOException {
+		channel = openLocked(file);
+		long size = channel.size();
+		long valid = HEADER_SIZE;
+		if (size < HEADER_SIZE || readHeader() != MAGIC) {
+			channel.truncate(0);
+			writeFully(channel, (ByteBuffer) ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).flip(), 0);
+		} else {
+			ByteBuffer buffer = ByteBuffer.allocate((int) (size - HEADER_SIZE));
+			readFully(buffer, HEADER_SIZE);
+			buffer.flip();
+			valid += replay(buffer);
+		}
+		if (valid < channel.size()) {
+			channel.truncate(valid);
+		}
+		channel.force(false);
+		channel.position(valid);
+		written = synced = valid;
+		return new ArrayList<>(pending.values());
+	}
+
+	private int readHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(header, 0);
+		header.flip();
+		return header.getInt();
+	}
+
+	/** Applies every intact record and returns the length they cover. */
+	private long replay(ByteBuffer buffer) {
+		CRC32 crc = new CRC32();
+		while (buffer.remaining() >= 8) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining()) {
+				return start;
+			}
+			crc.reset();
+			crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+			if ((int) crc.getValue() != checksum) {
+				return start;
+			}
+			ByteBuffer record = buffer.slice();
+			record.limit(length);
+			buffer.position(buffer.position() + length);
+			byte type = record.get();
+			long id = record.getLong();
+			nextId = Math.max(nextId, id + 1);
+			if (type == TYPE_ADD) {
+				int priority = record.getInt();
+				long createdAt = record.getLong();
+				String address = getString(record);
+				String service = getString(record);
+				if (service.isEmpty()) {
+					service = null;
+				}
+				byte[] data = new byte[record.getInt()];
+				record.get(data);
+				putPending(new Entry(id, priority, createdAt, address, service, data));
+			} else if (type == TYPE_DONE) {
+				removePending(id);
+			}
+		}
+		return buffer.position();
+	}
+
+	/** Appends a job and returns once it is on disk. */
+	public Entry add(int priority, String address, String service, byte[] data) throws IOException {
+		long end;
+		Entry entry;
+		synchronized (this) {
+			entry = new Entry(nextId++, priority, System.currentTimeMillis(), address, service, data);
+			append(encodeAdd(entry));
+			putPending(entry);
+			end = written;
+		}
+		sync(end);
+		return entry;
+	}
+
+	/** Records that a job no longer needs printing. */
+	public void done(long id) throws IOException {
+		boolean compact;
+		synchronized (this) {
+			if (removePending(id) == null) {
+				return;
+			}
+			ByteBuffer record = ByteBuffer.allocate(9);
+			record.put(TYPE_DONE).putLong(id).flip();
+			append(frame(record));
+			compact = pending.isEmpty() || (written > COMPACT_BYTES && pendingBytes < written / 2);
+		}
+		if (compact) {
+			compact();
+		}
+	}
+
+	/** Number of jobs added and not yet done. */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/** Current size of the file in bytes. */
+	public synchronized long getSize() {
+		return written;
+	}
+
+	public void close() throws IOException {
+		synchronized (syncLock) {
+			synchronized (this) {
+				if (channel != null) {
+					channel.force(false);
+					channel.close();
+					channel = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forces the file to disk unless a force since {@code end} was written already
+	 * covered it. Callers arriving during a force wait and usually find their
+	 * record covered by it.
+	 */
+	private void sync(long end) throws IOException {
+		synchronized (syncLock) {
+			if (synced >= end) {
+				return;
+			}
+			long target;
+			synchronized (this) {
+				target = written;
+			}
+			channel.force(false);
+			synced = target;
+		}
+	}
+
+	/** Truncates the file when nothing is pending, otherwise rewrites the pending jobs. */
+	private void compact() throws IOException {
+		synchronized (syncLock) {
+			synchronized (this) {
+				if (pending.isEmpty()) {
+					channel.truncate(HEADER_SIZE);
+					channel.position(HEADER_SIZE);
+					channel.force(false);
+					written = synced = HEADER_SIZE;
+					return;
+				}
+				if (written <= COMPACT_BYTES || pendingBytes >= written / 2) {
+					return;
+				}
+				File tmp = new File(file.getPath() + ".tmp");
+				FileChannel out = new RandomAccessFile(tmp, "rw").getChannel();
+				try {
+					out.truncate(0);
+					long position = writeFully(out, (ByteBuffer) ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).flip(), 0);
+					for (Entry entry : pending.values()) {
+						position = writeFully(out, encodeAdd(entry), position);
+					}
+					out.force(true);
+				} finally {
+					out.close();
+				}
+				// the old file stays open and locked until it is replaced, so a failed
+				// rename leaves the journal as it was
+				if (!tmp.renameTo(file)) {
+					tmp.delete();
+					throw new IOException("Failed to replace print journal " + file);
+				}
+				channel.close();
+				channel = openLocked(file);
+				written = synced = channel.size();
+				channel.position(written);
+			}
+		}
+	}
+
+	/** Opens {@code file} and takes its lock, which closing the channel releases. */
+	private static FileChannel openLocked(File file) throws IOException {
+		FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+		boolean locked = false;
+		try {
+			locked = channel.tryLock() != null;
+		} catch (OverlappingFileLockException ignored) {
+			// held by another channel in this process
+		} finally {
+			if (!locked) {
+				channel.close();
+			}
+		}
+		if (!locked) {
+			throw new IOException("Print journal is in use: " + file);
+		}
+		return channel;
+	}
+
+	private void append(ByteBuffer record) throws IOException {
+		if (channel == null) {
+			throw new IOException("Print journal is not open");
+		}
+		written = writeFully(channel, record, written);
+	}
+
+	private void putPending(Entry entry) {
+		pending.put(entry.id, entry);
+		pendingBytes += entry.data.length;
+	}
+
+	private Entry removePending(long id) {
+		Entry entry = pending.remove(id);
+		if (entry != null) {
+			pendingBytes -= entry.data.length;
+		}
+		return entry;
+	}
+
+	private static ByteBuffer encodeAdd(Entry entry) {
+		byte[] address = entry.address.getBytes(UTF_8);
+		// TCP and memory addresses have no service, stored as an empty string
+		byte[] service = entry.service != null ? entry.service.getBytes(UTF_8) : new byte[0];
+		ByteBuffer record = ByteBuffer.allocate(1 + 8 + 4 + 8 + 2 + address.length + 2 + service.length + 4 + entry.data.length);
+		record.put(TYPE_ADD).putLong(entry.id).putInt(entry.priority).putLong(entry.createdAt);
+		record.putShort((short) address.length).put(address);
+		record.putShort((short) service.length).put(service);
+		record.putInt(entry.data.length).put(entry.data);
+		record.flip();
+		return frame(record);
+	}
+
+	/** Prefixes a record with its length and CRC. */
+	private static ByteBuffer frame(ByteBuffer record) {
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), record.arrayOffset(), record.remaining());
+		ByteBuffer framed = ByteBuffer.allocate(8 + record.remaining());
+		framed.putInt(record.remaining()).putInt((int) crc.getValue()).put(record);
+		framed.flip();
+		return framed;
+	}
+
+	private static String getString(ByteBuffer record) {
+		byte[] bytes = new byte[record.getShort() & 0xffff];
+		record.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		return position;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of print journal");
+			}
+			position += read;
+		}
+	}
+}
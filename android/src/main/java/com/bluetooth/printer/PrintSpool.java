@@ -0,0 +1,334 @@
+package com.bluetooth.printer;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crash-safe queue of encoded print jobs in front of the {@link PrintExecutor}.
+ *
+ * A job is written to the {@link PrintJournal} before it is sent and marked done
+ * once the printer took it, so jobs cut short by the app being killed or the
+ * printer dropping are sent again: after a failure with growing back-off, and
+ * after a restart from the journal. Each printer is sent one job at a time, the
+ * highest priority first and, within a priority, the oldest first, so a kitchen
+ * order queued behind a reprint goes out before it.
+ *
+ * Only I/O failures are retried. Anything else, such as an address that cannot
+ * be parsed, would fail the same way forever, so the job is dropped.
+ */
+class PrintSpool {
+
+	private static final String LOG_TAG = BlueToothPrinterModule.LOG_TAG;
+
+	private static final long INITIAL_RETRY_MS = 5 * 1000;
+	private static final long MAX_RETRY_MS = 5 * 60 * 1000;
+
+	private static final ScheduledExecutorService RETRIES = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "BluetoothPrinterSpool");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** Sends a job's bytes to its printer. */
+	interface Sender {
+		void send(PrintJournal.Entry job) throws IOException;
+	}
+
+	/** Outcome of a delivery attempt; {@code error} is null once the job is printed. */
+	interface Completion {
+		void done(PrintJournal.Entry job, Exception error);
+	}
+
+	private static final Comparator<Pending> ORDER = new Comparator<Pending>() {
+		@Override
+		public int compare(Pending a, Pending b) {
+			if (a.job.priority != b.job.priority) {
+				return a.job.priority > b.job.priority ? -1 : 1;
+			}
+			return a.job.id < b.job.id ? -1 : (a.job.id == b.job.id ? 0 : 1);
+		}
+	};
+
+	private static final class Pending {
+		final PrintJournal.Entry job;
+		// told about the first attempt only, later attempts go to the spool's listener
+		Completion completion;
+
+		Pending(PrintJournal.Entry job, Completion completion) {
+			this.job = job;
+			this.completion = completion;
+		}
+	}
+
+	private static final class Printer {
+		final PriorityQueue<Pending> queue = new PriorityQueue<>(11, ORDER);
+		Pending inFlight;
+		boolean waitingRetry;
+		ScheduledFuture<?> retry;
+		long retryMs = INITIAL_RETRY_MS;
+	}
+
+	private final PrintJournal journal;
+	private final PrintExecutor executor;
+	private final Sender sender;
+	private final Completion listener;
+	private final Map<String, Printer> printers = new HashMap<>();
+	private final CountDownLatch opened = new CountDownLatch(1);
+	private volatile IOException openFailure;
+	private boolean closed;
+
+	public PrintSpool(PrintJournal journal, PrintExecutor executor, Sender sender, Completion listener) {
+		this.journal = journal;
+		this.executor = executor;
+		this.sender = sender;
+		this.listener = listener;
+	}
+
+	/** Opens the journal in the background and sends whatever it still holds. */
+	public void start() {
+		RETRIES.execute(new Runnable() {
+			@Override
+			public void run() {
+				List<PrintJournal.Entry> jobs;
+				try {
+					jobs = journal.open();
+				} catch (IOException e) {
+					Log.e(LOG_TAG, "Failed to open print spool", e);
+					openFailure = e;
+					return;
+				} finally {
+					opened.countDown();
+				}
+				if (!jobs.isEmpty()) {
+					Log.d(LOG_TAG, "Replaying " + jobs.size() + " spooled print jobs");
+				}
+				for (PrintJournal.Entry job : jobs) {
+					enqueue(new Pending(job, null));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Journals a job and queues it for its printer. Returns once the job is on
+	 * disk; {@code completion} hears about the first attempt to print it.
+	 */
+	public PrintJournal.Entry add(int priority, String address, String service, byte[] data, Completion completion) throws IOException {
+		awaitOpen();
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("Print spool is closed");
+			}
+		}
+		PrintJournal.Entry job = journal.add(priority, address.toUpperCase(Locale.US), service, data);
+		enqueue(new Pending(job, completion));
+		return job;
+	}
+
+	/** Drops a job that has not been sent yet. */
+	public boolean cancel(long id) throws IOException {
+		awaitOpen();
+		synchronized (this) {
+			boolean found = false;
+			for (Printer printer : printers.values()) {
+				for (Pending pending : printer.queue) {
+					if (pending.job.id == id) {
+						printer.queue.remove(pending);
+						found = true;
+						break;
+					}
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		}
+		journal.done(id);
+		return true;
+	}
+
+	/**
+	 * Stops sending and retrying and closes the journal. Jobs not printed yet stay
+	 * in it for the next spool. A job being sent finishes, but is not marked done
+	 * if that happens after the journal closed, so it may print again.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			for (Printer printer : printers.values()) {
+				if (printer.retry != null) {
+					printer.retry.cancel(false);
+					printer.retry = null;
+				}
+			}
+		}
+		// queued behind start(), so the journal is not opened after it was closed, and
+		// ahead of the next spool's start(), which needs the file lock released
+		RETRIES.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					journal.close();
+				} catch (IOException e) {
+					Log.e(LOG_TAG, "Failed to close print spool", e);
+				}
+			}
+		});
+	}
+
+	/** True if a job that failed with {@code error} stays spooled and is sent again. */
+	public static boolean willRetry(Exception error) {
+		return error instanceof IOException;
+	}
+
+	/** Jobs waiting or being sent, in the order they will go out per printer. */
+	public synchronized List<PrintJournal.Entry> getJobs() {
+		List<PrintJournal.Entry> jobs = new ArrayList<>();
+		for (Printer printer : printers.values()) {
+			if (printer.inFlight != null) {
+				jobs.add(printer.inFlight.job);
+			}
+			List<Pending> queued = new ArrayList<>(printer.queue);
+			Collections.sort(queued, ORDER);
+			for (Pending pending : queued) {
+				jobs.add(pending.job);
+			}
+		}
+		return jobs;
+	}
+
+	public int getPendingCount() {
+		return journal.getPendingCount();
+	}
+
+	public long getJournalSize() {
+		return journal.getSize();
+	}
+
+	private void awaitOpen() throws IOException {
+		try {
+			opened.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while opening print spool");
+		}
+		if (openFailure != null) {
+			throw new IOException("Print spool unavailable: " + openFailure.getMessage());
+		}
+	}
+
+	private void enqueue(Pending pending) {
+		String address = pending.job.address;
+		synchronized (this) {
+			Printer printer = printers.get(address);
+			if (printer == null) {
+				printer = new Printer();
+				printers.put(address, printer);
+			}
+			printer.queue.add(pending);
+		}
+		dispatch(address);
+	}
+
+	/** Hands the printer's next job to the executor unless one is already out. */
+	private void dispatch(final String address) {
+		final Pending next;
+		synchronized (this) {
+			Printer printer = printers.get(address);
+			if (closed || printer == null || printer.inFlight != null || printer.waitingRetry || printer.queue.isEmpty()) {
+				return;
+			}
+			next = printer.queue.poll();
+			printer.inFlight = next;
+		}
+		executor.submit(address, new Runnable() {
+			@Override
+			public void run() {
+				deliver(address, next);
+			}
+		});
+	}
+
+	private void deliver(final String address, Pending pending) {
+		Exception failure = null;
+		try {
+			sender.send(pending.job);
+		} catch (Exception e) {
+			failure = e;
+		}
+		boolean retry = failure != null && willRetry(failure);
+		if (!retry) {
+			try {
+				journal.done(pending.job.id);
+			} catch (IOException e) {
+				// at worst the job is tried again after a restart
+				Log.e(LOG_TAG, "Failed to mark print job " + pending.job.id + " done", e);
+			}
+		}
+		Completion completion = pending.completion != null ? pending.completion : listener;
+		pending.completion = null;
+		long retryMs = 0;
+		synchronized (this) {
+			Printer printer = printers.get(address);
+			printer.inFlight = null;
+			if (retry) {
+				printer.queue.add(pending);
+				printer.waitingRetry = true;
+				retryMs = printer.retryMs;
+				printer.retryMs = Math.min(MAX_RETRY_MS, printer.retryMs * 2);
+			} else if (failure == null) {
+				printer.retryMs = INITIAL_RETRY_MS;
+			}
+		}
+		try {
+			completion.done(pending.job, failure);
+		} catch (RuntimeException e) {
+			Log.e(LOG_TAG, "Print job completion failed", e);
+		}
+		if (!retry) {
+			if (failure != null) {
+				Log.e(LOG_TAG, "Print job " + pending.job.id + " failed and was dropped", failure);
+			}
+			dispatch(address);
+			return;
+		}
+		Log.d(LOG_TAG, "Print job " + pending.job.id + " failed, retrying in " + retryMs + " ms: " + failure);
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			printers.get(address).retry = RETRIES.schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (PrintSpool.this) {
+						Printer printer = printers.get(address);
+						printer.waitingRetry = false;
+						printer.retry = null;
+					}
+					dispatch(address);
+				}
+			}, retryMs, TimeUnit.MILLISECONDS);
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.bluetooth.printer;
+
+import java.io.IOException;
+
+/** Thrown when a printer reports that it cannot print, before a job is sent or while it is. */
+class PrinterNotReadyException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final PrinterStatus status;
+	private final boolean jobStarted;
+
+	public PrinterNotReadyException(PrinterStatus status, boolean jobStarted) {
+		super("Printer not ready: " + status + (jobStarted ? ", job cut short" : ""));
+		this.status = status;
+		this.jobStarted = jobStarted;
+	}
+
+	public PrinterStatus getStatus() {
+		return status;
+	}
+
+	/** Whether part of the job was sent already, and the printer may hold an unfinished command. */
+	public boolean isJobStarted() {
+		return jobStarted;
+	}
+}
@@ -0,0 +1,172 @@
+package com.bluetooth.printer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A printer's real-time status, read with DLE EOT 1 to 4. The four queries go out
+ * in one write and the printer answers each with one byte, so a query costs one
+ * round trip. DLE EOT is handled on receipt, even while the printer is busy or
+ * its buffer is full, so it can also be asked in the middle of a job.
+ *
+ * A printer that does not support DLE EOT can be asked for its paper sensors with
+ * GS r 1 instead. That is an ordinary command, answered only after the data
+ * before it was printed, so it is only used before a job.
+ */
+final class PrinterStatus {
+
+	public static final String SOURCE_DLE_EOT = "DLE_EOT";
+	public static final String SOURCE_GS_R = "GS_R";
+
+	public static final String PROBLEM_COVER_OPEN = "COVER_OPEN";
+	public static final String PROBLEM_PAPER_END = "PAPER_END";
+	public static final String PROBLEM_CUTTER_ERROR = "CUTTER_ERROR";
+	public static final String PROBLEM_MECHANICAL_ERROR = "MECHANICAL_ERROR";
+	public static final String PROBLEM_UNRECOVERABLE_ERROR = "UNRECOVERABLE_ERROR";
+	public static final String PROBLEM_AUTO_RECOVERABLE_ERROR = "AUTO_RECOVERABLE_ERROR";
+	public static final String PROBLEM_OFFLINE = "OFFLINE";
+
+	public static final long DEFAULT_TIMEOUT_MS = 300;
+
+	private static final byte[] DLE_EOT_ALL = {
+			0x10, 0x04, 0x01,   // printer status
+			0x10, 0x04, 0x02,   // offline cause
+			0x10, 0x04, 0x03,   // error cause
+			0x10, 0x04, 0x04};  // paper roll sensor
+	private static final byte[] GS_R_PAPER = {0x1d, 0x72, 0x01};
+
+	public final String source;
+	public final boolean online;
+	public final boolean coverOpen;
+	public final boolean feeding;
+	public final boolean paperEnd;
+	public final boolean paperNearEnd;
+	public final boolean cutterError;
+	public final boolean mechanicalError;
+	public final boolean unrecoverableError;
+	public final boolean autoRecoverableError;
+
+	private PrinterStatus(String source, int status, int offline, int error, int paper) {
+		this.source = source;
+		this.online = (status & 0x08) == 0;
+		this.coverOpen = (offline & 0x04) != 0;
+		this.feeding = (offline & 0x08) != 0;
+		this.paperEnd = (offline & 0x20) != 0 || (paper & 0x60) != 0;
+		this.paperNearEnd = (paper & 0x0c) != 0;
+		this.mechanicalError = (error & 0x04) != 0;
+		this.cutterError = (error & 0x08) != 0;
+		this.unrecoverableError = (error & 0x20) != 0;
+		this.autoRecoverableError = (error & 0x40) != 0;
+	}
+
+	/** What keeps the printer from printing, one of the {@code PROBLEM_} constants, or null. */
+	public String getProblem() {
+		if (coverOpen) {
+			return PROBLEM_COVER_OPEN;
+		}
+		if (paperEnd) {
+			return PROBLEM_PAPER_END;
+		}
+		if (cutterError) {
+			return PROBLEM_CUTTER_ERROR;
+		}
+		if (mechanicalError) {
+			return PROBLEM_MECHANICAL_ERROR;
+		}
+		if (unrecoverableError) {
+			return PROBLEM_UNRECOVERABLE_ERROR;
+		}
+		if (autoRecoverableError) {
+			return PROBLEM_AUTO_RECOVERABLE_ERROR;
+		}
+		return online ? null : PROBLEM_OFFLINE;
+	}
+
+	public boolean canPrint() {
+		return getProblem() == null;
+	}
+
+	/** Offline only for a moment, e.g. while paper is fed, and worth waiting for. */
+	public boolean isBusy() {
+		return PROBLEM_OFFLINE.equals(getProblem());
+	}
+
+	@Override
+	public String toString() {
+		String problem = getProblem();
+		return problem != null ? problem : (paperNearEnd ? "READY, PAPER_NEAR_END" : "READY");
+	}
+
+	/**
+	 * Asks for the real-time status. Returns null if the printer did not answer
+	 * within {@code timeoutMs}; with {@code paperFallback} it is then asked for its
+	 * paper sensors with GS r 1.
+	 */
+	public static PrinterStatus query(OutputStream out, InputStream in, long timeoutMs, boolean paperFallback) throws IOException {
+		byte[] answers = new byte[4];
+		skipPending(in);
+		out.write(DLE_EOT_ALL);
+		out.flush();
+		int count = read(in, answers, timeoutMs);
+		if (count > 0) {
+			for (int i = 0; i < count; i++) {
+				// bits 1 and 4 are always set and bits 0 and 7 clear in a status byte
+				if ((answers[i] & 0x93) != 0x12) {
+					return null;
+				}
+			}
+			// a printer that answered the first queries only is taken as fine for the rest
+			return new PrinterStatus(SOURCE_DLE_EOT, answers[0],
+					count > 1 ? answers[1] : 0, count > 2 ? answers[2] : 0, count > 3 ? answers[3] : 0);
+		}
+		if (!paperFallback) {
+			return null;
+		}
+		out.write(GS_R_PAPER);
+		out.flush();
+		if (read(in, answers, 1, timeoutMs) == 0 || (answers[0] & 0x90) != 0) {
+			return null;
+		}
+		// GS r 1 has near end in bits 0-1 and paper end in bits 2-3, DLE EOT 4 in 2-3 and 5-6
+		int paper = (answers[0] & 0x03) << 2 | (answers[0] & 0x0c) << 3;
+		return new PrinterStatus(SOURCE_GS_R, 0, 0, 0, paper);
+	}
+
+	/** Drops anything the printer sent unasked, so the next bytes are the answers. */
+	private static void skipPending(InputStream in) throws IOException {
+		int available;
+		while ((available = in.available()) > 0) {
+			in.skip(available);
+		}
+	}
+
+	private static int read(InputStream in, byte[] answers, long timeoutMs) throws IOException {
+		return read(in, answers, answers.length, timeoutMs);
+	}
+
+	/**
+	 * Reads up to {@code length} bytes, waiting at most {@code timeoutMs} for the
+	 * first and a short while for each further one. Socket streams have no read
+	 * timeout, so this polls {@code available()}.
+	 */
+	private static int read(InputStream in, byte[] answers, int length, long timeoutMs) throws IOException {
+		long deadline = Clock.millis() + timeoutMs;
+		int count = 0;
+		while (count < length) {
+			if (in.available() > 0) {
+				int b = in.read();
+				if (b < 0) {
+					break;
+				}
+				answers[count++] = (byte) b;
+				deadline = Math.max(deadline, Clock.millis() + timeoutMs / 3);
+			} else if (Clock.millis() > deadline) {
+				break;
+			} else {
+				Clock.sleep(5);
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,38 @@
+package com.bluetooth.printer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A connection a print job is written through: an RFCOMM socket, a BLE GATT
+ * characteristic, a TCP socket to a network printer's raw port, or memory. The
+ * job pipeline only sees this interface, so every printer gets the same encoding,
+ * pacing and status checks.
+ *
+ * A transport is held for one job and then handed back with {@link #release()},
+ * or with {@link #invalidate()} after a failure; it is not used after either.
+ */
+interface PrinterTransport {
+
+	/** Where the job's bytes go. Closing it does not end the lease. */
+	OutputStream getOutputStream();
+
+	/** What the printer sends back, e.g. status answers, or null if it cannot. */
+	InputStream getInputStream() throws IOException;
+
+	/** The printer's address, as jobs are queued by. */
+	String getAddress();
+
+	/** Whether the connection was already open from an earlier job. */
+	boolean isReused();
+
+	/** Bytes written during this lease. */
+	long getBytesWritten();
+
+	/** Hands the connection back after a job that went through. */
+	void release();
+
+	/** Closes the connection after a failure, so the next job connects afresh. */
+	void invalidate();
+}
@@ -0,0 +1,519 @@
+package com.bluetooth.printer;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * QR codes for receipts. {@link #command(String, int, int)} has the printer
+ * draw the code itself with GS ( k, a few dozen bytes instead of an image.
+ * {@link #encode(String, int)} builds the module grid here, byte mode, version 1
+ * to 40, for printers without GS ( k, whose codes are then sent as an image.
+ */
+final class QrCode {
+
+	public static final int EC_L = 0;
+	public static final int EC_M = 1;
+	public static final int EC_Q = 2;
+	public static final int EC_H = 3;
+
+	/** Module size the printer uses when none is given, in dots. */
+	public static final int DEFAULT_MODULE_SIZE = 6;
+	public static final int MAX_MODULE_SIZE = 16;
+
+	/** Light modules around the code that readers need to find it. */
+	public static final int QUIET_ZONE = 4;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// GS ( k function codes, symbol type 49 is QR
+	private static final int FN_MODEL = 65;
+	private static final int FN_MODULE_SIZE = 67;
+	private static final int FN_ERROR_CORRECTION = 69;
+	private static final int FN_STORE = 80;
+	private static final int FN_PRINT = 81;
+
+	// largest data GS ( k function 80 takes, its length field minus the 3 header bytes
+	private static final int MAX_COMMAND_DATA = 7089;
+
+	private static final byte[][] ECC_CODEWORDS_PER_BLOCK = {
+			{-1, 7, 10, 15, 20, 26, 18, 20, 24, 30, 18, 20, 24, 26, 30, 22, 24, 28, 30, 28, 28, 28, 28, 30, 30, 26, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+			{-1, 10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30, 22, 22, 24, 24, 28, 28, 26, 26, 26, 26, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28},
+			{-1, 13, 22, 18, 26, 18, 24, 18, 22, 20, 24, 28, 26, 24, 20, 30, 24, 28, 28, 26, 30, 28, 30, 30, 30, 30, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+			{-1, 17, 28, 22, 16, 22, 28, 26, 26, 24, 28, 24, 28, 22, 24, 24, 30, 28, 28, 26, 28, 30, 24, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+	};
+
+	private static final byte[][] ERROR_CORRECTION_BLOCKS = {
+			{-1, 1, 1, 1, 1, 1, 2, 2, 2, 2, 4, 4, 4, 4, 4, 6, 6, 6, 6, 7, 8, 8, 9, 9, 10, 12, 12, 12, 13, 14, 15, 16, 17, 18, 19, 19, 20, 21, 22, 24, 25},
+			{-1, 1, 1, 1, 2, 2, 4, 4, 4, 5, 5, 5, 8, 9, 9, 10, 10, 11, 13, 14, 16, 17, 17, 18, 20, 21, 23, 25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49},
+			{-1, 1, 1, 2, 2, 4, 4, 6, 6, 8, 8, 8, 10, 12, 16, 12, 17, 16, 18, 21, 20, 23, 23, 25, 27, 29, 34, 34, 35, 38, 40, 43, 45, 48, 51, 53, 56, 59, 62, 65, 68},
+			{-1, 1, 1, 2, 4, 4, 4, 5, 6, 8, 8, 11, 11, 16, 16, 18, 16, 19, 21, 25, 25, 25, 34, 30, 32, 35, 37, 40, 42, 45, 48, 51, 54, 57, 60, 63, 66, 70, 74, 77, 81},
+	};
+
+	// format information encodes the level as L=1, M=0, Q=3, H=2
+	private static final int[] FORMAT_BITS = {1, 0, 3, 2};
+
+	private QrCode() {
+	}
+
+	/** Parses "L", "M", "Q" or "H". */
+	public static int errorCorrection(String level) {
+		switch (level) {
+			case "L":
+				return EC_L;
+			case "M":
+				return EC_M;
+			case "Q":
+				return EC_Q;
+			case "H":
+				return EC_H;
+			default:
+				throw new IllegalArgumentException("Invalid error correction level: " + level);
+		}
+	}
+
+	/**
+	 * GS ( k model 2 QR: selects the model, module size and error correction,
+	 * stores {@code text} as UTF-8 and prints it.
+	 */
+	public static byte[] command(String text, int moduleSize, int errorCorrection) {
+		checkErrorCorrection(errorCorrection);
+		if (moduleSize < 1 || moduleSize > MAX_MODULE_SIZE) {
+			throw new IllegalArgumentException("Invalid QR module size: " + moduleSize);
+		}
+		byte[] data = text.getBytes(UTF_8);
+		if (data.length == 0 || data.length > MAX_COMMAND_DATA) {
+			throw new IllegalArgumentException("Invalid QR data length: " + data.length);
+		}
+		byte[] out = new byte[9 + 8 + 8 + 8 + data.length + 8];
+		int k = 0;
+		k = function(out, k, FN_MODEL, 2, 50, 0);
+		k = function(out, k, FN_MODULE_SIZE, 1, moduleSize);
+		k = function(out, k, FN_ERROR_CORRECTION, 1, 48 + errorCorrection);
+		int length = data.length + 3;
+		out[k++] = 0x1d;
+		out[k++] = 0x28;
+		out[k++] = 0x6b;
+		out[k++] = (byte) length;
+		out[k++] = (byte) (length >> 8);
+		out[k++] = 49;
+		out[k++] = FN_STORE;
+		out[k++] = 48;
+		System.arraycopy(data, 0, out, k, data.length);
+		k += data.length;
+		k = function(out, k, FN_PRINT, 1, 48);
+		return Arrays.copyOf(out, k);
+	}
+
+	/** GS ( k pL pH 49 fn, then {@code count} of the parameters. */
+	private static int function(byte[] out, int k, int fn, int count, int... parameters) {
+		out[k++] = 0x1d;
+		out[k++] = 0x28;
+		out[k++] = 0x6b;
+		out[k++] = (byte) (count + 2);
+		out[k++] = 0;
+		out[k++] = 49;
+		out[k++] = (byte) fn;
+		for (int i = 0; i < count; i++) {
+			out[k++] = (byte) parameters[i];
+		}
+		return k;
+	}
+
+	private static void checkErrorCorrection(int errorCorrection) {
+		if (errorCorrection < EC_L || errorCorrection > EC_H) {
+			throw new IllegalArgumentException("Invalid error correction level: " + errorCorrection);
+		}
+	}
+
+	/**
+	 * Encodes {@code text} as UTF-8 in the smallest version that holds it and
+	 * returns the modules, {@code [y][x]}, true for dark, without the quiet zone.
+	 */
+	public static boolean[][] encode(String text, int errorCorrection) {
+		checkErrorCorrection(errorCorrection);
+		byte[] data = text.getBytes(UTF_8);
+		int version = 1;
+		while (dataBits(version, data.length) > dataCodewords(version, errorCorrection) * 8) {
+			if (++version > 40) {
+				throw new IllegalArgumentException("Too much data for a QR code: " + data.length + " bytes");
+			}
+		}
+		byte[] codewords = addErrorCorrection(dataCodewords(data, version, errorCorrection), version, errorCorrection);
+
+		Grid grid = new Grid(version);
+		grid.drawFunctionPatterns();
+		grid.drawCodewords(codewords);
+		int best = 0;
+		long bestPenalty = Long.MAX_VALUE;
+		for (int mask = 0; mask < 8; mask++) {
+			grid.applyMask(mask);
+			grid.drawFormat(errorCorrection, mask);
+			long penalty = grid.penalty();
+			if (penalty < bestPenalty) {
+				best = mask;
+				bestPenalty = penalty;
+			}
+			// masking twice restores the grid
+			grid.applyMask(mask);
+		}
+		grid.applyMask(best);
+		grid.drawFormat(errorCorrection, best);
+		return grid.modules;
+	}
+
+	/** Mode indicator, character count and the bytes themselves, in bits. */
+	private static int dataBits(int version, int length) {
+		return 4 + (version < 10 ? 8 : 16) + length * 8;
+	}
+
+	private static int rawDataModules(int version) {
+		int result = (16 * version + 128) * version + 64;
+		if (version >= 2) {
+			int alignment = version / 7 + 2;
+			result -= (25 * alignment - 10) * alignment - 55;
+			if (version >= 7) {
+				result -= 36;
+			}
+		}
+		return result;
+	}
+
+	private static int dataCodewords(int version, int errorCorrection) {
+		return rawDataModules(version) / 8
+				- ECC_CODEWORDS_PER_BLOCK[errorCorrection][version] * ERROR_CORRECTION_BLOCKS[errorCorrection][version];
+	}
+
+	/** Byte mode segment, terminator and padding, filling the version's data capacity. */
+	private static byte[] dataCodewords(byte[] data, int version, int errorCorrection) {
+		byte[] out = new byte[dataCodewords(version, errorCorrection)];
+		BitWriter bits = new BitWriter(out);
+		bits.write(4, 4);
+		bits.write(data.length, version < 10 ? 8 : 16);
+		for (byte b : data) {
+			bits.write(b & 0xff, 8);
+		}
+		int capacity = out.length * 8;
+		bits.write(0, Math.min(4, capacity - bits.length));
+		bits.write(0, (8 - bits.length % 8) % 8);
+		for (int pad = 0xec; bits.length < capacity; pad ^= 0xec ^ 0x11) {
+			bits.write(pad, 8);
+		}
+		return out;
+	}
+
+	/** Splits the data into blocks, adds Reed-Solomon codewords and interleaves. */
+	private static byte[] addErrorCorrection(byte[] data, int version, int errorCorrection) {
+		int blocks = ERROR_CORRECTION_BLOCKS[errorCorrection][version];
+		int eccLength = ECC_CODEWORDS_PER_BLOCK[errorCorrection][version];
+		int rawCodewords = rawDataModules(version) / 8;
+		int shortBlocks = blocks - rawCodewords % blocks;
+		int shortBlockLength = rawCodewords / blocks;
+		byte[] divisor = reedSolomonDivisor(eccLength);
+
+		byte[][] dataBlocks = new byte[blocks][];
+		byte[][] eccBlocks = new byte[blocks][];
+		for (int i = 0, k = 0; i < blocks; i++) {
+			int length = shortBlockLength - eccLength + (i < shortBlocks ? 0 : 1);
+			dataBlocks[i] = Arrays.copyOfRange(data, k, k + length);
+			eccBlocks[i] = reedSolomonRemainder(dataBlocks[i], divisor);
+			k += length;
+		}
+
+		byte[] out = new byte[rawCodewords];
+		int k = 0;
+		int longest = shortBlockLength - eccLength + 1;
+		for (int i = 0; i < longest; i++) {
+			for (byte[] block : dataBlocks) {
+				if (i < block.length) {
+					out[k++] = block[i];
+				}
+			}
+		}
+		for (int i = 0; i < eccLength; i++) {
+			for (byte[] block : eccBlocks) {
+				out[k++] = block[i];
+			}
+		}
+		return out;
+	}
+
+	private static byte[] reedSolomonDivisor(int degree) {
+		byte[] result = new byte[degree];
+		result[degree - 1] = 1;
+		int root = 1;
+		for (int i = 0; i < degree; i++) {
+			for (int j = 0; j < degree; j++) {
+				result[j] = (byte) multiply(result[j] & 0xff, root);
+				if (j + 1 < degree) {
+					result[j] ^= result[j + 1];
+				}
+			}
+			root = multiply(root, 0x02);
+		}
+		return result;
+	}
+
+	private static byte[] reedSolomonRemainder(byte[] data, byte[] divisor) {
+		byte[] result = new byte[divisor.length];
+		for (byte b : data) {
+			int factor = (b ^ result[0]) & 0xff;
+			System.arraycopy(result, 1, result, 0, result.length - 1);
+			result[result.length - 1] = 0;
+			for (int i = 0; i < result.length; i++) {
+				result[i] ^= multiply(divisor[i] & 0xff, factor);
+			}
+		}
+		return result;
+	}
+
+	/** Product in GF(2^8) modulo x^8 + x^4 + x^3 + x^2 + 1. */
+	private static int multiply(int x, int y) {
+		int z = 0;
+		for (int i = 7; i >= 0; i--) {
+			z = (z << 1) ^ ((z >>> 7) * 0x11d);
+			z ^= ((y >>> i) & 1) * x;
+		}
+		return z;
+	}
+
+	private static final class BitWriter {
+		final byte[] out;
+		int length;
+
+		BitWriter(byte[] out) {
+			this.out = out;
+		}
+
+		void write(int value, int count) {
+			for (int i = count - 1; i >= 0; i--, length++) {
+				if (((value >>> i) & 1) != 0) {
+					out[length >>> 3] |= 0x80 >>> (length & 7);
+				}
+			}
+		}
+	}
+
+	private static final class Grid {
+		final int size;
+		final int version;
+		final boolean[][] modules;
+		// function patterns, which masks and codewords leave alone
+		final boolean[][] reserved;
+
+		Grid(int version) {
+			this.version = version;
+			this.size = version * 4 + 17;
+			this.modules = new boolean[size][size];
+			this.reserved = new boolean[size][size];
+		}
+
+		void set(int x, int y, boolean dark) {
+			modules[y][x] = dark;
+			reserved[y][x] = true;
+		}
+
+		void drawFunctionPatterns() {
+			for (int i = 0; i < size; i++) {
+				set(6, i, i % 2 == 0);
+				set(i, 6, i % 2 == 0);
+			}
+			drawFinder(3, 3);
+			drawFinder(size - 4, 3);
+			drawFinder(3, size - 4);
+			int[] positions = alignmentPositions();
+			int count = positions.length;
+			for (int i = 0; i < count; i++) {
+				for (int j = 0; j < count; j++) {
+					// the corners overlap the finders
+					if (!(i == 0 && j == 0 || i == 0 && j == count - 1 || i == count - 1 && j == 0)) {
+						drawAlignment(positions[i], positions[j]);
+					}
+				}
+			}
+			// reserve the format areas until a mask is chosen
+			drawFormat(0, 0);
+			drawVersion();
+		}
+
+		void drawFinder(int cx, int cy) {
+			for (int dy = -4; dy <= 4; dy++) {
+				for (int dx = -4; dx <= 4; dx++) {
+					int x = cx + dx;
+					int y = cy + dy;
+					if (x >= 0 && x < size && y >= 0 && y < size) {
+						int distance = Math.max(Math.abs(dx), Math.abs(dy));
+						set(x, y, distance != 2 && distance != 4);
+					}
+				}
+			}
+		}
+
+		void drawAlignment(int cx, int cy) {
+			for (int dy = -2; dy <= 2; dy++) {
+				for (int dx = -2; dx <= 2; dx++) {
+					set(cx + dx, cy + dy, Math.max(Math.abs(dx), Math.abs(dy)) != 1);
+				}
+			}
+		}
+
+		int[] alignmentPositions() {
+			if (version == 1) {
+				return new int[0];
+			}
+			int count = version / 7 + 2;
+			int step = version == 32 ? 26 : (version * 4 + count * 2 + 1) / (count * 2 - 2) * 2;
+			int[] result = new int[count];
+			result[0] = 6;
+			for (int i = count - 1, position = size - 7; i >= 1; i--, position -= step) {
+				result[i] = position;
+			}
+			return result;
+		}
+
+		void drawFormat(int errorCorrection, int mask) {
+			int data = FORMAT_BITS[errorCorrection] << 3 | mask;
+			int remainder = data;
+			for (int i = 0; i < 10; i++) {
+				remainder = (remainder << 1) ^ ((remainder >>> 9) * 0x537);
+			}
+			int bits = (data << 10 | remainder) ^ 0x5412;
+
+			for (int i = 0; i <= 5; i++) {
+				set(8, i, bit(bits, i));
+			}
+			set(8, 7, bit(bits, 6));
+			set(8, 8, bit(bits, 7));
+			set(7, 8, bit(bits, 8));
+			for (int i = 9; i < 15; i++) {
+				set(14 - i, 8, bit(bits, i));
+			}
+			for (int i = 0; i < 8; i++) {
+				set(size - 1 - i, 8, bit(bits, i));
+			}
+			for (int i = 8; i < 15; i++) {
+				set(8, size - 15 + i, bit(bits, i));
+			}
+			set(8, size - 8, true);
+		}
+
+		void drawVersion() {
+			if (version < 7) {
+				return;
+			}
+			int remainder = version;
+			for (int i = 0; i < 12; i++) {
+				remainder = (remainder << 1) ^ ((remainder >>> 11) * 0x1f25);
+			}
+			int bits = version << 12 | remainder;
+			for (int i = 0; i < 18; i++) {
+				boolean dark = bit(bits, i);
+				int a = size - 11 + i % 3;
+				int b = i / 3;
+				set(a, b, dark);
+				set(b, a, dark);
+			}
+		}
+
+		/** Zigzags up and down two-module columns from the right, skipping the timing column. */
+		void drawCodewords(byte[] codewords) {
+			int i = 0;
+			int total = codewords.length * 8;
+			for (int right = size - 1; right >= 1; right -= 2) {
+				if (right == 6) {
+					right = 5;
+				}
+				for (int vertical = 0; vertical < size; vertical++) {
+					for (int j = 0; j < 2; j++) {
+						int x = right - j;
+						boolean upward = ((right + 1) & 2) == 0;
+						int y = upward ? size - 1 - vertical : vertical;
+						if (!reserved[y][x] && i < total) {
+							modules[y][x] = bit(codewords[i >>> 3], 7 - (i & 7));
+							i++;
+						}
+					}
+				}
+			}
+		}
+
+		void applyMask(int mask) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					if (!reserved[y][x] && masked(mask, x, y)) {
+						modules[y][x] = !modules[y][x];
+					}
+				}
+			}
+		}
+
+		static boolean masked(int mask, int x, int y) {
+			switch (mask) {
+				case 0:
+					return (x + y) % 2 == 0;
+				case 1:
+					return y % 2 == 0;
+				case 2:
+					return x % 3 == 0;
+				case 3:
+					return (x + y) % 3 == 0;
+				case 4:
+					return (x / 3 + y / 2) % 2 == 0;
+				case 5:
+					return x * y % 2 + x * y % 3 == 0;
+				case 6:
+					return (x * y % 2 + x * y % 3) % 2 == 0;
+				default:
+					return ((x + y) % 2 + x * y % 3) % 2 == 0;
+			}
+		}
+
+		/** The four penalty rules that choose the mask. */
+		long penalty() {
+			long result = 0;
+			for (int horizontal = 0; horizontal < 2; horizontal++) {
+				for (int a = 0; a < size; a++) {
+					int run = 0;
+					boolean color = false;
+					int window = 0;
+					for (int b = 0; b < size; b++) {
+						boolean dark = horizontal == 0 ? modules[a][b] : modules[b][a];
+						if (b == 0 || dark != color) {
+							color = dark;
+							run = 1;
+						} else if (++run == 5) {
+							result += 3;
+						} else if (run > 5) {
+							result++;
+						}
+						// 1:1:3:1:1 finder-like patterns with four light modules on one side
+						window = (window << 1 | (dark ? 1 : 0)) & 0x7ff;
+						if (b >= 10 && (window == 0x05d || window == 0x5d0)) {
+							result += 40;
+						}
+					}
+				}
+			}
+			int dark = 0;
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					boolean color = modules[y][x];
+					if (color) {
+						dark++;
+					}
+					if (x + 1 < size && y + 1 < size && color == modules[y][x + 1]
+							&& color == modules[y + 1][x] && color == modules[y + 1][x + 1]) {
+						result += 3;
+					}
+				}
+			}
+			int total = size * size;
+			int deviation = Math.abs(dark * 20 - total * 10);
+			result += (long) ((deviation + total - 1) / total - 1) * 10;
+			return result;
+		}
+	}
+
+	private static boolean bit(int value, int i) {
+		return ((value >>> i) & 1) != 0;
+	}
+}
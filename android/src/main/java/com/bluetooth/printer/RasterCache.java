@@ -0,0 +1,141 @@
+package com.bluetooth.printer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encoded image commands, keyed by a digest of the compressed image and every
+ * option that changes the output. A logo printed on every receipt is encoded once
+ * and afterwards written straight from memory. Bounded by bytes, least recently
+ * used entries go first.
+ */
+class RasterCache {
+
+	public static final int DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+	private final int maxBytes;
+	private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private int bytes;
+	private long hits;
+	private long misses;
+
+	public RasterCache(int maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/** Cache key for {@code image} encoded with the given print options. */
+	public static String key(byte[] image, int width, int height, String dither, String imageMode, boolean compact, boolean trim) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] hash = digest.digest(image);
+		StringBuilder key = new StringBuilder(hash.length * 2 + 32);
+		for (byte b : hash) {
+			key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return key.append(':').append(width).append('x').append(height)
+				.append(':').append(dither).append(':').append(imageMode)
+				.append(compact ? ":compact" : "").append(compact && trim ? ":trim" : "").toString();
+	}
+
+	/** Entries larger than this are not kept, so one image cannot flush the cache. */
+	public int maxEntryBytes() {
+		return maxBytes / 4;
+	}
+
+	public synchronized byte[] get(String key) {
+		byte[] data = entries.get(key);
+		if (data != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return data;
+	}
+
+	public synchronized void put(String key, byte[] data) {
+		if (data.length > maxEntryBytes()) {
+			return;
+		}
+		byte[] previous = entries.put(key, data);
+		if (previous != null) {
+			bytes -= previous.length;
+		}
+		bytes += data.length;
+		Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+		while (bytes > maxBytes) {
+			bytes -= eldest.next().getValue().length;
+			eldest.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized int getBytes() {
+		return bytes;
+	}
+
+	public synchronized int getCount() {
+		return entries.size();
+	}
+
+	/** Passes writes through to the printer and keeps a copy for the cache. */
+	static final class Recorder extends FilterOutputStream implements SafePoints {
+		private final ByteArrayOutputStream copy;
+
+		Recorder(OutputStream out, int expectedSize) {
+			super(out);
+			this.copy = new ByteArrayOutputStream(expectedSize);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			copy.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			copy.write(b, off, len);
+		}
+
+		@Override
+		public void markSafePoint() throws IOException {
+			if (out instanceof SafePoints) {
+				((SafePoints) out).markSafePoint();
+			}
+		}
+
+		/** The printer connection is closed by its owner, not by the image encoder. */
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+		byte[] toByteArray() {
+			return copy.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package com.bluetooth.printer;
+
+/**
+ * Converts pixels into ESC/POS bit image commands.
+ *
+ * Pixels are reduced to a fixed-point luminance, thresholded and packed eight to
+ * a byte, most significant bit first, so a row of {@code width} pixels takes
+ * {@link #rowBytes(int)} bytes. Everything here works on plain arrays and has no
+ * Android dependency.
+ */
+final class RasterEncoder {
+
+	/** Rows covered by one ESC * 33 (24-dot double density) band. */
+	public static final int BAND_HEIGHT = 24;
+
+	/**
+	 * Rows per GS v 0 block. Large enough that a receipt goes out as a handful of
+	 * blocks, small enough for printers that cap the size of a single raster image.
+	 */
+	public static final int STRIP_HEIGHT = 240;
+
+	/** Pixels whose luminance is below this value are printed black. */
+	public static final int THRESHOLD = 128;
+
+	private RasterEncoder() {
+	}
+
+	/**
+	 * 0.299 R + 0.587 G + 0.114 B, truncated, in 10.22 fixed point. The coefficients
+	 * are rounded up so the result is exactly {@code (299 R + 587 G + 114 B) / 1000}.
+	 * The alpha channel is ignored.
+	 */
+	public static int luminance(int argb) {
+		int r = (argb >> 16) & 0xff;
+		int g = (argb >> 8) & 0xff;
+		int b = argb & 0xff;
+		return (r * 1254097 + g * 2462057 + b * 478151) >> 22;
+	}
+
+	/** {@link #luminance(int)} of the pixel composited over white paper. */
+	public static int luminanceOverWhite(int argb) {
+		int alpha = argb >>> 24;
+		int lum = luminance(argb);
+		if (alpha == 0xff) {
+			return lum;
+		}
+		return 255 - ((255 - lum) * alpha + 127) / 255;
+	}
+
+	/**
+	 * Replaces {@code count} ARGB pixels with their luminance, in place. The alpha
+	 * channel is ignored, as callers pass opaque pixels.
+	 */
+	public static void toLuminance(int[] pixels, int offset, int count) {
+		for (int i = offset, end = offset + count; i < end; i++) {
+			pixels[i] = luminance(pixels[i]);
+		}
+	}
+
+	public static int rowBytes(int width) {
+		return (width + 7) >> 3;
+	}
+
+	public static int bandCount(int height) {
+		return (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+	}
+
+	/**
+	 * Thresholds one row of luminance values into {@code dst}, eight pixels per
+	 * byte. Unused low bits of the last byte are cleared.
+	 */
+	public static void packRow(int[] luma, int offset, int width, int threshold, byte[] dst, int dstOffset) {
+		int x = 0;
+		int k = dstOffset;
+		for (; x + 8 <= width; x += 8) {
+			int p = offset + x;
+			int b = 0;
+			for (int n = 0; n < 8; n++) {
+				b = (b << 1) | (luma[p + n] < threshold ? 1 : 0);
+			}
+			dst[k++] = (byte) b;
+		}
+		if (x < width) {
+			int b = 0;
+			int n = 0;
+			for (; x < width; x++, n++) {
+				b = (b << 1) | (luma[offset + x] < threshold ? 1 : 0);
+			}
+			dst[k] = (byte) (b << (8 - n));
+		}
+	}
+
+	/** Size of one ESC * 33 band: command, nL nH, three bytes per column and a line feed. */
+	public static int columnBandSize(int width) {
+		return 5 + width * 3 + 1;
+	}
+
+	/** Exact size of a column mode image: ESC 3 0 and one band per 24 rows. */
+	public static int columnModeSize(int width, int height) {
+		return 3 + bandCount(height) * columnBandSize(width);
+	}
+
+	/** ESC 3 0, zero line spacing so consecutive bands touch. */
+	public static int encodeLineSpacing(byte[] out, int offset) {
+		out[offset++] = 0x1B;
+		out[offset++] = 0x33;
+		out[offset++] = 0x00;
+		return offset;
+	}
+
+	/**
+	 * Writes one ESC * 33 band, {@code width} columns wide, from
+	 * {@link #BAND_HEIGHT} packed rows of {@code rowBytes} bytes each.
+	 *
+	 * @return offset just past the band
+	 */
+	public static int encodeColumnBand(byte[] rows, int rowBytes, int width, byte[] out, int offset) {
+		int k = offset;
+		out[k++] = 0x1B;
+		out[k++] = 0x2A;
+		out[k++] = 33;
+		out[k++] = (byte) (width & 0xff);
+		out[k++] = (byte) (width >> 8);
+		// 24 dots per column, three bytes, top dot in the high bit. Each group of
+		// eight columns is an 8x8 bit transpose of eight packed rows.
+		for (int column = 0, x = 0; x < width; column++, x += 8) {
+			int columns = Math.min(8, width - x);
+			for (int m = 0; m < 3; m++) {
+				int p = m * 8 * rowBytes + column;
+				long t = 0;
+				for (int n = 0; n < 8; n++, p += rowBytes) {
+					t = (t << 8) | (rows[p] & 0xff);
+				}
+				t = transpose8(t);
+				for (int i = 0; i < columns; i++) {
+					out[k + i * 3 + m] = (byte) (t >>> (56 - i * 8));
+				}
+			}
+			k += columns * 3;
+		}
+		out[k++] = 10;
+		return k;
+	}
+
+	/**
+	 * Width up to and including the rightmost black pixel of {@code rowCount}
+	 * packed rows, or 0 if they are all white.
+	 */
+	public static int contentWidth(byte[] rows, int offset, int rowBytes, int rowCount) {
+		int last = -1;
+		int bits = 0;
+		for (int r = 0, p = offset; r < rowCount; r++, p += rowBytes) {
+			// bytes left of the rightmost one found so far cannot widen the result
+			for (int i = rowBytes - 1; i >= 0 && i >= last; i--) {
+				if (rows[p + i] != 0) {
+					if (i > last) {
+						last = i;
+						bits = 0;
+					}
+					bits |= rows[p + i] & 0xff;
+					break;
+				}
+			}
+		}
+		return last < 0 ? 0 : last * 8 + 8 - Integer.numberOfTrailingZeros(bits);
+	}
+
+	/** Size of the ESC J commands {@link #encodeFeed(int, byte[], int)} writes. */
+	public static int feedSize(int dots) {
+		return 3 * ((dots + 254) / 255);
+	}
+
+	/**
+	 * ESC J, feeding the paper {@code dots} dots without printing, in steps of at
+	 * most 255.
+	 *
+	 * @return offset just past the commands
+	 */
+	public static int encodeFeed(int dots, byte[] out, int offset) {
+		int k = offset;
+		while (dots > 0) {
+			int step = Math.min(255, dots);
+			out[k++] = 0x1B;
+			out[k++] = 0x4A;
+			out[k++] = (byte) step;
+			dots -= step;
+		}
+		return k;
+	}
+
+	/**
+	 * Transposes an 8x8 bit matrix held one row per byte, first row in the high byte.
+	 */
+	private static long transpose8(long x) {
+		long t;
+		t = (x ^ (x >>> 7)) & 0x00AA00AA00AA00AAL;
+		x = x ^ t ^ (t << 7);
+		t = (x ^ (x >>> 14)) & 0x0000CCCC0000CCCCL;
+		x = x ^ t ^ (t << 14);
+		t = (x ^ (x >>> 28)) & 0x00000000F0F0F0F0L;
+		x = x ^ t ^ (t << 28);
+		return x;
+	}
+
+	/** Size of one GS v 0 block: eight header bytes followed by the packed rows. */
+	public static int rasterStripSize(int width, int rowCount) {
+		return 8 + rowBytes(width) * rowCount;
+	}
+
+	/** Exact size of a raster mode image: one GS v 0 block per {@link #STRIP_HEIGHT} rows. */
+	public static int rasterModeSize(int width, int height) {
+		int strips = (height + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+		return strips * 8 + rowBytes(width) * height;
+	}
+
+	/** GS v 0 header (normal density) for {@code rowCount} rows of {@code width} pixels. */
+	public static int encodeRasterHeader(int width, int rowCount, byte[] out, int offset) {
+		int rowBytes = rowBytes(width);
+		int k = offset;
+		out[k++] = 0x1D;
+		out[k++] = 0x76;
+		out[k++] = 0x30;
+		out[k++] = 0x00;
+		out[k++] = (byte) (rowBytes & 0xff);
+		out[k++] = (byte) (rowBytes >> 8);
+		out[k++] = (byte) (rowCount & 0xff);
+		out[k++] = (byte) (rowCount >> 8);
+		return k;
+	}
+}
@@ -0,0 +1,22 @@
+package com.bluetooth.printer;
+
+/**
+ * Supplies an image as packed 1-bit rows, black = 1, eight pixels per byte and
+ * {@link RasterEncoder#rowBytes(int)} bytes per row.
+ */
+interface RasterSource {
+
+	int getWidth();
+
+	int getHeight();
+
+	/**
+	 * Packs {@code rowCount} rows starting at row {@code y} into {@code dst}.
+	 * Unless {@link #isSequential()}, implementations allow concurrent calls for
+	 * different rows, which {@link ParallelBandEncoder} relies on.
+	 */
+	void readRows(int y, int rowCount, byte[] dst, int dstOffset);
+
+	/** True if rows must be read top to bottom from one thread, as error diffusion needs. */
+	boolean isSequential();
+}
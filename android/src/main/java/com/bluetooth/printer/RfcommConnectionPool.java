@@ -0,0 +1,351 @@
+package com.bluetooth.printer;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one RFCOMM socket open per printer between jobs. The SDP lookup and
+ * connect cost seconds, far more than sending a receipt, so a socket is leased
+ * for a job, handed back afterwards and closed only once it has been idle for
+ * the timeout.
+ *
+ * A socket is checked before it is reused and replaced if it went dead. Jobs for
+ * the same printer wait for each other, since printers accept one connection at
+ * a time; different printers connect in parallel.
+ */
+class RfcommConnectionPool {
+
+	private static final String LOG_TAG = BlueToothPrinterModule.LOG_TAG;
+
+	public static final long DEFAULT_IDLE_TIMEOUT_MS = 60 * 1000;
+
+	/** How long a job waits for another job on the same printer to finish. */
+	private static final long LEASE_TIMEOUT_MS = 60 * 1000;
+
+	private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "BluetoothPrinterPool");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final long idleTimeoutMs;
+	private final Map<String, Slot> slots = new HashMap<>();
+	private final ScheduledFuture<?> sweep;
+
+	private long connects;
+	private long reuses;
+	private long failures;
+	private long connectTimeMs;
+	private long lastConnectTimeMs;
+
+	/** One printer: its open connection, if any, and whether a job holds it. */
+	private static final class Slot {
+		Connection connection;
+		boolean leased;
+	}
+
+	/** A leased socket. Hand it back with {@link #release} or {@link #invalidate}. */
+	static final class Connection implements PrinterTransport {
+		private final RfcommConnectionPool pool;
+		private final Slot slot;
+		private final BluetoothSocket socket;
+		private final UUID service;
+		private final CountingOutputStream out;
+		private long lastUsed;
+		private boolean reused;
+
+		Connection(RfcommConnectionPool pool, Slot slot, BluetoothSocket socket, UUID service) throws IOException {
+			this.pool = pool;
+			this.slot = slot;
+			this.socket = socket;
+			this.service = service;
+			this.out = new CountingOutputStream(socket.getOutputStream());
+		}
+
+		/** The socket's stream. Closing it is a no-op, the pool owns the socket. */
+		@Override
+		public OutputStream getOutputStream() {
+			return out;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return socket.getInputStream();
+		}
+
+		@Override
+		public String getAddress() {
+			return socket.getRemoteDevice().getAddress();
+		}
+
+		/** Whether the socket was already open from an earlier job. */
+		@Override
+		public boolean isReused() {
+			return reused;
+		}
+
+		/** Bytes written during the current lease. */
+		@Override
+		public long getBytesWritten() {
+			return out.count;
+		}
+
+		@Override
+		public void release() {
+			pool.release(this);
+		}
+
+		@Override
+		public void invalidate() {
+			pool.invalidate(this);
+		}
+
+		boolean isHealthy() {
+			if (!socket.isConnected()) {
+				return false;
+			}
+			try {
+				// throws once the stack has noticed the link is gone
+				socket.getInputStream().available();
+				return true;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				Log.d(LOG_TAG, "Failed to close socket: " + e.getMessage());
+			}
+		}
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	public RfcommConnectionPool(long idleTimeoutMs) {
+		this.idleTimeoutMs = idleTimeoutMs;
+		long period = Math.max(1000, idleTimeoutMs / 2);
+		this.sweep = SWEEPER.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				closeIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Leases a connection to {@code device}, reusing the open socket if it is
+	 * still healthy and connecting otherwise.
+	 */
+	public Connection acquire(BluetoothDevice device, UUID service) throws IOException {
+		Slot slot;
+		synchronized (this) {
+			slot = slots.get(device.getAddress());
+			if (slot == null) {
+				slot = new Slot();
+				slots.put(device.getAddress(), slot);
+			}
+		}
+		synchronized (slot) {
+			long deadline = SystemClock.elapsedRealtime() + LEASE_TIMEOUT_MS;
+			while (slot.leased) {
+				long remaining = deadline - SystemClock.elapsedRealtime();
+				if (remaining <= 0) {
+					throw new IOException("Printer busy: " + device.getAddress());
+				}
+				try {
+					slot.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for printer " + device.getAddress());
+				}
+			}
+			slot.leased = true;
+		}
+		// connect outside the slot lock so the sweeper never waits on a connect
+		try {
+			Connection connection = slot.connection;
+			if (connection != null) {
+				long idle = SystemClock.elapsedRealtime() - connection.lastUsed;
+				if (connection.service.equals(service) && idle < idleTimeoutMs && connection.isHealthy()) {
+					connection.reused = true;
+					connection.out.count = 0;
+					recordReuse();
+					return connection;
+				}
+				connection.close();
+				slot.connection = null;
+			}
+			long start = SystemClock.elapsedRealtime();
+			BluetoothSocket socket = device.createRfcommSocketToServiceRecord(service);
+			try {
+				socket.connect();
+				connection = new Connection(this, slot, socket, service);
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+			recordConnect(SystemClock.elapsedRealtime() - start);
+			slot.connection = connection;
+			return connection;
+		} catch (IOException | RuntimeException e) {
+			recordFailure();
+			unlease(slot);
+			throw e;
+		}
+	}
+
+	/** Hands a healthy connection back for the next job. */
+	public void release(Connection connection) {
+		connection.lastUsed = SystemClock.elapsedRealtime();
+		unlease(connection.slot);
+	}
+
+	/** Closes a connection that failed, so the next job connects afresh. */
+	public void invalidate(Connection connection) {
+		connection.close();
+		synchronized (connection.slot) {
+			if (connection.slot.connection == connection) {
+				connection.slot.connection = null;
+			}
+		}
+		unlease(connection.slot);
+	}
+
+	private void unlease(Slot slot) {
+		synchronized (slot) {
+			slot.leased = false;
+			slot.notifyAll();
+		}
+	}
+
+	private void closeIdle() {
+		long now = SystemClock.elapsedRealtime();
+		for (Slot slot : snapshot()) {
+			synchronized (slot) {
+				if (!slot.leased && slot.connection != null && now - slot.connection.lastUsed >= idleTimeoutMs) {
+					slot.connection.close();
+					slot.connection = null;
+				}
+			}
+		}
+	}
+
+	/** Closes every idle socket; leased ones close when their job hands them back. */
+	public void closeAll() {
+		for (Slot slot : snapshot()) {
+			synchronized (slot) {
+				if (!slot.leased && slot.connection != null) {
+					slot.connection.close();
+					slot.connection = null;
+				}
+			}
+		}
+	}
+
+	/** Closes every idle socket and stops the idle timer. */
+	public void shutdown() {
+		sweep.cancel(false);
+		closeAll();
+	}
+
+	private synchronized List<Slot> snapshot() {
+		return new ArrayList<>(slots.values());
+	}
+
+	private synchronized void recordConnect(long elapsedMs) {
+		connects++;
+		connectTimeMs += elapsedMs;
+		lastConnectTimeMs = elapsedMs;
+	}
+
+	private synchronized void recordReuse() {
+		reuses++;
+	}
+
+	private synchronized void recordFailure() {
+		failures++;
+	}
+
+	public synchronized long getConnects() {
+		return connects;
+	}
+
+	public synchronized long getReuses() {
+		return reuses;
+	}
+
+	public synchronized long getFailures() {
+		return failures;
+	}
+
+	/** Connect time averaged over successful connects, in milliseconds. */
+	public synchronized double getAverageConnectTimeMs() {
+		return connects == 0 ? 0 : (double) connectTimeMs / connects;
+	}
+
+	public synchronized long getLastConnectTimeMs() {
+		return lastConnectTimeMs;
+	}
+
+	/** Share of leases served by an already open socket. */
+	public synchronized double getReuseRatio() {
+		long leases = connects + reuses;
+		return leases == 0 ? 0 : (double) reuses / leases;
+	}
+
+	public synchronized int getOpenCount() {
+		int open = 0;
+		for (Slot slot : slots.values()) {
+			if (slot.connection != null) {
+				open++;
+			}
+		}
+		return open;
+	}
+}
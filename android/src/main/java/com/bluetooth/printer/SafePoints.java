@@ -0,0 +1,15 @@
+package com.bluetooth.printer;
+
+import java.io.IOException;
+
+/**
+ * A stream that is told where one command ends and the next begins. Only there
+ * may the printer be sent a real-time query such as DLE EOT: inside a command's
+ * data, the dots of an ESC * band say, the query's bytes would be taken as dots
+ * and the dots that follow as commands.
+ */
+interface SafePoints {
+
+	/** Marks the end of what was written so far as the end of a command. */
+	void markSafePoint() throws IOException;
+}
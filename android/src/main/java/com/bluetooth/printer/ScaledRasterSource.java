@@ -0,0 +1,205 @@
+package com.bluetooth.printer;
+
+import java.util.Arrays;
+
+/**
+ * {@link RasterSource} that resamples an ARGB image to the printed size in the
+ * same pass that binarizes it, so no scaled ARGB copy is ever allocated.
+ *
+ * Pixels are composited over white and reduced to luminance first; all scaling
+ * then happens on integers. Each axis is area-averaged when shrinking and
+ * bilinearly interpolated when enlarging. Read in order, every source row goes
+ * through {@link #readSourceRow(int, int[])} once: the two most recent rows,
+ * resampled horizontally, are cached so a row shared by two output rows is not
+ * read again. Working buffers are per thread, so bands can be scaled in parallel
+ * unless the ditherer is sequential.
+ */
+abstract class ScaledRasterSource implements RasterSource {
+
+	private final int sourceWidth;
+	private final int sourceHeight;
+	private final int width;
+	private final int height;
+	private final Ditherer ditherer;
+
+	// horizontal interpolation taps, only used when enlarging horizontally
+	private final int[] tapIndex;
+	private final int[] tapWeight;
+
+	private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+		@Override
+		protected Buffers initialValue() {
+			return new Buffers(sourceWidth, width);
+		}
+	};
+
+	private static final class Buffers {
+		final int[] sourceRow;
+		final int[] luma;
+		final long[] sum;
+		// horizontally resampled rows in 8.8 fixed point, keyed by source row
+		final int[][] cached;
+		final int[] cachedRow = {-1, -1};
+		int lastUsed;
+
+		Buffers(int sourceWidth, int width) {
+			sourceRow = new int[sourceWidth];
+			luma = new int[width];
+			sum = new long[width];
+			cached = new int[][]{new int[width], new int[width]};
+		}
+	}
+
+	protected ScaledRasterSource(int sourceWidth, int sourceHeight, int width, int height, Ditherer ditherer) {
+		if (sourceWidth <= 0 || sourceHeight <= 0 || width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Invalid size: " + sourceWidth + "x" + sourceHeight + " to " + width + "x" + height);
+		}
+		this.sourceWidth = sourceWidth;
+		this.sourceHeight = sourceHeight;
+		this.width = width;
+		this.height = height;
+		this.ditherer = ditherer;
+		if (width > sourceWidth) {
+			tapIndex = new int[width];
+			tapWeight = new int[width];
+			for (int x = 0; x < width; x++) {
+				int position = samplePosition(x, sourceWidth, width);
+				tapIndex[x] = position >> 8;
+				tapWeight[x] = position & 0xff;
+			}
+		} else {
+			tapIndex = null;
+			tapWeight = null;
+		}
+	}
+
+	/** ScaledRasterSource over a row-major ARGB array. */
+	public static ScaledRasterSource of(final int[] argb, final int sourceWidth, int sourceHeight, int width, int height, Ditherer ditherer) {
+		return new ScaledRasterSource(sourceWidth, sourceHeight, width, height, ditherer) {
+			@Override
+			protected void readSourceRow(int y, int[] dst) {
+				System.arraycopy(argb, y * sourceWidth, dst, 0, sourceWidth);
+			}
+		};
+	}
+
+	/** Copies source row {@code y}, as ARGB, into {@code dst}. */
+	protected abstract void readSourceRow(int y, int[] dst);
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public boolean isSequential() {
+		return ditherer.isSequential();
+	}
+
+	@Override
+	public void readRows(int y, int rowCount, byte[] dst, int dstOffset) {
+		int rowBytes = RasterEncoder.rowBytes(width);
+		Buffers b = buffers.get();
+		for (int i = 0; i < rowCount; i++) {
+			scaleRow(b, y + i);
+			ditherer.packRow(b.luma, 0, width, y + i, dst, dstOffset + i * rowBytes);
+		}
+	}
+
+	/**
+	 * Centre of output pixel {@code i} in source coordinates, in 1/256 units,
+	 * clamped so that it and the next sample stay inside the source.
+	 */
+	private static int samplePosition(int i, int sourceSize, int size) {
+		long position = ((2L * i + 1) * sourceSize * 256) / (2L * size) - 128;
+		long max = (sourceSize - 1) * 256L;
+		return (int) Math.max(0, Math.min(max, position));
+	}
+
+	private void scaleRow(Buffers b, int y) {
+		int[] luma = b.luma;
+		if (height > sourceHeight) {
+			int position = samplePosition(y, sourceHeight, height);
+			int top = position >> 8;
+			int weight = position & 0xff;
+			int[] upper = horizontalRow(b, top);
+			int[] lower = horizontalRow(b, Math.min(top + 1, sourceHeight - 1));
+			for (int x = 0; x < width; x++) {
+				luma[x] = (upper[x] * (256 - weight) + lower[x] * weight + 0x8000) >> 16;
+			}
+			return;
+		}
+		// output row y covers [y * sourceHeight, (y + 1) * sourceHeight) and source
+		// row j covers [j * height, (j + 1) * height), so overlaps are integers
+		long start = (long) y * sourceHeight;
+		long end = start + sourceHeight;
+		long[] sum = b.sum;
+		Arrays.fill(sum, 0);
+		for (int j = (int) (start / height); (long) j * height < end; j++) {
+			long overlap = Math.min((long) (j + 1) * height, end) - Math.max((long) j * height, start);
+			int[] row = horizontalRow(b, j);
+			for (int x = 0; x < width; x++) {
+				sum[x] += row[x] * overlap;
+			}
+		}
+		long half = (long) sourceHeight << 7;
+		long divisor = (long) sourceHeight << 8;
+		for (int x = 0; x < width; x++) {
+			luma[x] = (int) ((sum[x] + half) / divisor);
+		}
+	}
+
+	/** Source row {@code j} resampled to the output width, 8.8 fixed point. */
+	private int[] horizontalRow(Buffers b, int j) {
+		for (int i = 0; i < 2; i++) {
+			if (b.cachedRow[i] == j) {
+				b.lastUsed = i;
+				return b.cached[i];
+			}
+		}
+		// replace the row not used last, which the caller may still be holding
+		int slot = 1 - b.lastUsed;
+		b.lastUsed = slot;
+		b.cachedRow[slot] = j;
+		int[] out = b.cached[slot];
+
+		int[] src = b.sourceRow;
+		readSourceRow(j, src);
+		for (int i = 0; i < sourceWidth; i++) {
+			src[i] = RasterEncoder.luminanceOverWhite(src[i]);
+		}
+		if (tapIndex != null) {
+			for (int x = 0; x < width; x++) {
+				int left = tapIndex[x];
+				int right = Math.min(left + 1, sourceWidth - 1);
+				int weight = tapWeight[x];
+				out[x] = src[left] * (256 - weight) + src[right] * weight;
+			}
+			return out;
+		}
+		// area average: output pixel x covers [x * sourceWidth, (x + 1) * sourceWidth)
+		// and source pixel i covers [i * width, (i + 1) * width)
+		int i = 0;
+		long position = 0;
+		for (int x = 0; x < width; x++) {
+			long end = (long) (x + 1) * sourceWidth;
+			long total = 0;
+			while (position < end) {
+				long pixelEnd = (long) (i + 1) * width;
+				long segmentEnd = Math.min(pixelEnd, end);
+				total += src[i] * (segmentEnd - position);
+				position = segmentEnd;
+				if (position == pixelEnd) {
+					i++;
+				}
+			}
+			out[x] = (int) (((total << 8) + (sourceWidth >> 1)) / sourceWidth);
+		}
+		return out;
+	}
+}
@@ -0,0 +1,165 @@
+package com.bluetooth.printer;
+
+/**
+ * Commands that keep an image in the printer and print it by key, so a logo
+ * crosses the link once instead of on every receipt.
+ *
+ * {@link #NV} and {@link #DOWNLOAD} use GS ( L graphics: NV graphics survive a
+ * power cycle, download graphics live in RAM until the printer is switched off.
+ * Both are addressed by a two character key. {@link #BIT_IMAGE} uses the older
+ * FS q / FS p NV bit image for printers without GS ( L. FS q replaces every
+ * stored bit image at once, so only one image is kept that way.
+ */
+final class StoredImage {
+
+	public static final String NV = "NV";
+	public static final String DOWNLOAD = "DOWNLOAD";
+	public static final String BIT_IMAGE = "BIT_IMAGE";
+
+	/** Largest graphics GS ( L accepts, in dots. */
+	public static final int MAX_GRAPHICS_WIDTH = 8192;
+	public static final int MAX_GRAPHICS_HEIGHT = 2304;
+
+	/** Largest FS q image, in dots. */
+	public static final int MAX_BIT_IMAGE_WIDTH = 1023 * 8;
+	public static final int MAX_BIT_IMAGE_HEIGHT = 288 * 8;
+
+	// GS ( L function codes
+	private static final int FN_DELETE_NV = 66;
+	private static final int FN_DEFINE_NV = 67;
+	private static final int FN_PRINT_NV = 69;
+	private static final int FN_DELETE_DOWNLOAD = 82;
+	private static final int FN_DEFINE_DOWNLOAD = 83;
+	private static final int FN_PRINT_DOWNLOAD = 85;
+
+	private StoredImage() {
+	}
+
+	/** Checks that {@code storage} is one of the supported memories. */
+	public static String checkStorage(String storage) {
+		if (!NV.equals(storage) && !DOWNLOAD.equals(storage) && !BIT_IMAGE.equals(storage)) {
+			throw new IllegalArgumentException("Invalid image storage: " + storage);
+		}
+		return storage;
+	}
+
+	/** GS ( L keys are two printable ASCII characters. */
+	public static String checkKey(String key) {
+		if (key == null || key.length() != 2 || !isKeyCode(key.charAt(0)) || !isKeyCode(key.charAt(1))) {
+			throw new IllegalArgumentException("Invalid image key, expected two printable ASCII characters: " + key);
+		}
+		return key;
+	}
+
+	private static boolean isKeyCode(char c) {
+		return c >= 0x20 && c <= 0x7E;
+	}
+
+	/**
+	 * Command that stores {@code source} under {@code key}. The whole source is
+	 * read, in order.
+	 */
+	public static byte[] define(String storage, String key, RasterSource source) {
+		int width = source.getWidth();
+		int height = source.getHeight();
+		if (BIT_IMAGE.equals(checkStorage(storage))) {
+			if (width > MAX_BIT_IMAGE_WIDTH || height > MAX_BIT_IMAGE_HEIGHT) {
+				throw new IllegalArgumentException("Image too large to store: " + width + "x" + height);
+			}
+			return defineBitImage(source);
+		}
+		checkKey(key);
+		if (width > MAX_GRAPHICS_WIDTH || height > MAX_GRAPHICS_HEIGHT) {
+			throw new IllegalArgumentException("Image too large to store: " + width + "x" + height);
+		}
+		int dataSize = RasterEncoder.rowBytes(width) * height;
+		// m fn a kc1 kc2 b xL xH yL yH c, then the packed rows
+		int parameterSize = 11 + dataSize;
+		boolean longForm = parameterSize > 0xffff;
+		byte[] out = new byte[(longForm ? 7 : 5) + parameterSize];
+		int k = 0;
+		out[k++] = 0x1D;
+		if (longForm) {
+			// GS 8 L, the same function with a four byte length
+			out[k++] = 0x38;
+			out[k++] = 0x4C;
+			for (int i = 0; i < 4; i++) {
+				out[k++] = (byte) (parameterSize >> (i * 8));
+			}
+		} else {
+			out[k++] = 0x28;
+			out[k++] = 0x4C;
+			out[k++] = (byte) (parameterSize & 0xff);
+			out[k++] = (byte) (parameterSize >> 8);
+		}
+		out[k++] = 0x30;
+		out[k++] = (byte) (NV.equals(storage) ? FN_DEFINE_NV : FN_DEFINE_DOWNLOAD);
+		out[k++] = 0x30; // monochrome
+		out[k++] = (byte) key.charAt(0);
+		out[k++] = (byte) key.charAt(1);
+		out[k++] = 0x01; // one colour
+		out[k++] = (byte) (width & 0xff);
+		out[k++] = (byte) (width >> 8);
+		out[k++] = (byte) (height & 0xff);
+		out[k++] = (byte) (height >> 8);
+		out[k++] = 0x31; // colour 1
+		source.readRows(0, height, out, k);
+		return out;
+	}
+
+	/** FS q 1: one NV bit image, column major, eight dots per byte top to bottom. */
+	private static byte[] defineBitImage(RasterSource source) {
+		int width = source.getWidth();
+		int height = source.getHeight();
+		int rowBytes = RasterEncoder.rowBytes(width);
+		int xBytes = rowBytes;
+		int yBytes = (height + 7) >> 3;
+		byte[] rows = new byte[rowBytes * yBytes * 8];
+		source.readRows(0, height, rows, 0);
+		byte[] out = new byte[7 + xBytes * 8 * yBytes];
+		int k = 0;
+		out[k++] = 0x1C;
+		out[k++] = 0x71;
+		out[k++] = 0x01;
+		out[k++] = (byte) (xBytes & 0xff);
+		out[k++] = (byte) (xBytes >> 8);
+		out[k++] = (byte) (yBytes & 0xff);
+		out[k++] = (byte) (yBytes >> 8);
+		for (int x = 0; x < xBytes * 8; x++) {
+			int column = x >> 3;
+			int mask = 0x80 >> (x & 7);
+			for (int j = 0; j < yBytes; j++) {
+				int b = 0;
+				for (int n = 0, p = (j * 8) * rowBytes + column; n < 8; n++, p += rowBytes) {
+					b = (b << 1) | ((rows[p] & mask) != 0 ? 1 : 0);
+				}
+				out[k++] = (byte) b;
+			}
+		}
+		return out;
+	}
+
+	/** Command that prints the image stored under {@code key} at normal size. */
+	public static byte[] print(String storage, String key) {
+		if (BIT_IMAGE.equals(checkStorage(storage))) {
+			// FS p 1 0
+			return new byte[]{0x1C, 0x70, 0x01, 0x00};
+		}
+		checkKey(key);
+		byte fn = (byte) (NV.equals(storage) ? FN_PRINT_NV : FN_PRINT_DOWNLOAD);
+		return new byte[]{0x1D, 0x28, 0x4C, 0x06, 0x00, 0x30, fn, (byte) key.charAt(0), (byte) key.charAt(1), 0x01, 0x01};
+	}
+
+	/**
+	 * Command that deletes the image stored under {@code key}. FS q has no delete;
+	 * a bit image is only ever replaced by storing another.
+	 */
+	public static byte[] delete(String storage, String key) {
+		if (BIT_IMAGE.equals(checkStorage(storage))) {
+			throw new IllegalArgumentException("Stored bit images cannot be deleted, only replaced");
+		}
+		checkKey(key);
+		byte fn = (byte) (NV.equals(storage) ? FN_DELETE_NV : FN_DELETE_DOWNLOAD);
+		return new byte[]{0x1D, 0x28, 0x4C, 0x04, 0x00, 0x30, fn, (byte) key.charAt(0), (byte) key.charAt(1)};
+	}
+}
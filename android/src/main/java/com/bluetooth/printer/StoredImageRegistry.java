@@ -0,0 +1,56 @@
+package com.bluetooth.printer;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which images this module has stored on which printer, by MAC address. Entries
+ * are {@code storage:key}. The printer is not asked, so images stored by another
+ * app, or download graphics lost to a power cycle, are not reflected here.
+ */
+class StoredImageRegistry {
+
+	private final Map<String, Set<String>> images = new HashMap<>();
+
+	private static String entry(String storage, String key) {
+		return storage + ":" + key;
+	}
+
+	public synchronized void add(String address, String storage, String key) {
+		Set<String> stored = images.get(address);
+		if (stored == null) {
+			stored = new LinkedHashSet<>();
+			images.put(address, stored);
+		}
+		if (StoredImage.BIT_IMAGE.equals(storage)) {
+			// FS q replaces every bit image the printer held
+			for (Iterator<String> it = stored.iterator(); it.hasNext(); ) {
+				if (it.next().startsWith(StoredImage.BIT_IMAGE + ":")) {
+					it.remove();
+				}
+			}
+		}
+		stored.add(entry(storage, key));
+	}
+
+	public synchronized void remove(String address, String storage, String key) {
+		Set<String> stored = images.get(address);
+		if (stored != null) {
+			stored.remove(entry(storage, key));
+		}
+	}
+
+	public synchronized boolean contains(String address, String storage, String key) {
+		Set<String> stored = images.get(address);
+		return stored != null && stored.contains(entry(storage, key));
+	}
+
+	/** Stored entries of one printer, in the order they were stored. */
+	public synchronized Set<String> get(String address) {
+		Set<String> stored = images.get(address);
+		return stored == null ? new LinkedHashSet<String>() : new LinkedHashSet<>(stored);
+	}
+}
@@ -0,0 +1,234 @@
+package com.bluetooth.printer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Raw TCP to a network printer, usually on port 9100, where bytes sent are
+ * printed as they are. A non-blocking {@link SocketChannel} with a selector gives
+ * every connect, write and read a timeout, so a printer that stops reading fails
+ * the job instead of hanging it, and lets status answers be polled without
+ * blocking.
+ *
+ * A TCP connect on the local network takes milliseconds, so unlike RFCOMM the
+ * socket is not kept open between jobs. Nothing here depends on Android, so the
+ * job pipeline can run against a local socket on a plain JVM.
+ */
+final class TcpTransport implements PrinterTransport {
+
+	public static final String SCHEME = "tcp://";
+	public static final int DEFAULT_PORT = 9100;
+	public static final int DEFAULT_TIMEOUT_MS = 10 * 1000;
+	/** How long {@link #release} waits for the printer to close its side. */
+	private static final int DRAIN_TIMEOUT_MS = 1000;
+
+	private final SocketChannel channel;
+	private final Selector selector;
+	private final String address;
+	private final int timeoutMs;
+	private final ByteBuffer received = ByteBuffer.allocate(256);
+	private long bytesWritten;
+
+	private final OutputStream out = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining()) {
+				if (channel.write(buffer) == 0) {
+					await(SelectionKey.OP_WRITE, "write");
+				}
+			}
+			bytesWritten += len;
+		}
+	};
+
+	private final InputStream in = new InputStream() {
+		@Override
+		public int available() throws IOException {
+			fill();
+			return received.position();
+		}
+
+		@Override
+		public int read() throws IOException {
+			while (fill() == 0) {
+				await(SelectionKey.OP_READ, "read");
+			}
+			received.flip();
+			int b = received.get() & 0xff;
+			received.compact();
+			return b;
+		}
+	};
+
+	private TcpTransport(SocketChannel channel, String address, int timeoutMs) throws IOException {
+		this.channel = channel;
+		this.selector = Selector.open();
+		this.address = address;
+		this.timeoutMs = timeoutMs;
+	}
+
+	/**
+	 * Connects to {@code tcp://host[:port]}.
+	 *
+	 * @throws IllegalArgumentException if {@code address} is not a tcp:// address
+	 */
+	public static TcpTransport open(String address, int timeoutMs) throws IOException {
+		InetSocketAddress remote = parse(address);
+		if (remote.isUnresolved()) {
+			throw new IOException("Unknown host: " + address);
+		}
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.configureBlocking(false);
+			// printers want each command as soon as it is written
+			channel.socket().setTcpNoDelay(true);
+			TcpTransport transport = new TcpTransport(channel, address, timeoutMs);
+			if (!channel.connect(remote)) {
+				try {
+					transport.await(SelectionKey.OP_CONNECT, "connect to " + address);
+					channel.finishConnect();
+				} catch (IOException e) {
+					transport.invalidate();
+					throw e;
+				}
+			}
+			return transport;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public static boolean isTcpAddress(String address) {
+		return address != null && address.regionMatches(true, 0, SCHEME, 0, SCHEME.length());
+	}
+
+	static InetSocketAddress parse(String address) {
+		if (!isTcpAddress(address)) {
+			throw new IllegalArgumentException("Invalid tcp address: " + address);
+		}
+		String hostPort = address.substring(SCHEME.length());
+		int colon = hostPort.lastIndexOf(':');
+		int port = DEFAULT_PORT;
+		// a bracketed IPv6 literal has colons of its own
+		if (colon > hostPort.lastIndexOf(']')) {
+			try {
+				port = Integer.parseInt(hostPort.substring(colon + 1));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid tcp address: " + address);
+			}
+			hostPort = hostPort.substring(0, colon);
+		}
+		if (hostPort.startsWith("[") && hostPort.endsWith("]")) {
+			hostPort = hostPort.substring(1, hostPort.length() - 1);
+		}
+		if (hostPort.isEmpty() || port <= 0 || port > 0xffff) {
+			throw new IllegalArgumentException("Invalid tcp address: " + address);
+		}
+		return new InetSocketAddress(hostPort, port);
+	}
+
+	/** Reads what the printer has sent so far without blocking, returns the bytes held. */
+	private int fill() throws IOException {
+		if (received.hasRemaining() && channel.read(received) < 0 && received.position() == 0) {
+			throw new IOException("Printer closed the connection: " + address);
+		}
+		return received.position();
+	}
+
+	private void await(int op, String what) throws IOException {
+		SelectionKey key = channel.register(selector, op);
+		try {
+			if (selector.select(timeoutMs) == 0) {
+				throw new SocketTimeoutException("Timed out after " + timeoutMs + " ms waiting to " + what);
+			}
+		} finally {
+			key.interestOps(0);
+			selector.selectedKeys().clear();
+		}
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	@Override
+	public String getAddress() {
+		return address;
+	}
+
+	@Override
+	public boolean isReused() {
+		return false;
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Half-closes the connection and reads whatever the printer still sends until
+	 * it closes too, then closes. Closing with unread input makes the stack send a
+	 * reset, and some printers drop the end of the job they have not printed yet.
+	 */
+	@Override
+	public void release() {
+		try {
+			channel.socket().shutdownOutput();
+			ByteBuffer discard = ByteBuffer.allocate(256);
+			long deadline = Clock.millis() + DRAIN_TIMEOUT_MS;
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			while (true) {
+				discard.clear();
+				int n = channel.read(discard);
+				if (n < 0) {
+					break;
+				}
+				long left = deadline - Clock.millis();
+				if (left <= 0 || n == 0 && selector.select(left) == 0) {
+					break;
+				}
+				selector.selectedKeys().clear();
+			}
+			key.cancel();
+		} catch (IOException ignored) {
+		}
+		close();
+	}
+
+	@Override
+	public void invalidate() {
+		close();
+	}
+
+	private void close() {
+		try {
+			selector.close();
+		} catch (IOException ignored) {
+		}
+		try {
+			channel.close();
+		} catch (IOException ignored) {
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package com.bluetooth.printer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes text for a printer code page straight into a caller's byte array,
+ * through a char-to-code table built once per code page, so encoding a string
+ * allocates nothing. {@link #select(OutputStream)} sends the command that puts
+ * the printer in that code page.
+ *
+ * The single byte pages select a character table with ESC t and leave Kanji mode
+ * with FS . for printers that start in it. Their upper halves are written out
+ * below so they do not depend on the charsets a device ships. The double byte
+ * pages switch Kanji mode on with FS &, which prints the code system the printer
+ * was built for: a GB printer takes GBK, a Taiwanese one Big5, and a Japanese one
+ * Shift-JIS once FS C 1 selected it. Their tables are the inverse of the
+ * platform's charset. GB18030 is limited to its one and two byte codes, which is
+ * what those printers accept.
+ *
+ * {@link #UTF_8} sends text as it is and selects nothing, as jobs always did.
+ */
+final class TextEncoder {
+
+	public static final String UTF_8 = "UTF-8";
+	public static final String CP437 = "CP437";
+	public static final String CP858 = "CP858";
+	public static final String CP1252 = "CP1252";
+	public static final String GBK = "GBK";
+	public static final String GB18030 = "GB18030";
+	public static final String BIG5 = "BIG5";
+	public static final String SHIFT_JIS = "SHIFT_JIS";
+
+	private static final String CP437_HIGH =
+			"\u00c7\u00fc\u00e9\u00e2\u00e4\u00e0\u00e5\u00e7\u00ea\u00eb\u00e8\u00ef\u00ee\u00ec\u00c4\u00c5" +
+			"\u00c9\u00e6\u00c6\u00f4\u00f6\u00f2\u00fb\u00f9\u00ff\u00d6\u00dc\u00a2\u00a3\u00a5\u20a7\u0192" +
+			"\u00e1\u00ed\u00f3\u00fa\u00f1\u00d1\u00aa\u00ba\u00bf\u2310\u00ac\u00bd\u00bc\u00a1\u00ab\u00bb" +
+			"\u2591\u2592\u2593\u2502\u2524\u2561\u2562\u2556\u2555\u2563\u2551\u2557\u255d\u255c\u255b\u2510" +
+			"\u2514\u2534\u252c\u251c\u2500\u253c\u255e\u255f\u255a\u2554\u2569\u2566\u2560\u2550\u256c\u2567" +
+			"\u2568\u2564\u2565\u2559\u2558\u2552\u2553\u256b\u256a\u2518\u250c\u2588\u2584\u258c\u2590\u2580" +
+			"\u03b1\u00df\u0393\u03c0\u03a3\u03c3\u00b5\u03c4\u03a6\u0398\u03a9\u03b4\u221e\u03c6\u03b5\u2229" +
+			"\u2261\u00b1\u2265\u2264\u2320\u2321\u00f7\u2248\u00b0\u2219\u00b7\u221a\u207f\u00b2\u25a0\u00a0";
+
+	// CP850 with the euro sign at 0xD5
+	private static final String CP858_HIGH =
+			"\u00c7\u00fc\u00e9\u00e2\u00e4\u00e0\u00e5\u00e7\u00ea\u00eb\u00e8\u00ef\u00ee\u00ec\u00c4\u00c5" +
+			"\u00c9\u00e6\u00c6\u00f4\u00f6\u00f2\u00fb\u00f9\u00ff\u00d6\u00dc\u00f8\u00a3\u00d8\u00d7\u0192" +
+			"\u00e1\u00ed\u00f3\u00fa\u00f1\u00d1\u00aa\u00ba\u00bf\u00ae\u00ac\u00bd\u00bc\u00a1\u00ab\u00bb" +
+			"\u2591\u2592\u2593\u2502\u2524\u00c1\u00c2\u00c0\u00a9\u2563\u2551\u2557\u255d\u00a2\u00a5\u2510" +
+			"\u2514\u2534\u252c\u251c\u2500\u253c\u00e3\u00c3\u255a\u2554\u2569\u2566\u2560\u2550\u256c\u00a4" +
+			"\u00f0\u00d0\u00ca\u00cb\u00c8\u20ac\u00cd\u00ce\u00cf\u2518\u250c\u2588\u2584\u00a6\u00cc\u2580" +
+			"\u00d3\u00df\u00d4\u00d2\u00f5\u00d5\u00b5\u00fe\u00de\u00da\u00db\u00d9\u00fd\u00dd\u00af\u00b4" +
+			"\u00ad\u00b1\u2017\u00be\u00b6\u00a7\u00f7\u00b8\u00b0\u00a8\u00b7\u00b9\u00b3\u00b2\u25a0\u00a0";
+
+	// 0x80 to 0x9F, unassigned codes as 0; 0xA0 to 0xFF are Latin-1
+	private static final String CP1252_HIGH =
+			"\u20ac\u0000\u201a\u0192\u201e\u2026\u2020\u2021\u02c6\u2030\u0160\u2039\u0152\u0000\u017d\u0000" +
+			"\u0000\u2018\u2019\u201c\u201d\u2022\u2013\u2014\u02dc\u2122\u0161\u203a\u0153\u0000\u017e\u0178";
+
+	private static final Map<String, TextEncoder> encoders = new HashMap<>();
+
+	private final String codePage;
+	// code for each char: below 0x100 one byte, otherwise lead and trail byte; 0 if unmappable
+	private final char[] table;
+	private final byte[] select;
+
+	private TextEncoder(String codePage, char[] table, byte[] select) {
+		this.codePage = codePage;
+		this.table = table;
+		this.select = select;
+	}
+
+	/**
+	 * The encoder for {@code codePage}, one of the constants above. Tables are
+	 * built on first use and shared.
+	 */
+	public static TextEncoder forCodePage(String codePage) {
+		synchronized (encoders) {
+			TextEncoder encoder = encoders.get(codePage);
+			if (encoder == null) {
+				encoder = create(codePage);
+				encoders.put(codePage, encoder);
+			}
+			return encoder;
+		}
+	}
+
+	private static TextEncoder create(String codePage) {
+		switch (codePage) {
+			case UTF_8:
+				return new TextEncoder(codePage, null, new byte[0]);
+			case CP437:
+				return new TextEncoder(codePage, singleByteTable(CP437_HIGH), singleByteSelect(0));
+			case CP858:
+				return new TextEncoder(codePage, singleByteTable(CP858_HIGH), singleByteSelect(19));
+			case CP1252: {
+				char[] table = singleByteTable(CP1252_HIGH);
+				for (char c = 0xa0; c <= 0xff; c++) {
+					table[c] = c;
+				}
+				return new TextEncoder(codePage, table, singleByteSelect(16));
+			}
+			case GBK:
+			case GB18030:
+			case BIG5:
+				return new TextEncoder(codePage, doubleByteTable(codePage), new byte[]{0x1c, 0x26});
+			case SHIFT_JIS:
+				return new TextEncoder(codePage, doubleByteTable("Shift_JIS"), new byte[]{0x1c, 0x43, 0x01, 0x1c, 0x26});
+			default:
+				throw new IllegalArgumentException("Invalid code page: " + codePage);
+		}
+	}
+
+	/** FS . then ESC t n. */
+	private static byte[] singleByteSelect(int n) {
+		return new byte[]{0x1c, 0x2e, 0x1b, 0x74, (byte) n};
+	}
+
+	private static char[] singleByteTable(String high) {
+		char[] table = asciiTable();
+		for (int i = 0; i < high.length(); i++) {
+			char c = high.charAt(i);
+			if (c != 0) {
+				table[c] = (char) (0x80 + i);
+			}
+		}
+		return table;
+	}
+
+	private static char[] asciiTable() {
+		char[] table = new char[0x10000];
+		for (char c = 1; c < 0x80; c++) {
+			table[c] = c;
+		}
+		return table;
+	}
+
+	/**
+	 * Decodes every one and two byte code once. A char that several codes decode
+	 * to, as some Big5 ones do, gets the code the charset itself encodes it to.
+	 */
+	private static char[] doubleByteTable(String charsetName) {
+		Charset charset = Charset.forName(charsetName);
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		char[] table = asciiTable();
+		boolean[] duplicate = new boolean[table.length];
+		ByteBuffer in = ByteBuffer.allocate(2);
+		CharBuffer out = CharBuffer.allocate(2);
+		for (int code = 0x80; code <= 0xff; code++) {
+			decode(decoder, code, in, out, table, duplicate);
+		}
+		for (int lead = 0x81; lead <= 0xfe; lead++) {
+			for (int trail = 0x40; trail <= 0xfe; trail++) {
+				decode(decoder, lead << 8 | trail, in, out, table, duplicate);
+			}
+		}
+		for (char c = 0x80; c < 0xffff; c++) {
+			if (duplicate[c]) {
+				byte[] code = String.valueOf(c).getBytes(charset);
+				if (code.length == 1) {
+					table[c] = (char) (code[0] & 0xff);
+				} else if (code.length == 2) {
+					table[c] = (char) ((code[0] & 0xff) << 8 | code[1] & 0xff);
+				}
+			}
+		}
+		return table;
+	}
+
+	private static void decode(CharsetDecoder decoder, int code, ByteBuffer in, CharBuffer out, char[] table, boolean[] duplicate) {
+		in.clear();
+		if (code > 0xff) {
+			in.put((byte) (code >> 8));
+		}
+		in.put((byte) code).flip();
+		out.clear();
+		decoder.reset();
+		if (decoder.decode(in, out, true).isError() || decoder.flush(out).isError() || in.hasRemaining()) {
+			return;
+		}
+		if (out.position() == 1) {
+			char c = out.get(0);
+			if (c >= 0x80 && c != '\uFFFD') {
+				if (table[c] == 0) {
+					table[c] = (char) code;
+				} else {
+					duplicate[c] = true;
+				}
+			}
+		}
+	}
+
+	public String getCodePage() {
+		return codePage;
+	}
+
+	/** Sends the command that selects this code page. */
+	public void select(OutputStream out) throws IOException {
+		out.write(select);
+	}
+
+	/** Most bytes {@code length} chars can encode to. */
+	public int maxBytes(int length) {
+		return table == null ? length * 3 : length * 2;
+	}
+
+	/** True if the printer can print {@code c} in this code page. */
+	public boolean canEncode(char c) {
+		return table == null || table[c] != 0;
+	}
+
+	/** Columns of font A a mappable char takes, two for a double byte code. */
+	public int columns(char c) {
+		return table != null && table[c] > 0xff ? 2 : 1;
+	}
+
+	/** Index of the first char from {@code from} that this code page cannot print, or {@code to}. */
+	public int mappableEnd(CharSequence text, int from, int to) {
+		if (table == null) {
+			return to;
+		}
+		int i = from;
+		while (i < to && table[text.charAt(i)] != 0) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Encodes chars {@code from} to {@code to}, which must all be mappable, into
+	 * {@code out}, which has room for {@link #maxBytes(int)} of them.
+	 *
+	 * @return offset just past the encoded text
+	 */
+	public int encode(CharSequence text, int from, int to, byte[] out, int offset) {
+		int k = offset;
+		if (table == null) {
+			return encodeUtf8(text, from, to, out, k);
+		}
+		for (int i = from; i < to; i++) {
+			char code = table[text.charAt(i)];
+			if (code > 0xff) {
+				out[k++] = (byte) (code >> 8);
+			}
+			out[k++] = (byte) code;
+		}
+		return k;
+	}
+
+	private static int encodeUtf8(CharSequence text, int from, int to, byte[] out, int k) {
+		for (int i = from; i < to; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				out[k++] = (byte) c;
+			} else if (c < 0x800) {
+				out[k++] = (byte) (0xc0 | c >> 6);
+				out[k++] = (byte) (0x80 | c & 0x3f);
+			} else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				out[k++] = (byte) (0xf0 | codePoint >> 18);
+				out[k++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+				out[k++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+				out[k++] = (byte) (0x80 | codePoint & 0x3f);
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				out[k++] = '?';
+			} else {
+				out[k++] = (byte) (0xe0 | c >> 12);
+				out[k++] = (byte) (0x80 | c >> 6 & 0x3f);
+				out[k++] = (byte) (0x80 | c & 0x3f);
+			}
+		}
+		return k;
+	}
+}
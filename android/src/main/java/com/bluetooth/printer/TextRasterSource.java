@@ -0,0 +1,142 @@
+package com.bluetooth.printer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Text set in a device font as a {@link RasterSource}, for scripts the printer
+ * has no font for. Lines break at the width on spaces, or anywhere in text
+ * without them such as Chinese, and each row is composed from the matching row
+ * of every glyph on its line. Glyphs come from a {@link GlyphAtlas} while the
+ * text is laid out, so reading rows touches no cache and allows concurrent calls.
+ */
+final class TextRasterSource implements RasterSource {
+
+	private final int width;
+	private final int rowBytes;
+	private final int lineHeight;
+	private final List<GlyphAtlas.Glyph[]> lines = new ArrayList<>();
+	private final List<int[]> positions = new ArrayList<>();
+
+	/**
+	 * @param width image width in dots, the paper width for a full line
+	 * @param align {@link DocumentEncoder#ALIGN_LEFT}, {@code ALIGN_CENTER} or
+	 *              {@code ALIGN_RIGHT}, applied to each line within the width
+	 */
+	public TextRasterSource(GlyphAtlas atlas, GlyphAtlas.Font font, String text, int width, int align) {
+		this.width = width;
+		this.rowBytes = RasterEncoder.rowBytes(width);
+		this.lineHeight = font.getLineHeight();
+		List<GlyphAtlas.Glyph> glyphs = new ArrayList<>();
+		List<Boolean> spaces = new ArrayList<>();
+		for (String paragraph : text.split("\n", -1)) {
+			glyphs.clear();
+			spaces.clear();
+			for (int i = 0; i < paragraph.length(); ) {
+				int codePoint = paragraph.codePointAt(i);
+				i += Character.charCount(codePoint);
+				if (codePoint == '\r') {
+					continue;
+				}
+				glyphs.add(atlas.get(font, codePoint));
+				spaces.add(Character.isWhitespace(codePoint));
+			}
+			layout(glyphs, spaces, align);
+		}
+	}
+
+	private void layout(List<GlyphAtlas.Glyph> glyphs, List<Boolean> spaces, int align) {
+		int n = glyphs.size();
+		if (n == 0) {
+			addLine(glyphs, 0, 0, align);
+			return;
+		}
+		int start = 0;
+		while (start < n) {
+			int x = 0;
+			int end = start;
+			int lastSpace = -1;
+			// at least one glyph per line, however wide
+			while (end < n && (end == start || x + glyphs.get(end).width <= width)) {
+				if (spaces.get(end)) {
+					lastSpace = end;
+				}
+				x += glyphs.get(end).width;
+				end++;
+			}
+			if (end < n && !spaces.get(end) && lastSpace > start) {
+				end = lastSpace + 1;
+			}
+			addLine(glyphs, start, end, align);
+			start = end;
+			while (start < n && spaces.get(start)) {
+				start++;
+			}
+		}
+	}
+
+	private void addLine(List<GlyphAtlas.Glyph> glyphs, int start, int end, int align) {
+		int lineWidth = 0;
+		int count = 0;
+		for (int i = start; i < end; i++) {
+			lineWidth += glyphs.get(i).width;
+			if (!glyphs.get(i).isBlank()) {
+				count++;
+			}
+		}
+		int x;
+		if (align == DocumentEncoder.ALIGN_CENTER) {
+			x = Math.max(0, (width - lineWidth) / 2);
+		} else if (align == DocumentEncoder.ALIGN_RIGHT) {
+			x = Math.max(0, width - lineWidth);
+		} else {
+			x = 0;
+		}
+		GlyphAtlas.Glyph[] line = new GlyphAtlas.Glyph[count];
+		int[] xs = new int[count];
+		for (int i = start, k = 0; i < end; i++) {
+			GlyphAtlas.Glyph glyph = glyphs.get(i);
+			if (!glyph.isBlank()) {
+				line[k] = glyph;
+				xs[k++] = x;
+			}
+			x += glyph.width;
+		}
+		lines.add(line);
+		positions.add(xs);
+	}
+
+	public int getLineCount() {
+		return lines.size();
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return lines.size() * lineHeight;
+	}
+
+	@Override
+	public void readRows(int y, int rowCount, byte[] dst, int dstOffset) {
+		Arrays.fill(dst, dstOffset, dstOffset + rowCount * rowBytes, (byte) 0);
+		for (int row = 0; row < rowCount; row++, dstOffset += rowBytes) {
+			int line = (y + row) / lineHeight;
+			int glyphRow = (y + row) % lineHeight;
+			GlyphAtlas.Glyph[] glyphs = lines.get(line);
+			int[] xs = positions.get(line);
+			for (int i = 0; i < glyphs.length; i++) {
+				glyphs[i].copyRow(glyphRow, dst, dstOffset, xs[i], width);
+			}
+		}
+	}
+
+	@Override
+	public boolean isSequential() {
+		return false;
+	}
+}
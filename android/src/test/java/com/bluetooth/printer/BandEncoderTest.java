@@ -0,0 +1,94 @@
+package com.bluetooth.printer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Band widths of compact encodings. Under ESC a 1 or 2 the printer places every
+ * band by its own width, so only a trimming encoder may vary them.
+ */
+public class BandEncoderTest {
+
+	private static RasterSource qrCode() {
+		boolean[][] modules = QrCode.encode("https://example.com/receipt/123456789", QrCode.EC_M);
+		return new ModuleRasterSource(modules, 6, 6, QrCode.QUIET_ZONE);
+	}
+
+	/** Widths of the ESC * bands in {@code data}, which holds nothing but images and feeds. */
+	private static List<Integer> columnBandWidths(byte[] data) {
+		List<Integer> widths = new ArrayList<>();
+		int k = 0;
+		while (k < data.length) {
+			if (data[k] == 0x1b && data[k + 1] == 0x33) {
+				k += 3;
+			} else if (data[k] == 0x1b && data[k + 1] == 0x4a) {
+				k += 3;
+			} else if (data[k] == 0x1b && data[k + 1] == 0x2a) {
+				int width = (data[k + 3] & 0xff) | (data[k + 4] & 0xff) << 8;
+				widths.add(width);
+				k += RasterEncoder.columnBandSize(width);
+			} else {
+				throw new AssertionError("Unexpected byte at " + k);
+			}
+		}
+		return widths;
+	}
+
+	/** Row bytes of the GS v 0 blocks in {@code data}, which holds nothing but images and feeds. */
+	private static List<Integer> rasterBlockWidths(byte[] data) {
+		List<Integer> widths = new ArrayList<>();
+		int k = 0;
+		while (k < data.length) {
+			if (data[k] == 0x1b && data[k + 1] == 0x4a) {
+				k += 3;
+			} else if (data[k] == 0x1d && data[k + 1] == 0x76) {
+				int rowBytes = (data[k + 4] & 0xff) | (data[k + 5] & 0xff) << 8;
+				int rows = (data[k + 6] & 0xff) | (data[k + 7] & 0xff) << 8;
+				widths.add(rowBytes);
+				k += 8 + rowBytes * rows;
+			} else {
+				throw new AssertionError("Unexpected byte at " + k);
+			}
+		}
+		return widths;
+	}
+
+	@Test
+	public void untrimmedCompactBandsKeepTheFullWidth() {
+		RasterSource source = qrCode();
+		byte[] full = BandEncoder.encode(source, false, false);
+		byte[] compact = BandEncoder.encode(new BandEncoder(source, false, true, false));
+		assertTrue(compact.length < full.length);
+		for (int width : columnBandWidths(compact)) {
+			assertEquals(source.getWidth(), width);
+		}
+		for (int rowBytes : rasterBlockWidths(BandEncoder.encode(new BandEncoder(source, true, true, false)))) {
+			assertEquals(RasterEncoder.rowBytes(source.getWidth()), rowBytes);
+		}
+	}
+
+	@Test
+	public void trimmedBandsEndAtTheirLastDot() {
+		RasterSource source = qrCode();
+		List<Integer> widths = columnBandWidths(BandEncoder.encode(source, false, true));
+		for (int width : widths) {
+			assertTrue(width < source.getWidth());
+		}
+		// the QR code's right edge is not in the same column on every band
+		assertTrue(new HashSet<>(widths).size() > 1);
+	}
+
+	@Test
+	public void compactTrimsByDefaultOnly() {
+		BandEncoder encoder = new BandEncoder(qrCode(), false, true);
+		assertTrue(encoder.isTrimmed());
+		assertFalse(new BandEncoder(qrCode(), false, false, true).isTrimmed());
+	}
+}
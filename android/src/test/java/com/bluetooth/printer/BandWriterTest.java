@@ -0,0 +1,28 @@
+package com.bluetooth.printer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** Failures of the connection while {@link BandWriter} streams an image. */
+public class BandWriterTest {
+
+	/** A tall image has far more bands than the writer has chunks to encode into. */
+	@Test(expected = IllegalStateException.class, timeout = 10000)
+	public void runtimeFailureOfTheConnectionReachesTheEncoder() throws IOException {
+		RasterSource source = PrintPipelineBenchmark.receiptImage(PrinterSimulator.DEFAULT_WIDTH, 2400);
+		OutputStream connection = new OutputStream() {
+			@Override
+			public void write(int b) {
+				throw new IllegalStateException("Peripheral disconnected");
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				throw new IllegalStateException("Peripheral disconnected");
+			}
+		};
+		BandWriter.stream(new BandEncoder(source, false, true), connection, BandWriter.DEFAULT_QUEUE_DEPTH);
+	}
+}
@@ -0,0 +1,85 @@
+package com.bluetooth.printer;
+
+import java.util.Locale;
+
+/**
+ * Throughput of every {@link Ditherer} mode on a photo-like image: smooth
+ * gradients with some noise, where diffusion does the most work. Luminance is
+ * computed once up front, so the figures are for {@link Ditherer#packRow} alone;
+ * {@code OTSU} includes building the histogram and choosing its threshold.
+ *
+ * Arguments: {@code [width] [height] [runs]}.
+ */
+public final class DitherBenchmark {
+
+	private static final String[] MODES = {
+			Ditherer.THRESHOLD, Ditherer.OTSU, Ditherer.BAYER, Ditherer.FLOYD_STEINBERG, Ditherer.ATKINSON};
+	private static final int WARMUP_RUNS = 10;
+
+	private DitherBenchmark() {
+	}
+
+	public static void main(String[] args) {
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : PrinterSimulator.DEFAULT_WIDTH;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 1200;
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+		int[] argb = photo(width, height);
+		int[] luma = argb.clone();
+		RasterEncoder.toLuminance(luma, 0, luma.length);
+		int rowBytes = RasterEncoder.rowBytes(width);
+		byte[] rows = new byte[rowBytes * height];
+		System.out.println(String.format(Locale.US, "image %dx%d", width, height));
+		for (String mode : MODES) {
+			for (int i = 0; i < WARMUP_RUNS; i++) {
+				dither(mode, argb, luma, width, height, rows);
+			}
+			long best = Long.MAX_VALUE;
+			int black = 0;
+			for (int run = 0; run < runs; run++) {
+				long start = System.nanoTime();
+				dither(mode, argb, luma, width, height, rows);
+				best = Math.min(best, System.nanoTime() - start);
+				black = countBlack(rows);
+			}
+			System.out.println(String.format(Locale.US, "%-16s %7.2f ms, %7.1f Mpixel/s, %4.1f%% black",
+					mode, best / 1e6, (double) width * height * 1e3 / best, black * 100.0 / width / height));
+		}
+	}
+
+	private static void dither(String mode, int[] argb, int[] luma, int width, int height, byte[] rows) {
+		int[] histogram = Ditherer.OTSU.equals(mode) ? ArgbRasterSource.histogram(argb, width, height) : null;
+		Ditherer ditherer = Ditherer.create(mode, width, histogram);
+		int rowBytes = RasterEncoder.rowBytes(width);
+		for (int y = 0; y < height; y++) {
+			ditherer.packRow(luma, y * width, width, y, rows, y * rowBytes);
+		}
+	}
+
+	/** A diagonal gradient under a soft radial light, with a little deterministic noise. */
+	private static int[] photo(int width, int height) {
+		int[] argb = new int[width * height];
+		int seed = 12345;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				double dx = (x - width / 2.0) / width;
+				double dy = (y - height / 3.0) / height;
+				double light = 1 - Math.min(1, Math.sqrt(dx * dx + dy * dy) * 1.6);
+				seed = seed * 1103515245 + 12345;
+				int noise = ((seed >>> 16) & 15) - 8;
+				int v = (int) (255 * (0.35 * (x + y) / (width + height) + 0.65 * light)) + noise;
+				v = Math.max(0, Math.min(255, v));
+				argb[y * width + x] = 0xff000000 | v << 16 | (v * 9 / 10) << 8 | v * 8 / 10;
+			}
+		}
+		return argb;
+	}
+
+	private static int countBlack(byte[] rows) {
+		int count = 0;
+		for (byte b : rows) {
+			count += Integer.bitCount(b & 0xff);
+		}
+		return count;
+	}
+}
@@ -0,0 +1,80 @@
+package com.bluetooth.printer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Where status queries go in a paced job. A DLE EOT inside an ESC * band would
+ * be printed as dots and the rest of the band taken for commands.
+ */
+public class PacedOutputStreamTest {
+
+	/** Passes writes on, noting how much job data came before each status query. */
+	private static final class QueryRecorder extends OutputStream {
+		final OutputStream out;
+		final List<Long> queries = new ArrayList<>();
+		long data;
+
+		QueryRecorder(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len % 3 == 0 && b[off] == 0x10 && b[off + 1] == 0x04) {
+				queries.add(data);
+			} else {
+				data += len;
+			}
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+
+	@Test
+	public void statusIsOnlyQueriedBetweenBands() throws IOException {
+		PrinterSimulator simulator = new PrinterSimulator(PrinterSimulator.DEFAULT_WIDTH, 0, 1 << 20, 0);
+		PrinterTransport transport = simulator.connect();
+		QueryRecorder recorder = new QueryRecorder(transport.getOutputStream());
+		PacedOutputStream paced = new PacedOutputStream(recorder, transport.getInputStream(), false, 500);
+		paced.setStatusInterval(3000);
+		BandEncoder encoder = new BandEncoder(PrintPipelineBenchmark.receiptImage(PrinterSimulator.DEFAULT_WIDTH, 600),
+				false, false);
+		Set<Long> bandEnds = new HashSet<>();
+		long end = 0;
+		for (int i = 0; i < encoder.bandCount(); i++) {
+			end += encoder.bandSize(i);
+			bandEnds.add(end);
+		}
+
+		JobBuffer job = JobBuffer.open(paced, false);
+		BandWriter.stream(encoder, job, BandWriter.DEFAULT_QUEUE_DEPTH);
+		job.finish();
+		transport.release();
+
+		assertTrue(recorder.queries.size() > 1);
+		assertEquals(recorder.queries.size(), paced.getStatusPolls());
+		for (long query : recorder.queries) {
+			assertTrue("query after " + query + " bytes", bandEnds.contains(query));
+		}
+		assertEquals(end, recorder.data);
+	}
+}
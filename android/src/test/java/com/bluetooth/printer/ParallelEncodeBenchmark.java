@@ -0,0 +1,75 @@
+package com.bluetooth.printer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Time to encode an image on one thread with {@link BandEncoder} and on the
+ * shared pool with {@link ParallelBandEncoder}, by image height. Short images
+ * are a handful of tasks and gain little; long receipts and labels are where
+ * the pool pays off. Both outputs are checked to be identical.
+ *
+ * Arguments: {@code [runs] [heights...]}.
+ */
+public final class ParallelEncodeBenchmark {
+
+	private static final int[] DEFAULT_HEIGHTS = {96, 600, 2400, 9600};
+	private static final int WARMUP_RUNS = 20;
+
+	private ParallelEncodeBenchmark() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int[] heights = DEFAULT_HEIGHTS;
+		if (args.length > 1) {
+			heights = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				heights[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+		System.out.println(String.format(Locale.US, "%d threads, width %d", ParallelBandEncoder.THREADS,
+				PrinterSimulator.DEFAULT_WIDTH));
+		RasterSource warmup = PrintPipelineBenchmark.receiptImage(PrinterSimulator.DEFAULT_WIDTH, 600);
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			sequential(warmup, false);
+			parallel(warmup, false);
+		}
+		for (boolean raster : new boolean[] {false, true}) {
+			for (int height : heights) {
+				RasterSource source = PrintPipelineBenchmark.receiptImage(PrinterSimulator.DEFAULT_WIDTH, height);
+				if (!Arrays.equals(sequential(source, raster), parallel(source, raster))) {
+					throw new AssertionError("Parallel encoding differs at height " + height);
+				}
+				long sequential = Long.MAX_VALUE;
+				long parallel = Long.MAX_VALUE;
+				for (int run = 0; run < runs; run++) {
+					long start = System.nanoTime();
+					sequential(source, raster);
+					long middle = System.nanoTime();
+					parallel(source, raster);
+					long end = System.nanoTime();
+					sequential = Math.min(sequential, middle - start);
+					parallel = Math.min(parallel, end - middle);
+				}
+				System.out.println(String.format(Locale.US,
+						"%-6s height %5d: sequential %8.2f ms, parallel %8.2f ms, speedup %.2fx",
+						raster ? "RASTER" : "COLUMN", height, sequential / 1e6, parallel / 1e6,
+						(double) sequential / parallel));
+			}
+		}
+	}
+
+	private static byte[] sequential(RasterSource source, boolean raster) {
+		return BandEncoder.encode(source, raster, true);
+	}
+
+	private static byte[] parallel(RasterSource source, boolean raster) throws IOException {
+		BandEncoder encoder = new BandEncoder(source, raster, true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(encoder.totalSize());
+		ParallelBandEncoder.stream(encoder, out);
+		return out.toByteArray();
+	}
+}
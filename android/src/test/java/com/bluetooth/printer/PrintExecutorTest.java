@@ -0,0 +1,75 @@
+package com.bluetooth.printer;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Per-printer queues of {@link PrintExecutor}. */
+public class PrintExecutorTest {
+
+	private static final String PRINTER = "00:11:22:33:44:55";
+
+	@Test
+	public void jobAfterAnErrorStillRuns() throws InterruptedException {
+		PrintExecutor executor = new PrintExecutor();
+		executor.submit(PRINTER, new Runnable() {
+			@Override
+			public void run() {
+				throw new OutOfMemoryError("decoding a photo");
+			}
+		});
+		final CountDownLatch ran = new CountDownLatch(1);
+		executor.submit(PRINTER, new Runnable() {
+			@Override
+			public void run() {
+				ran.countDown();
+			}
+		});
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void depthCountsTheRunningJob() throws InterruptedException {
+		PrintExecutor executor = new PrintExecutor();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		executor.submit(PRINTER, new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertEquals(Integer.valueOf(1), executor.getQueueDepths().get(PRINTER));
+		release.countDown();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		Map<String, Integer> depths;
+		while (!(depths = executor.getQueueDepths()).isEmpty() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		// a drained queue is dropped
+		assertTrue(depths.isEmpty());
+	}
+
+	@Test
+	public void shutdownRejectsNewJobs() {
+		PrintExecutor executor = new PrintExecutor();
+		executor.shutdown();
+		assertFalse(executor.submit(PRINTER, new Runnable() {
+			@Override
+			public void run() {
+			}
+		}));
+	}
+}
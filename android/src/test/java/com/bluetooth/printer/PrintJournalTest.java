@@ -0,0 +1,49 @@
+package com.bluetooth.printer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/** Jobs written to a {@link PrintJournal} and read back after reopening it. */
+public class PrintJournalTest {
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("print", ".journal");
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void jobWithoutServiceSurvivesReopening() throws IOException {
+		byte[] data = {0x1b, 0x40, 'h', 'i', 0x0a};
+		PrintJournal journal = new PrintJournal(file);
+		journal.open();
+		PrintJournal.Entry added = journal.add(2, "tcp://192.168.1.50:9100", null, data);
+		journal.close();
+
+		PrintJournal reopened = new PrintJournal(file);
+		List<PrintJournal.Entry> replayed = reopened.open();
+		reopened.close();
+		assertEquals(1, replayed.size());
+		PrintJournal.Entry entry = replayed.get(0);
+		assertEquals(added.id, entry.id);
+		assertEquals(2, entry.priority);
+		assertEquals("tcp://192.168.1.50:9100", entry.address);
+		assertNull(entry.service);
+		assertArrayEquals(data, entry.data);
+	}
+}
@@ -0,0 +1,151 @@
+package com.bluetooth.printer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * End-to-end throughput of the sending path against {@link PrinterSimulator}:
+ * a job gathered by {@link JobBuffer} and sent by {@link PacedOutputStream} over
+ * the simulator's in-memory connection, whose writes block as the modelled link
+ * and printer buffer allow.
+ *
+ * A text receipt is sent both gathered, as jobs are now, and with every command
+ * written and flushed on its own as they used to be; each write to the simulator
+ * costs the given latency, modelling a small RFCOMM frame per flush.
+ *
+ * Arguments: {@code [baudRate] [bufferSize] [printSpeed] [runs] [writeLatencyMicros]}.
+ */
+public final class PrintPipelineBenchmark {
+
+	private static final byte[] RESET = {0x1b, 0x40};
+	private static final byte[] CUT = {0x1d, 0x56, 0x00};
+	/** Roughly two Bluetooth connection events per packet. */
+	private static final int DEFAULT_WRITE_LATENCY_MICROS = 2500;
+	private static final int RECEIPT_ITEMS = 40;
+
+	private PrintPipelineBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int baudRate = args.length > 0 ? Integer.parseInt(args[0]) : PrinterSimulator.DEFAULT_BAUD_RATE;
+		int bufferSize = args.length > 1 ? Integer.parseInt(args[1]) : PrinterSimulator.DEFAULT_BUFFER_SIZE;
+		int printSpeed = args.length > 2 ? Integer.parseInt(args[2]) : PrinterSimulator.DEFAULT_PRINT_SPEED;
+		int runs = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+		int writeLatency = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_WRITE_LATENCY_MICROS;
+
+		PrinterSimulator simulator = new PrinterSimulator(PrinterSimulator.DEFAULT_WIDTH, baudRate, bufferSize, printSpeed);
+		System.out.println(String.format(Locale.US, "baud %d, buffer %d bytes, paper %d dots/s",
+				baudRate, bufferSize, printSpeed));
+		images(simulator, runs);
+		simulator.setWriteLatency(writeLatency);
+		receipts(simulator, runs, writeLatency);
+	}
+
+	/** A synthetic receipt image in column and raster mode, full and compact. */
+	private static void images(PrinterSimulator simulator, int runs) throws IOException {
+		RasterSource source = receiptImage(PrinterSimulator.DEFAULT_WIDTH, 600);
+		System.out.println(String.format(Locale.US, "image %dx%d", source.getWidth(), source.getHeight()));
+		for (int mode = 0; mode < 4; mode++) {
+			boolean raster = mode >= 2;
+			boolean compact = (mode & 1) != 0;
+			byte[] image = BandEncoder.encode(source, raster, compact);
+			for (int run = 0; run < runs; run++) {
+				simulator.clearJobs();
+				PrinterTransport transport = simulator.connect();
+				PacedOutputStream paced = new PacedOutputStream(transport.getOutputStream(), transport.getInputStream(),
+						false, PacedOutputStream.DEFAULT_CHUNK_SIZE);
+				long start = System.nanoTime();
+				JobBuffer job = JobBuffer.open(paced, false);
+				job.write(RESET);
+				job.write(image);
+				job.write(CUT);
+				job.finish();
+				long sent = System.nanoTime() - start;
+				transport.release();
+				PrinterSimulator.Job printed = simulator.getJobs().get(0);
+				System.out.println(String.format(Locale.US,
+						"%-6s %-7s run %d: %6d bytes in %3d chunks, sent in %7.1f ms (%7.0f B/s), printed in %7.1f ms, %s",
+						raster ? "RASTER" : "COLUMN", compact ? "compact" : "full", run, printed.getBytes(),
+						paced.getChunks(), sent / 1e6, paced.getBytes() * 1e9 / sent, printed.getPrintMs(),
+						matches(printed, source) ? "dots match" : "DOTS DIFFER"));
+			}
+		}
+	}
+
+	/** A text receipt sent gathered and flushed command by command. */
+	private static void receipts(PrinterSimulator simulator, int runs, int writeLatency) throws IOException {
+		System.out.println(String.format(Locale.US, "text receipt, %d items, %d us per write", RECEIPT_ITEMS, writeLatency));
+		for (int mode = 0; mode < 2; mode++) {
+			boolean flushEachCommand = mode == 1;
+			for (int run = 0; run < runs; run++) {
+				simulator.clearJobs();
+				PrinterTransport transport = simulator.connect();
+				PacedOutputStream paced = new PacedOutputStream(transport.getOutputStream(), transport.getInputStream(),
+						false, PacedOutputStream.DEFAULT_CHUNK_SIZE);
+				long start = System.nanoTime();
+				JobBuffer job = JobBuffer.open(paced, flushEachCommand);
+				writeReceipt(job);
+				job.finish();
+				long sent = System.nanoTime() - start;
+				transport.release();
+				PrinterSimulator.Job printed = simulator.getJobs().get(0);
+				System.out.println(String.format(Locale.US,
+						"%-18s run %d: %5d bytes in %4d writes, sent in %7.1f ms, job done in %7.1f ms",
+						flushEachCommand ? "flush each command" : "one buffer", run, printed.getBytes(),
+						job.getWriteCalls(), sent / 1e6, (printed.getDoneNanos() - start) / 1e6));
+			}
+		}
+	}
+
+	/** A header, items with prices and a footer, styled as receipts usually are. */
+	private static void writeReceipt(JobBuffer job) throws IOException {
+		DocumentEncoder document = new DocumentEncoder(job, PrinterSimulator.DEFAULT_WIDTH,
+				TextEncoder.forCodePage(TextEncoder.UTF_8), null);
+		document.reset();
+		document.setAlign(DocumentEncoder.ALIGN_CENTER);
+		document.setBold(true);
+		document.setSize(2, 2);
+		document.text("CORNER CAFE");
+		document.newLine();
+		document.setSize(1, 1);
+		document.setBold(false);
+		document.text("Order 1042, table 7");
+		document.newLine();
+		document.setAlign(DocumentEncoder.ALIGN_LEFT);
+		document.divider('-');
+		for (int i = 0; i < RECEIPT_ITEMS; i++) {
+			document.setBold(i % 5 == 0);
+			document.columns((i % 3 + 1) + " x Item " + (i + 1), String.format(Locale.US, "%d.%02d", 3 + i % 9, i * 7 % 100));
+		}
+		document.setBold(true);
+		document.divider('=');
+		document.columns("TOTAL", "218.40");
+		document.setBold(false);
+		document.setAlign(DocumentEncoder.ALIGN_CENTER);
+		document.text("Thank you!");
+		document.newLine();
+		document.feedLines(3);
+		document.cut(false);
+	}
+
+	/** Text-like bars, white gaps and a box, the same on every run. */
+	static RasterSource receiptImage(int width, int height) {
+		int[] argb = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				boolean black = (y / 24) % 3 != 2 && (x / 6 + y / 24) % 7 < 4 && x < 60 + (y * 37) % 400
+						|| (y > 480 && y < 560 && x > 100 && x < 476 && (x < 104 || x > 472 || y < 484 || y > 556));
+				argb[y * width + x] = black ? 0xff000000 : 0xffffffff;
+			}
+		}
+		return new ArgbRasterSource(argb, width, height);
+	}
+
+	private static boolean matches(PrinterSimulator.Job job, RasterSource source) {
+		int rowBytes = RasterEncoder.rowBytes(source.getWidth());
+		byte[] expected = new byte[rowBytes * source.getHeight()];
+		source.readRows(0, source.getHeight(), expected, 0);
+		return Arrays.equals(expected, job.getRows(0, source.getHeight()));
+	}
+}
@@ -0,0 +1,855 @@
+package com.bluetooth.printer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A virtual ESC/POS printer, to measure and check the job pipeline on a plain JVM
+ * without a printer or an Android device. It takes jobs over a local TCP port,
+ * like a network printer on port 9100, or through {@link #connect()} in memory.
+ *
+ * The link and the printer are modelled: bytes arrive no faster than the baud rate
+ * allows, go into a receive buffer of the configured size and leave it as the
+ * paper moves at the print speed. A full buffer stops the printer reading, which
+ * pushes back on the sender as a real printer's flow control does. Over TCP the
+ * sender's socket buffer soaks up much of a job first, so sending times are only
+ * meaningful through {@link #connect()}, whose writes block. DLE EOT is
+ * answered as soon as it arrives, with the status set on the simulator, and taken
+ * out of the data, even from the middle of another command.
+ *
+ * Every job, up to a cut or the end of the connection, is recorded with its timing,
+ * the commands it held, its text and the dots it printed, which can be compared
+ * with the source image or written out as a PBM file.
+ *
+ * {@link PrintPipelineBenchmark} drives it for repeatable throughput numbers.
+ */
+final class PrinterSimulator implements Closeable {
+
+	/** 80 mm paper at 203 dpi. */
+	public static final int DEFAULT_WIDTH = 576;
+	public static final int DEFAULT_BAUD_RATE = 115200;
+	public static final int DEFAULT_BUFFER_SIZE = 4 * 1024;
+	/** Paper speed in dots per second, 150 mm/s at 8 dots/mm. */
+	public static final int DEFAULT_PRINT_SPEED = 1200;
+
+	private static final long CUT_NANOS = 200 * 1000 * 1000L;
+	private static final int DEFAULT_LINE_SPACING = 30;
+	private static final int CHAR_HEIGHT = 24;
+	// bytes taken off the link at a time, so printing overlaps a large write
+	private static final int LINK_CHUNK = 64;
+
+	/** A job as the printer received and printed it. */
+	static final class Job {
+		private final int width;
+		private final List<String> commands = new ArrayList<>();
+		private final StringBuilder text = new StringBuilder();
+		private final List<byte[]> rows = new ArrayList<>();
+		private long bytes;
+		private long receiveStart;
+		private long receiveEnd;
+		private long printEnd;
+		private boolean cut;
+
+		Job(int width) {
+			this.width = width;
+		}
+
+		/** Commands in the order they arrived, e.g. "ESC a 1" or "GS v 0 576x240". */
+		public List<String> getCommands() {
+			return commands;
+		}
+
+		/** Text printed, one line per LF. */
+		public String getText() {
+			return text.toString();
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public boolean isCut() {
+			return cut;
+		}
+
+		/** From the first byte received to the last, in milliseconds. */
+		public double getReceiveMs() {
+			return (receiveEnd - receiveStart) / 1e6;
+		}
+
+		/** From the first byte received until the modelled paper stopped, in milliseconds. */
+		public double getPrintMs() {
+			return (Math.max(printEnd, receiveEnd) - receiveStart) / 1e6;
+		}
+
+		/** {@link System#nanoTime()} when the modelled paper stopped. */
+		public long getDoneNanos() {
+			return Math.max(printEnd, receiveEnd);
+		}
+
+		/** Bytes received per second while the job came in. */
+		public double getBytesPerSecond() {
+			long nanos = receiveEnd - receiveStart;
+			return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		/** Paper length the job printed or fed, in dots. */
+		public int getHeight() {
+			return rows.size();
+		}
+
+		/** Packed rows of the printed dots, as {@link RasterSource#readRows} gives them. */
+		public byte[] getRows(int y, int rowCount) {
+			int rowBytes = RasterEncoder.rowBytes(width);
+			byte[] dst = new byte[rowBytes * rowCount];
+			for (int i = 0; i < rowCount && y + i < rows.size(); i++) {
+				System.arraycopy(rows.get(y + i), 0, dst, i * rowBytes, rowBytes);
+			}
+			return dst;
+		}
+
+		/** The printed dots as a binary PBM (P4) image. */
+		public byte[] toPbm() {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] header = ("P4\n" + width + " " + rows.size() + "\n").getBytes();
+			out.write(header, 0, header.length);
+			for (byte[] row : rows) {
+				out.write(row, 0, row.length);
+			}
+			return out.toByteArray();
+		}
+
+		private byte[] row(int y) {
+			while (rows.size() <= y) {
+				rows.add(new byte[RasterEncoder.rowBytes(width)]);
+			}
+			return rows.get(y);
+		}
+
+		private void dot(int x, int y) {
+			if (x >= 0 && x < width) {
+				row(y)[x >> 3] |= 0x80 >> (x & 7);
+			}
+		}
+	}
+
+	private final int width;
+	private final int baudRate;
+	private final int bufferSize;
+	private final int printSpeed;
+	private final List<Job> jobs = new ArrayList<>();
+	private volatile byte[] status = {0x12, 0x12, 0x12, 0x12};
+	private volatile long writeLatencyNanos;
+	private ServerSocket server;
+	private Thread acceptor;
+
+	public PrinterSimulator() {
+		this(DEFAULT_WIDTH, DEFAULT_BAUD_RATE, DEFAULT_BUFFER_SIZE, DEFAULT_PRINT_SPEED);
+	}
+
+	/**
+	 * @param baudRate link speed in bits per second, ten bits per byte; 0 for no limit
+	 * @param printSpeed paper speed in dots per second; 0 to print instantly
+	 */
+	public PrinterSimulator(int width, int baudRate, int bufferSize, int printSpeed) {
+		this.width = width;
+		this.baudRate = baudRate;
+		this.bufferSize = bufferSize;
+		this.printSpeed = printSpeed;
+	}
+
+	/**
+	 * Time every write to an in-memory connection takes before its bytes arrive,
+	 * for the per-packet cost of a link such as RFCOMM, where each write and flush
+	 * can go out as a small frame of its own. 0, the default, for none.
+	 */
+	public void setWriteLatency(long micros) {
+		writeLatencyNanos = micros * 1000;
+	}
+
+	/** Sets what DLE EOT answers: paper end and cover open take the printer offline. */
+	public void setStatus(boolean paperEnd, boolean paperNearEnd, boolean coverOpen) {
+		boolean offline = paperEnd || coverOpen;
+		status = new byte[]{
+				(byte) (0x12 | (offline ? 0x08 : 0)),
+				(byte) (0x12 | (coverOpen ? 0x04 : 0) | (paperEnd ? 0x20 : 0)),
+				0x12,
+				(byte) (0x12 | (paperNearEnd ? 0x0c : 0) | (paperEnd ? 0x60 : 0))};
+	}
+
+	/** Accepts connections on {@code port} of the loopback address, 0 for any; returns the port. */
+	public synchronized int listen(int port) throws IOException {
+		final ServerSocket server = new ServerSocket();
+		// a small socket buffer, so a full printer buffer soon holds up the sender
+		server.setReceiveBufferSize(Math.max(1024, bufferSize));
+		server.bind(new InetSocketAddress(InetAddress.getByName(null), port), 1);
+		this.server = server;
+		acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				// a printer serves one connection at a time
+				while (!server.isClosed()) {
+					try (Socket socket = server.accept()) {
+						socket.setTcpNoDelay(true);
+						serve(socket.getInputStream(), socket.getOutputStream());
+					} catch (IOException e) {
+						// next connection
+					}
+				}
+			}
+		}, "PrinterSimulator");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return server.getLocalPort();
+	}
+
+	/** A connection in memory, with the same link model as over TCP. */
+	public PrinterTransport connect() {
+		return new SimulatedTransport();
+	}
+
+	/** Jobs received so far, oldest first. */
+	public synchronized List<Job> getJobs() {
+		return new ArrayList<>(jobs);
+	}
+
+	/** Waits until {@code count} jobs were received; returns them. */
+	public synchronized List<Job> awaitJobs(int count, long timeoutMs) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		while (jobs.size() < count) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				break;
+			}
+			wait(remaining);
+		}
+		return new ArrayList<>(jobs);
+	}
+
+	public synchronized void clearJobs() {
+		jobs.clear();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (server != null) {
+			server.close();
+			server = null;
+		}
+	}
+
+	private synchronized void finished(Job job) {
+		jobs.add(job);
+		notifyAll();
+	}
+
+	private void serve(InputStream in, OutputStream answers) throws IOException {
+		Session session = new Session(answers);
+		byte[] buffer = new byte[Math.max(64, Math.min(bufferSize, 4096))];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			session.receive(buffer, 0, n);
+		}
+		session.end();
+	}
+
+	/**
+	 * One connection: the link and buffer model, the parser and the job being
+	 * received.
+	 */
+	private final class Session {
+		private final OutputStream answers;
+		// pending commands: end offset in the stream and the time they are printed
+		private final ArrayDeque<long[]> printing = new ArrayDeque<>();
+		private final byte[] filtered = new byte[bufferSize + 2];
+		private byte[] pending = new byte[1024];
+		private int pendingCount;
+		private long received;
+		private long printed;
+		private long linkAt;
+		private long printAt;
+		private long arrivedAt;
+		// bytes of a possible DLE EOT held back from the data: 0, DLE, or DLE EOT
+		private int held;
+
+		private Job job;
+		private int y;
+		private int align;
+		private int margin;
+		private int lineSpacing;
+		private int lineHeight;
+		private final StringBuilder line = new StringBuilder();
+
+		Session(OutputStream answers) {
+			this.answers = answers;
+			reset();
+		}
+
+		void receive(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			while (len > 0) {
+				int n = Math.min(len, Math.min(bufferSize, LINK_CHUNK));
+				long now = System.nanoTime();
+				int kept = answerRealTime(b, off, n);
+				boolean held = reserve(kept);
+				if (baudRate > 0) {
+					// the pieces of one write follow each other on the link, however late a sleep woke
+					linkAt = Math.max(linkAt, held ? System.nanoTime() : start) + n * 10L * 1000000000L / baudRate;
+					sleepUntil(linkAt);
+				}
+				arrivedAt = now;
+				append(filtered, 0, kept);
+				received += kept;
+				parse();
+				off += n;
+				len -= n;
+			}
+		}
+
+		void end() throws IOException {
+			if (held > 0) {
+				filtered[0] = 0x10;
+				filtered[1] = 0x04;
+				append(filtered, 0, held);
+				received += held;
+				held = 0;
+				parse();
+			}
+			if (job != null) {
+				flushLine();
+				job.printEnd = printAt;
+				finished(job);
+				job = null;
+			}
+		}
+
+		/**
+		 * Answers DLE EOT on receipt, before the buffer is read, and copies the rest
+		 * of the bytes to {@link #filtered}. Returns how many were copied.
+		 */
+		private int answerRealTime(byte[] b, int off, int n) throws IOException {
+			int k = 0;
+			for (int i = off; i < off + n; i++) {
+				int c = b[i] & 0xff;
+				if (held == 2 && c >= 1 && c <= 4) {
+					answers.write(status[c - 1]);
+					answers.flush();
+					held = 0;
+					continue;
+				}
+				if (held == 1 && c == 0x04) {
+					held = 2;
+					continue;
+				}
+				// not a DLE EOT after all, the held bytes are data
+				if (held > 0) {
+					filtered[k++] = 0x10;
+					if (held == 2) {
+						filtered[k++] = 0x04;
+					}
+					held = 0;
+				}
+				if (c == 0x10) {
+					held = 1;
+				} else {
+					filtered[k++] = (byte) c;
+				}
+			}
+			return k;
+		}
+
+		/** Waits until the receive buffer has room for {@code n} more bytes; true if it had to. */
+		private boolean reserve(int n) {
+			boolean held = false;
+			while (true) {
+				long now = System.nanoTime();
+				while (!printing.isEmpty() && printing.peekFirst()[1] <= now) {
+					printed = printing.pollFirst()[0];
+				}
+				if (received - printed + n <= bufferSize || printing.isEmpty()) {
+					return held;
+				}
+				held = true;
+				sleepUntil(printing.peekFirst()[1]);
+			}
+		}
+
+		private void append(byte[] b, int off, int n) {
+			if (pendingCount + n > pending.length) {
+				pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingCount + n));
+			}
+			System.arraycopy(b, off, pending, pendingCount, n);
+			pendingCount += n;
+		}
+
+		private void parse() throws IOException {
+			int p = 0;
+			while (p < pendingCount) {
+				if (job == null) {
+					job = new Job(width);
+					job.receiveStart = arrivedAt;
+				}
+				int used = command(pending, p, pendingCount - p);
+				if (used == 0) {
+					break;
+				}
+				p += used;
+				if (job != null) {
+					job.bytes += used;
+					job.receiveEnd = System.nanoTime();
+				}
+				// the command is printed once the paper moved for everything before it
+				printing.addLast(new long[]{received - (pendingCount - p), printAt});
+			}
+			System.arraycopy(pending, p, pending, 0, pendingCount - p);
+			pendingCount -= p;
+		}
+
+		private void reset() {
+			align = 0;
+			margin = 0;
+			lineSpacing = DEFAULT_LINE_SPACING;
+		}
+
+		private void record(String command) {
+			job.commands.add(command);
+		}
+
+		/** Paper moved by {@code dots}, at the print speed. */
+		private void feed(int dots) {
+			y += dots;
+			long now = System.nanoTime();
+			printAt = Math.max(printAt, now) + (printSpeed > 0 ? dots * 1000000000L / printSpeed : 0);
+			job.row(Math.max(0, y - 1));
+		}
+
+		private void flushLine() {
+			if (line.length() > 0) {
+				job.text.append(line).append('\n');
+				record("TEXT " + line);
+				line.setLength(0);
+				lineHeight = Math.max(lineHeight, CHAR_HEIGHT);
+			}
+		}
+
+		private void lineFeed() {
+			flushLine();
+			feed(Math.max(lineSpacing, lineHeight));
+			lineHeight = 0;
+		}
+
+		private int imageX(int imageWidth) {
+			int area = width - margin;
+			return margin + (align == 1 ? (area - imageWidth) / 2 : align == 2 ? area - imageWidth : 0);
+		}
+
+		/** Parses one command; returns its length, or 0 if it has not fully arrived. */
+		private int command(byte[] b, int p, int n) throws IOException {
+			int c = b[p] & 0xff;
+			switch (c) {
+				case 0x0A:
+					lineFeed();
+					return 1;
+				case 0x1B:
+					return n < 2 ? 0 : esc(b, p, n);
+				case 0x1C:
+					return n < 2 ? 0 : fs(b, p, n);
+				case 0x1D:
+					return n < 2 ? 0 : gs(b, p, n);
+				default:
+					if (c >= 0x20) {
+						line.append((char) c);
+					}
+					return 1;
+			}
+		}
+
+		private int esc(byte[] b, int p, int n) {
+			int c = b[p + 1] & 0xff;
+			switch (c) {
+				case '@':
+					flushLine();
+					reset();
+					record("ESC @");
+					return 2;
+				case '2':
+					lineSpacing = DEFAULT_LINE_SPACING;
+					record("ESC 2");
+					return 2;
+				case '*': {
+					if (n < 5) {
+						return 0;
+					}
+					int m = b[p + 2] & 0xff;
+					int columns = u16(b, p + 3);
+					int bytesPerColumn = m >= 32 ? 3 : 1;
+					int length = 5 + columns * bytesPerColumn;
+					if (n < length) {
+						return 0;
+					}
+					int x0 = imageX(columns);
+					int top = y;
+					for (int x = 0; x < columns; x++) {
+						for (int k = 0; k < bytesPerColumn; k++) {
+							int bits = b[p + 5 + x * bytesPerColumn + k] & 0xff;
+							for (int bit = 0; bit < 8; bit++) {
+								if ((bits & (0x80 >> bit)) != 0) {
+									job.dot(x0 + x, top + k * 8 + bit);
+								}
+							}
+						}
+					}
+					lineHeight = Math.max(lineHeight, bytesPerColumn * 8);
+					record("ESC * " + m + " " + columns + "x" + bytesPerColumn * 8);
+					return length;
+				}
+				case 'p':
+					if (n < 5) {
+						return 0;
+					}
+					record("ESC p " + (b[p + 2] & 0xff));
+					return 5;
+				case '$':
+				case '\\':
+					if (n < 4) {
+						return 0;
+					}
+					record(String.format(Locale.US, "ESC %c %d", (char) c, u16(b, p + 2)));
+					return 4;
+				case 'D': {
+					// tab positions, up to a NUL
+					for (int i = p + 2; i < p + n; i++) {
+						if (b[i] == 0) {
+							record("ESC D");
+							return i - p + 1;
+						}
+					}
+					return 0;
+				}
+				default: {
+					if (n < 3) {
+						return 0;
+					}
+					int v = b[p + 2] & 0xff;
+					switch (c) {
+						case 'a':
+							align = v >= '0' ? v - '0' : v;
+							break;
+						case '3':
+							lineSpacing = v;
+							break;
+						case 'J':
+							flushLine();
+							feed(v);
+							lineHeight = 0;
+							break;
+						case 'd':
+							flushLine();
+							feed(Math.max(lineSpacing, lineHeight) + lineSpacing * Math.max(0, v - 1));
+							lineHeight = 0;
+							break;
+						default:
+							break;
+					}
+					// ESC ! E G M - t { V R r and the rest take one parameter
+					record("ESC " + (char) c + " " + v);
+					return 3;
+				}
+			}
+		}
+
+		private int fs(byte[] b, int p, int n) {
+			int c = b[p + 1] & 0xff;
+			switch (c) {
+				case 'p':
+					if (n < 4) {
+						return 0;
+					}
+					flushLine();
+					record("FS p " + (b[p + 2] & 0xff) + " " + (b[p + 3] & 0xff));
+					return 4;
+				case 'q': {
+					if (n < 3) {
+						return 0;
+					}
+					int count = b[p + 2] & 0xff;
+					int k = p + 3;
+					for (int i = 0; i < count; i++) {
+						if (k + 4 > p + n) {
+							return 0;
+						}
+						k += 4 + u16(b, k) * u16(b, k + 2) * 8;
+					}
+					if (k > p + n) {
+						return 0;
+					}
+					record("FS q " + count);
+					return k - p;
+				}
+				case '!':
+					if (n < 3) {
+						return 0;
+					}
+					record("FS ! " + (b[p + 2] & 0xff));
+					return 3;
+				default:
+					// FS & and FS . select and cancel two-byte characters
+					record("FS " + (char) c);
+					return 2;
+			}
+		}
+
+		private int gs(byte[] b, int p, int n) throws IOException {
+			int c = b[p + 1] & 0xff;
+			switch (c) {
+				case 'v': {
+					if (n < 8) {
+						return 0;
+					}
+					int rowBytes = u16(b, p + 4);
+					int rowCount = u16(b, p + 6);
+					int length = 8 + rowBytes * rowCount;
+					if (n < length) {
+						return 0;
+					}
+					flushLine();
+					int x0 = imageX(rowBytes * 8);
+					for (int r = 0; r < rowCount; r++) {
+						for (int i = 0; i < rowBytes; i++) {
+							int bits = b[p + 8 + r * rowBytes + i] & 0xff;
+							for (int bit = 0; bit < 8 && bits != 0; bit++) {
+								if ((bits & (0x80 >> bit)) != 0) {
+									job.dot(x0 + i * 8 + bit, y + r);
+								}
+							}
+						}
+					}
+					feed(rowCount);
+					record("GS v 0 " + rowBytes * 8 + "x" + rowCount);
+					return length;
+				}
+				case 'V': {
+					if (n < 3) {
+						return 0;
+					}
+					int m = b[p + 2] & 0xff;
+					int length = m == 65 || m == 66 || m >= 97 ? 4 : 3;
+					if (n < length) {
+						return 0;
+					}
+					flushLine();
+					if (length == 4) {
+						feed(b[p + 3] & 0xff);
+					}
+					record("GS V " + m);
+					printAt += CUT_NANOS;
+					job.cut = true;
+					job.bytes += length;
+					job.receiveEnd = System.nanoTime();
+					job.printEnd = printAt;
+					finished(job);
+					job = null;
+					y = 0;
+					return length;
+				}
+				case '(': {
+					if (n < 5) {
+						return 0;
+					}
+					int length = 5 + u16(b, p + 3);
+					if (n < length) {
+						return 0;
+					}
+					int fn = length > 6 ? b[p + 6] & 0xff : -1;
+					record("GS ( " + (char) b[p + 2] + " fn " + fn);
+					return length;
+				}
+				case '8': {
+					if (n < 7) {
+						return 0;
+					}
+					long length = 7 + ((b[p + 3] & 0xffL) | (b[p + 4] & 0xffL) << 8
+							| (b[p + 5] & 0xffL) << 16 | (b[p + 6] & 0xffL) << 24);
+					if (n < length) {
+						return 0;
+					}
+					record("GS 8 " + (char) b[p + 2] + " fn " + (b[p + 8] & 0xff));
+					return (int) length;
+				}
+				case 'k': {
+					if (n < 3) {
+						return 0;
+					}
+					int m = b[p + 2] & 0xff;
+					if (m <= 6) {
+						for (int i = p + 3; i < p + n; i++) {
+							if (b[i] == 0) {
+								record("GS k " + m + " " + new String(b, p + 3, i - p - 3));
+								return i - p + 1;
+							}
+						}
+						return 0;
+					}
+					if (n < 4 || n < 4 + (b[p + 3] & 0xff)) {
+						return 0;
+					}
+					record("GS k " + m + " " + new String(b, p + 4, b[p + 3] & 0xff));
+					return 4 + (b[p + 3] & 0xff);
+				}
+				case 'r':
+					if (n < 3) {
+						return 0;
+					}
+					// paper sensors in GS r 1 layout, answered once the data before it printed
+					int paper = status[3];
+					answers.write((paper & 0x0c) >> 2 | (paper & 0x60) >> 3);
+					answers.flush();
+					record("GS r " + (b[p + 2] & 0xff));
+					return 3;
+				case 'L':
+				case 'W':
+				case 'P':
+					if (n < 4) {
+						return 0;
+					}
+					if (c == 'L') {
+						margin = u16(b, p + 2);
+					}
+					record("GS " + (char) c + " " + u16(b, p + 2));
+					return 4;
+				default:
+					if (n < 3) {
+						return 0;
+					}
+					// GS ! B H h w f a and the rest take one parameter
+					record("GS " + (char) c + " " + (b[p + 2] & 0xff));
+					return 3;
+			}
+		}
+	}
+
+	private static int u16(byte[] b, int p) {
+		return (b[p] & 0xff) | (b[p + 1] & 0xff) << 8;
+	}
+
+	private static void sleepUntil(long nanoTime) {
+		long delay = nanoTime - System.nanoTime();
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/** Status answers queued for an in-memory connection. */
+	private static final class Answers extends InputStream {
+		private final ArrayDeque<Integer> bytes = new ArrayDeque<>();
+
+		synchronized void add(int b) {
+			bytes.add(b & 0xff);
+			notifyAll();
+		}
+
+		@Override
+		public synchronized int available() {
+			return bytes.size();
+		}
+
+		@Override
+		public synchronized int read() throws IOException {
+			while (bytes.isEmpty()) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted");
+				}
+			}
+			return bytes.poll();
+		}
+	}
+
+	private final class SimulatedTransport implements PrinterTransport {
+		private final Answers answers = new Answers();
+		private final Session session = new Session(new OutputStream() {
+			@Override
+			public void write(int b) {
+				answers.add(b);
+			}
+		});
+		private long bytesWritten;
+
+		private final OutputStream out = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[]{(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (writeLatencyNanos > 0) {
+					sleepUntil(System.nanoTime() + writeLatencyNanos);
+				}
+				session.receive(b, off, len);
+				bytesWritten += len;
+			}
+		};
+
+		@Override
+		public OutputStream getOutputStream() {
+			return out;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return answers;
+		}
+
+		@Override
+		public String getAddress() {
+			return "simulator";
+		}
+
+		@Override
+		public boolean isReused() {
+			return false;
+		}
+
+		@Override
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+
+		@Override
+		public void release() {
+			try {
+				session.end();
+			} catch (IOException e) {
+				// answers go to memory
+			}
+		}
+
+		@Override
+		public void invalidate() {
+			release();
+		}
+	}
+}
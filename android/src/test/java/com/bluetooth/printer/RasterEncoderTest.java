@@ -0,0 +1,124 @@
+package com.bluetooth.printer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the ESC * 33 encoding byte for byte against the encoder it replaced,
+ * {@code draw2PxPoint} and {@code px2Byte} as they were, kept here over a pixel
+ * array instead of a Bitmap.
+ */
+public class RasterEncoderTest {
+
+	/** The original draw2PxPoint, trimmed to the bytes it filled. */
+	private static byte[] legacyDraw2PxPoint(int[] argb, int width, int height) {
+		int size = width * height / 8 + 1000;
+		byte[] data = new byte[size];
+		int k = 0;
+		data[k++] = 0x1B;
+		data[k++] = 0x33;
+		data[k++] = 0x00;
+		for (int j = 0; j < height / 24f; j++) {
+			data[k++] = 0x1B;
+			data[k++] = 0x2A;
+			data[k++] = 33;
+			data[k++] = (byte) (width % 256);
+			data[k++] = (byte) (width / 256);
+			for (int i = 0; i < width; i++) {
+				for (int m = 0; m < 3; m++) {
+					for (int n = 0; n < 8; n++) {
+						byte b = legacyPx2Byte(i, j * 24 + m * 8 + n, argb, width, height);
+						data[k] += data[k] + b;
+					}
+					k++;
+				}
+			}
+			data[k++] = 10;
+		}
+		return Arrays.copyOf(data, k);
+	}
+
+	private static byte legacyPx2Byte(int x, int y, int[] argb, int width, int height) {
+		if (x < width && y < height) {
+			int pixel = argb[y * width + x];
+			int red = (pixel & 0x00ff0000) >> 16;
+			int green = (pixel & 0x0000ff00) >> 8;
+			int blue = pixel & 0x000000ff;
+			return legacyGray(red, green, blue) < 128 ? (byte) 1 : (byte) 0;
+		}
+		return 0;
+	}
+
+	private static int legacyGray(int r, int g, int b) {
+		return (int) (0.29900 * r + 0.58700 * g + 0.11400 * b);
+	}
+
+	/** Random opaque pixels, leaving out the colours the two thresholds disagree on. */
+	private static int[] image(int width, int height, long seed) {
+		Random random = new Random(seed);
+		int[] argb = new int[width * height];
+		for (int i = 0; i < argb.length; i++) {
+			int rgb;
+			do {
+				// mostly black and white, like a receipt, with some colour in between
+				int kind = random.nextInt(4);
+				rgb = kind == 0 ? 0x000000 : kind == 1 ? 0xffffff : random.nextInt(0x1000000);
+			} while (RasterEncoder.luminance(rgb) == RasterEncoder.THRESHOLD);
+			argb[i] = 0xff000000 | rgb;
+		}
+		return argb;
+	}
+
+	@Test
+	public void columnModeMatchesLegacyEncoder() {
+		int[][] sizes = {{8, 24}, {576, 240}, {384, 100}, {203, 47}, {1, 1}, {13, 25}};
+		for (int[] size : sizes) {
+			int width = size[0];
+			int height = size[1];
+			int[] argb = image(width, height, width * 31L + height);
+			byte[] expected = legacyDraw2PxPoint(argb, width, height);
+			byte[] actual = BandEncoder.encode(new ArgbRasterSource(argb, width, height), false, false);
+			assertArrayEquals(width + "x" + height, expected, actual);
+			assertEquals(RasterEncoder.columnModeSize(width, height), actual.length);
+		}
+	}
+
+	@Test
+	public void luminanceIsExactIntegerFormula() {
+		for (int rgb = 0; rgb < 0x1000000; rgb++) {
+			int r = rgb >> 16;
+			int g = (rgb >> 8) & 0xff;
+			int b = rgb & 0xff;
+			if (RasterEncoder.luminance(rgb) != (299 * r + 587 * g + 114 * b) / 1000) {
+				throw new AssertionError("luminance of " + Integer.toHexString(rgb));
+			}
+		}
+	}
+
+	/**
+	 * The documented difference: the old double formula lands a little low for a
+	 * few colours, which printed black although their luminance is exactly 128.
+	 */
+	@Test
+	public void thresholdDiffersOnlyOnColoursExactlyAtThreshold() {
+		int differing = 0;
+		for (int rgb = 0; rgb < 0x1000000; rgb++) {
+			int lum = RasterEncoder.luminance(rgb);
+			int old = legacyGray(rgb >> 16, (rgb >> 8) & 0xff, rgb & 0xff);
+			if ((old < RasterEncoder.THRESHOLD) != (lum < RasterEncoder.THRESHOLD)) {
+				assertEquals(Integer.toHexString(rgb), RasterEncoder.THRESHOLD, lum);
+				assertEquals(Integer.toHexString(rgb), RasterEncoder.THRESHOLD - 1, old);
+				differing++;
+			}
+		}
+		assertEquals(46, differing);
+		// rgb(8, 200, 72) is 128 exactly: black before, white now
+		assertEquals(1, legacyPx2Byte(0, 0, new int[]{0xff08c848}, 1, 1));
+		assertEquals(128, RasterEncoder.luminance(0xff08c848));
+	}
+}
@@ -2,6 +2,13 @@
 var React = require('react-native');
 var blueToothPrinterModule = React.NativeModules.BlueToothPrinterModule;
 
+function printerNotReady(message, status) {
+  var error = new Error(message);
+  error.code = 'PRINTER_NOT_READY';
+  error.status = status;
+  return error;
+}
+
 class BlueToothPrinterModule  {
 
   constructor() {
@@ -37,7 +44,73 @@ class BlueToothPrinterModule  {
       maxByteSize = 20;
     }
     return new Promise((fulfill, reject) => {
-      blueToothPrinterModule.write(options, peripheralId, serviceUUID, data, maxByteSize, (error) => {
+      blueToothPrinterModule.write(options, peripheralId, serviceUUID, data, maxByteSize, (error, result) => {
+        if (error) {
+          // with options.statusCheck, a printer that cannot print rejects with its status
+          reject(result ? printerNotReady(error, result) : error);
+        } else {
+          fulfill(result);
+        }
+      });
+    });
+  }
+
+  // segments: [{type: 'text', text, align, bold, width, height}, {type: 'columns', left, right},
+  // {type: 'divider', char}, {type: 'feed', lines | dots}, {type: 'image', data, width, height, ...},
+  // {type: 'stored', key, storage}, {type: 'barcode', data, format, moduleWidth, height, hri},
+  // {type: 'qr', data, size, errorCorrection}, {type: 'cut', partial, feed}, {type: 'raw', data},
+  // {type: 'rasterText', text, font, fontSize, bold, italic, align}]
+  // rasterText is drawn natively for scripts the printer has no font for; font is a family
+  // ('sans-serif', 'serif', 'monospace'), 'asset:fonts/x.ttf' or a font file path. Glyphs are
+  // cached, see getImageStats(). printType TEXT takes the same options with rasterize: true
+  // barcodes and QR codes are drawn by the printer; for printers without GS k or GS ( k,
+  // set options.nativeBarcode or options.nativeQr to false to send them as images instead.
+  // options.codePage (CP437, CP858, CP1252, GBK, GB18030, BIG5, SHIFT_JIS) encodes text for the
+  // printer instead of sending UTF-8; characters it lacks are drawn unless options.rasterFallback is false
+  printDocument(segments, peripheralId, serviceUUID, options, maxByteSize) {
+    options = Object.assign({}, options, {printType: 'DOCUMENT', segments: segments});
+    return this.write(options, peripheralId, serviceUUID, '', maxByteSize);
+  }
+
+  // segments as for printDocument; strings may hold {{field}} placeholders. Everything
+  // without one is encoded now and kept natively; options (paperWidth, codePage, ...) are fixed
+  registerTemplate(name, segments, options) {
+    return new Promise((fulfill, reject) => {
+      blueToothPrinterModule.registerTemplate(name, segments, options || {}, (error, result) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill(result);
+        }
+      });
+    });
+  }
+
+  unregisterTemplate(name) {
+    blueToothPrinterModule.unregisterTemplate(name);
+  }
+
+  // only the field values cross the bridge
+  printTemplate(name, fields, peripheralId, serviceUUID, options, maxByteSize) {
+    options = Object.assign({}, options, {printType: 'TEMPLATE', template: name, fields: fields});
+    return this.write(options, peripheralId, serviceUUID, '', maxByteSize);
+  }
+
+  storeImage(options, peripheralId, serviceUUID, data) {
+    return new Promise((fulfill, reject) => {
+      blueToothPrinterModule.storeImage(options, peripheralId, serviceUUID, data, (error, result) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill(result);
+        }
+      });
+    });
+  }
+
+  deleteStoredImage(options, peripheralId, serviceUUID) {
+    return new Promise((fulfill, reject) => {
+      blueToothPrinterModule.deleteStoredImage(options, peripheralId, serviceUUID, (error) => {
         if (error) {
           reject(error);
         } else {
@@ -47,6 +120,102 @@ class BlueToothPrinterModule  {
     });
   }
 
+  getStoredImages(peripheralId) {
+    return new Promise((fulfill, reject) => {
+      blueToothPrinterModule.getStoredImages(peripheralId, (error, images) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill(images);
+        }
+      });
+    });
+  }
+
+  getPrinterStatus(peripheralId, serviceUUID) {
+    if (serviceUUID == null) {
+      // serial port profile, which classic bluetooth printers use
+      serviceUUID = '1101';
+    }
+    return new Promise((fulfill, reject) => {
+      blueToothPrinterModule.getPrinterStatus(peripheralId, serviceUUID, (error, status) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill(status);
+        }
+      });
+    });
+  }
+
+  getSpoolJobs() {
+    return new Promise((fulfill, reject) => {
+      blueToothPrinterModule.getSpoolJobs((error, jobs) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill(jobs);
+        }
+      });
+    });
+  }
+
+  cancelSpoolJob(id) {
+    return new Promise((fulfill, reject) => {
+      blueToothPrinterModule.cancelSpoolJob(id, (error) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill();
+        }
+      });
+    });
+  }
+
+  getQueueStats() {
+    return new Promise((fulfill, reject) => {
+      blueToothPrinterModule.getQueueStats((error, stats) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill(stats);
+        }
+      });
+    });
+  }
+
+  getConnectionStats() {
+    return new Promise((fulfill, reject) => {
+      blueToothPrinterModule.getConnectionStats((error, stats) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill(stats);
+        }
+      });
+    });
+  }
+
+  closePrinterConnections() {
+    blueToothPrinterModule.closePrinterConnections();
+  }
+
+  getImageStats() {
+    return new Promise((fulfill, reject) => {
+      blueToothPrinterModule.getImageStats((error, stats) => {
+        if (error) {
+          reject(error);
+        } else {
+          fulfill(stats);
+        }
+      });
+    });
+  }
+
+  clearImageCache() {
+    blueToothPrinterModule.clearImageCache();
+  }
+
   writeWithoutResponse(peripheralId, serviceUUID, characteristicUUID, data, maxByteSize, queueSleepTime) {
     if (maxByteSize == null) {
       maxByteSize = 20;